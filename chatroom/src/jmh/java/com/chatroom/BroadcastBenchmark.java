@@ -0,0 +1,135 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BroadcastBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int roomSize;
+
+    @Param({ "false", "true" })
+    public boolean binaryRecipients;
+
+    private Room room;
+    private BenchmarkSession sender;
+    private BenchmarkSession[] members;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MessageRouter.setMessageStore(null);
+        // Persistence is measured by HistoryBenchmark, this is fan-out only
+        room = MessageRouter.roomRegistry.getOrCreate("bench-" + roomSize + "-" + binaryRecipients);
+        members = new BenchmarkSession[roomSize];
+        for (int i = 0; i < roomSize; i++) {
+            members[i] = new BenchmarkSession(i + 1, "user" + i, binaryRecipients);
+            members[i].getRooms().join(room.getId());
+            room.getMembers().add(members[i]);
+        }
+        sender = members[0];
+        payload = "The quick brown fox jumps over the lazy dog, a typical chat message"
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (BenchmarkSession member : members) {
+            room.getMembers().remove(member);
+        }
+    }
+
+    @Benchmark
+    public long broadcastMessage() {
+        ChatFrame frame = new ChatFrame(ChatFrame.TYPE_CHAT, (byte) 0, room.getId(), sender.getSessionId(),
+                System.currentTimeMillis(), sender.getUsername(), payload);
+        ClientHandler.broadcastMessage(sender, frame);
+        return members[roomSize - 1].delivered;
+    }
+    // One message from one member to the rest of the room: encoding once, the
+    // member snapshot and an outbound queue offer per recipient
+
+    static final class BenchmarkSession implements ChatSession {
+        private final long sessionId;
+        private final String username;
+        private final boolean binaryProtocol;
+        private final SessionRooms rooms = new SessionRooms();
+        private final OutboundQueue<ByteBuffer> outboundQueue = new OutboundQueue<>(1024,
+                OverflowPolicy.DROP_OLDEST);
+        private long delivered;
+
+        BenchmarkSession(long sessionId, String username, boolean binaryProtocol) {
+            this.sessionId = sessionId;
+            this.username = username;
+            this.binaryProtocol = binaryProtocol;
+        }
+
+        @Override
+        public long getSessionId() {
+            return sessionId;
+        }
+
+        @Override
+        public String getUsername() {
+            return username;
+        }
+
+        @Override
+        public SessionRooms getRooms() {
+            return rooms;
+        }
+
+        @Override
+        public void deliver(OutboundMessage message) {
+            outboundQueue.offer(message.encodedFor(binaryProtocol));
+            outboundQueue.poll();
+            delivered++;
+        }
+        // Queued and taken straight back off, as if a writer kept up with the
+        // broadcasts. Socket writes are left out so the result is the router's cost
+
+        @Override
+        public OutboundQueue<ByteBuffer> getOutboundQueue() {
+            return outboundQueue;
+        }
+
+        @Override
+        public boolean hasPendingWrites() {
+            return false;
+        }
+
+        @Override
+        public void close(ServerMetrics.DisconnectReason reason) {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+    }
+    // Room member without a connection
+}
+// Fan-out cost of a broadcast at different room sizes, for text and binary
+// recipients. Run with mvn -P benchmarks verify -Djmh.args=Broadcast
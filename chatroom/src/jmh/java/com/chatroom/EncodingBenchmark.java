@@ -0,0 +1,77 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EncodingBenchmark {
+
+    @Param({ "32", "512", "4096" })
+    public int messageLength;
+
+    private ChatFrame frame;
+    private ByteBuffer encodedBody;
+
+    @Setup
+    public void setUp() {
+        char[] text = new char[messageLength];
+        Arrays.fill(text, 'a');
+        frame = ChatFrame.chat(RoomRegistry.LOBBY_ID, 1, "alice", new String(text));
+        ByteBuffer encoded = BinaryProtocol.encode(frame, false);
+        encoded.getInt();
+        encodedBody = encoded.slice();
+        // The bytes after the length prefix, as the readers hand them to decode
+    }
+
+    @Benchmark
+    public ByteBuffer textLine() {
+        return OutboundMessage.of(frame).textLine();
+    }
+    // Text protocol line as every text recipient of a broadcast shares it
+
+    @Benchmark
+    public ByteBuffer binaryFrame() {
+        return OutboundMessage.of(frame).binaryFrame();
+    }
+    // Binary frame in a direct buffer, shared the same way
+
+    @Benchmark
+    public ByteBuffer encodeHeap() {
+        return BinaryProtocol.encode(frame, false);
+    }
+    // Binary frame as ChatClient writes it
+
+    @Benchmark
+    public ChatFrame decode() throws IOException {
+        return BinaryProtocol.decode(encodedBody.duplicate());
+    }
+    // Binary frame read back, as both server engines do for every message
+
+    @Benchmark
+    public String toTextLine() {
+        return frame.toTextLine();
+    }
+}
+// Cost of encoding a chat message for the wire in both protocols, and of
+// decoding a binary frame, at short, typical and long message lengths. Run with
+// mvn -P benchmarks verify -Djmh.args=Encoding
@@ -0,0 +1,149 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class HistoryBenchmark {
+
+    private static final ChatMessage[] MESSAGES = new ChatMessage[1000];
+
+    static {
+        for (int i = 0; i < MESSAGES.length; i++) {
+            MESSAGES[i] = new ChatMessage("user" + (i % 20), "Message number " + i
+                    + " about the release, the build and what to have for lunch");
+        }
+    }
+    // A thousand distinct messages, cycled through so building them is not timed
+
+    @State(Scope.Benchmark)
+    public static class EmptyHistory {
+        @Param({ "1000", "100000", "1000000" })
+        public int messageCount;
+
+        private Path directory;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("chat-history-bench");
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            delete(directory);
+        }
+    }
+    // A new, empty history directory for every append run
+
+    @State(Scope.Benchmark)
+    public static class FullHistory {
+        @Param({ "1000", "100000", "1000000" })
+        public int messageCount;
+
+        private Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("chat-history-bench");
+            append(directory, messageCount);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            delete(directory);
+        }
+    }
+    // A history directory filled once with messageCount messages and the search
+    // index built over them
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public long append(EmptyHistory state) {
+        return append(state.directory, state.messageCount);
+    }
+    // Adds every message and waits until they are all written and indexed, the
+    // way the client saves history. Replaces the old saveToFile
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public long load(FullHistory state) {
+        ChatHistory history = new ChatHistory(state.directory.toString());
+        long[] count = new long[1];
+        try {
+            history.load();
+            long end = history.getEndOffset();
+            history.read(Math.max(history.getStartOffset(), end - history.getPageSize()), end,
+                    (offset, message) -> count[0]++);
+        } finally {
+            history.close();
+        }
+        return count[0];
+    }
+    // Client startup: opens the history and reads the newest page. Replaces the
+    // old loadFromFile, which read every message
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 2, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public long readAll(FullHistory state) {
+        ChatHistory history = new ChatHistory(state.directory.toString());
+        long[] count = new long[1];
+        try {
+            history.load();
+            history.read(history.getStartOffset(), history.getEndOffset(), (offset, message) -> count[0]++);
+        } finally {
+            history.close();
+        }
+        return count[0];
+    }
+    // Reads and decodes every message, oldest first, like scrolling through the
+    // whole history
+
+    private static long append(Path directory, int messageCount) {
+        ChatHistory history = new ChatHistory(directory.toString());
+        try {
+            history.load();
+            for (int i = 0; i < messageCount; i++) {
+                history.addMessage(MESSAGES[i % MESSAGES.length]);
+            }
+            history.flush();
+            return history.getEndOffset();
+        } finally {
+            history.close();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
+// Chat history persistence at 1k, 100k and 1M messages: appending through the
+// history writer, opening at startup and reading everything back. Run with
+// mvn -P benchmarks verify -Djmh.args=History
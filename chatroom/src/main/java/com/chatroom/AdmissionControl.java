@@ -0,0 +1,201 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+class AdmissionControl {
+
+    static final int MAX_TRACKED_SOURCES = 10_000;
+    static final long EVICTION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Above this many source addresses, idle ones are forgotten, at most once per
+    // interval so a flood from many addresses does not scan them on every accept
+
+    private final ServerConfig config;
+    private final LongSupplier nanoClock;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final ConcurrentHashMap<InetAddress, SourceLimits> sources = new ConcurrentHashMap<>();
+    private final AtomicLong nextEviction = new AtomicLong();
+
+    AdmissionControl(ServerConfig config) {
+        this(config, System::nanoTime);
+    }
+
+    AdmissionControl(ServerConfig config, LongSupplier nanoClock) {
+        this.config = config;
+        this.nanoClock = nanoClock;
+        this.nextEviction.set(nanoClock.getAsLong());
+    }
+    // Every token bucket reads time from nanoClock, tests pass a clock they advance
+    // by hand
+
+    ServerMetrics.RejectReason admit(InetAddress address) {
+        if (config.getConnectRate() > 0 && !source(address).connects.tryAcquire()) {
+            return ServerMetrics.RejectReason.CONNECT_RATE;
+        }
+        // Checked first, so a client reconnecting in a loop never takes a session slot
+
+        int open = openConnections.incrementAndGet();
+        if (config.getMaxSessions() > 0 && open > config.getMaxSessions()) {
+            openConnections.decrementAndGet();
+            return ServerMetrics.RejectReason.SERVER_FULL;
+        }
+        return null;
+    }
+    // Decides right after accept whether a connection may stay. Returns null if it
+    // may, otherwise why not. Connections still in the handshake count towards
+    // the session cap, so clients that never send a username cannot get around it
+
+    void release() {
+        openConnections.decrementAndGet();
+    }
+    // Frees the slot of an admitted connection once it closes
+
+    static void reject(Socket socket, ServerMetrics.RejectReason reason) {
+        ServerMetrics.recordRejected(reason);
+        String notice;
+        switch (reason) {
+            case SERVER_FULL:
+                notice = "[SERVER] The server is full, try again later.\n";
+                break;
+            case CONNECT_RATE:
+                notice = "[SERVER] Too many connections from your address, try again later.\n";
+                break;
+            default:
+                notice = "[SERVER] The server is busy, try again later.\n";
+                break;
+        }
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(notice.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            // The client is turned away either way
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+    // Tells a rejected client why in one line and closes the connection straight
+    // away. The notice fits the empty socket buffer, so the accept thread never
+    // waits on the client
+
+    SessionLimits newSessionLimits(InetAddress address) {
+        TokenBucket session = config.getMessageRate() > 0
+                ? new TokenBucket(config.getMessageRate(), config.getMessageBurst(), nanoClock)
+                : null;
+        SourceLimits source = null;
+        if (config.getIpMessageRate() > 0) {
+            evictIdleSources();
+            source = sources.compute(address, (key, existing) -> {
+                SourceLimits limits = existing != null ? existing : new SourceLimits(config, nanoClock);
+                limits.sessions.incrementAndGet();
+                return limits;
+            });
+        }
+        return new SessionLimits(session, source);
+    }
+    // Message limits of one session: its own bucket and the one it shares with
+    // every other session from the same address. The session is counted under
+    // the map's lock, so eviction never drops a source it is about to use
+
+    private SourceLimits source(InetAddress address) {
+        evictIdleSources();
+        return sources.computeIfAbsent(address, key -> new SourceLimits(config, nanoClock));
+    }
+
+    private void evictIdleSources() {
+        if (sources.size() <= MAX_TRACKED_SOURCES) {
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        long next = nextEviction.get();
+        if (now - next < 0 || !nextEviction.compareAndSet(next, now + EVICTION_INTERVAL_NANOS)) {
+            return;
+        }
+        for (InetAddress address : sources.keySet()) {
+            sources.computeIfPresent(address, (key, limits) -> limits.isIdle() ? null : limits);
+        }
+    }
+    // Forgets addresses without open sessions whose buckets have refilled, which
+    // makes them no different from a new address. Only one caller per interval
+    // does the scan
+
+    int getTrackedSources() {
+        return sources.size();
+    }
+
+    private static final class SourceLimits {
+        private final TokenBucket connects;
+        private final TokenBucket messages;
+        private final AtomicInteger sessions = new AtomicInteger();
+        // Open sessions sharing the message bucket
+
+        private SourceLimits(ServerConfig config, LongSupplier nanoClock) {
+            connects = config.getConnectRate() > 0
+                    ? new TokenBucket(config.getConnectRate(), config.getConnectRate(), nanoClock)
+                    : null;
+            messages = config.getIpMessageRate() > 0
+                    ? new TokenBucket(config.getIpMessageRate(),
+                            Math.max(config.getIpMessageRate(), config.getMessageBurst()), nanoClock)
+                    : null;
+        }
+        // Buckets per address allow one second's worth as a burst
+
+        private boolean isIdle() {
+            return sessions.get() == 0 && (connects == null || connects.isFull())
+                    && (messages == null || messages.isFull());
+        }
+    }
+    // Limits shared by every connection from one address
+
+    static final class SessionLimits {
+        private final TokenBucket session;
+        private final SourceLimits source;
+        private boolean warned;
+
+        private SessionLimits(TokenBucket session, SourceLimits source) {
+            this.session = session;
+            this.source = source;
+        }
+
+        boolean allowMessage(ChatSession sender) {
+            if ((session == null || session.tryAcquire())
+                    && (source == null || source.messages.tryAcquire())) {
+                warned = false;
+                return true;
+            }
+            ServerMetrics.recordRateLimited();
+            if (!warned) {
+                warned = true;
+                sender.deliver(OutboundMessage.of(ChatFrame.system(RoomRegistry.LOBBY_ID,
+                        "[SERVER] You are sending messages too fast, some were not delivered.")));
+            }
+            return false;
+        }
+        // Called by the session's reader for every message and command. Messages over
+        // the limit are dropped before they reach the router, so a flooding client
+        // only costs the server the read. The client is told once per burst
+
+        void close() {
+            if (source != null) {
+                source.sessions.decrementAndGet();
+            }
+        }
+        // Called once when the session ends, its address may be forgotten after that
+    }
+}
+// Admission control for client connections: a cap on open connections, a
+// connect rate per source address, and message rates per session and per
+// source address, all token buckets. Everything is off unless configured
@@ -0,0 +1,139 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public final class BinaryProtocol {
+
+    public static final byte VERSION = 1;
+    public static final byte[] MAGIC = { 0, 'C', 'B', VERSION };
+    // Sent first by a client that wants binary framing. A text client's first byte
+    // is the first character of its username, which is never 0
+
+    public static final int HEADER_LENGTH = 1 + 1 + 4 + 8 + 8 + 2;
+    // type, flags, room id, sender id, timestamp, sender name length. Frames are
+    // preceded by a 4 byte length covering everything after it
+
+    private BinaryProtocol() {
+    }
+
+    public static int encodedLength(ChatFrame frame) {
+        return 4 + HEADER_LENGTH + frame.getSenderName().getBytes(StandardCharsets.UTF_8).length
+                + frame.getPayload().length;
+    }
+
+    public static ByteBuffer encode(ChatFrame frame, boolean direct) {
+        byte[] name = frame.getSenderName().getBytes(StandardCharsets.UTF_8);
+        int bodyLength = HEADER_LENGTH + name.length + frame.getPayload().length;
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(4 + bodyLength) : ByteBuffer.allocate(4 + bodyLength);
+        buffer.putInt(bodyLength);
+        buffer.put(frame.getType());
+        buffer.put(frame.getFlags());
+        buffer.putInt(frame.getRoomId());
+        buffer.putLong(frame.getSenderId());
+        buffer.putLong(frame.getTimestamp());
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+        buffer.put(frame.getPayload());
+        buffer.flip();
+        return buffer;
+    }
+    // Encodes a frame including its length prefix
+
+    public static ChatFrame decode(ByteBuffer body) throws IOException {
+        return decode(body, FrameCompression.MAX_INFLATED_LENGTH);
+    }
+
+    public static ChatFrame decode(ByteBuffer body, int maxLength) throws IOException {
+        return decode(body, maxLength, true);
+    }
+
+    public static ChatFrame decode(ByteBuffer body, int maxLength, boolean inflate) throws IOException {
+        if (body.remaining() < HEADER_LENGTH) {
+            throw new ProtocolException("Frame shorter than its header");
+        }
+        byte type = body.get();
+        byte flags = body.get();
+        int roomId = body.getInt();
+        long senderId = body.getLong();
+        long timestamp = body.getLong();
+        int nameLength = body.getShort() & 0xFFFF;
+        if (nameLength > body.remaining()) {
+            throw new ProtocolException("Sender name longer than the frame");
+        }
+        byte[] name = new byte[nameLength];
+        body.get(name);
+        byte[] payload = new byte[body.remaining()];
+        body.get(payload);
+        ChatFrame frame = new ChatFrame(type, flags, roomId, senderId, timestamp,
+                new String(name, StandardCharsets.UTF_8), payload);
+        return inflate ? FrameCompression.decompress(frame, maxLength) : frame;
+    }
+    // Decodes a frame body, the bytes following the length prefix. A compressed
+    // payload is inflated to at most maxLength bytes, unless the caller passes
+    // the frame on as it is
+
+    public static void checkLength(int length, int maxLength) throws IOException {
+        if (length < HEADER_LENGTH || length > maxLength) {
+            throw new ProtocolException("Invalid frame length " + length);
+        }
+    }
+
+    public static ChatFrame readFrame(DataInputStream in, int maxLength) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checkLength(length, maxLength);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(ByteBuffer.wrap(body), maxLength);
+    }
+    // Reads one frame from a blocking stream. Returns null at end of stream
+
+    public static void writeFrame(OutputStream out, ChatFrame frame) throws IOException {
+        ByteBuffer buffer = encode(frame, false);
+        out.write(buffer.array(), 0, buffer.limit());
+    }
+
+    public static ByteBuffer handshakeAck(long sessionId, String username, boolean compression) {
+        ByteBuffer hello = encode(ChatFrame.hello(sessionId, username, compression), false);
+        ByteBuffer ack = ByteBuffer.allocate(MAGIC.length + hello.remaining());
+        ack.put(MAGIC).put(hello).flip();
+        return ack;
+    }
+    // Server reply to a binary handshake: the magic bytes echoed back followed by
+    // a HELLO frame carrying the client's session id and whether the server will
+    // send it compressed frames
+
+    public static void writeMagic(OutputStream out) throws IOException {
+        out.write(MAGIC);
+    }
+
+    public static boolean readMagic(InputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        int read = 0;
+        while (read < magic.length) {
+            int n = in.read(magic, read, magic.length - read);
+            if (n < 0) {
+                return false;
+            }
+            read += n;
+        }
+        return Arrays.equals(magic, MAGIC);
+    }
+    // Reads the four magic bytes. Returns false if the peer speaks a different
+    // protocol or version
+}
+// Length-prefixed binary framing, negotiated per connection alongside the
+// original newline text protocol
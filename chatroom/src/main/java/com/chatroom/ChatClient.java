@@ -0,0 +1,414 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ChatClient implements Closeable {
+
+    static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+    static final int MAX_FRAME_LENGTH = 1024 * 1024;
+    // Largest frame or text line accepted from the server, before and after
+    // inflating. Chat messages are bounded by the server's maxLineLength, 64 KB by
+    // default, so this leaves room for servers configured higher and for long room
+    // lists. Anything larger is a protocol error and ends the connection
+
+    private final Socket socket;
+    private final String username;
+    private final boolean binaryProtocol;
+    private final boolean compression;
+    // Whether the server agreed to compression. Large messages are then deflated
+    // in both directions
+    private BufferedReader bufferedReader;
+    private BufferedWriter bufferedWriter;
+    private DataInputStream dataInputStream;
+    private BufferedOutputStream outputStream;
+    // Streams used instead of bufferedReader/bufferedWriter when the binary
+    // protocol was negotiated
+    private final Object writeLock = new Object();
+    // Sends can come from any thread, this keeps their bytes from interleaving
+    private volatile int currentRoomId = RoomRegistry.LOBBY_ID;
+    private final Map<Integer, String> roomNames = new ConcurrentHashMap<>();
+    // Binary clients address rooms by id, learned from the server's JOIN replies
+    private volatile ChatHistory history;
+    private volatile Listener listener;
+    private volatile boolean closed;
+
+    public ChatClient(Socket socket, String username, boolean binaryProtocol) throws IOException {
+        this(socket, username, binaryProtocol, false);
+    }
+
+    public ChatClient(Socket socket, String username, boolean binaryProtocol, boolean compression)
+            throws IOException {
+        this.socket = socket;
+        this.username = username;
+        this.binaryProtocol = binaryProtocol;
+        this.compression = binaryProtocol && compression;
+        if (binaryProtocol) {
+            this.outputStream = new BufferedOutputStream(socket.getOutputStream());
+            this.dataInputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        } else {
+            this.bufferedWriter = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            this.bufferedReader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+    }
+    // Wraps a socket that has already been through the handshake, see connect()
+
+    public static ChatClient connect(String host, int port, String username, boolean binaryProtocol)
+            throws IOException {
+        Socket socket = new Socket(host, port);
+        boolean compression = false;
+        try {
+            if (binaryProtocol) {
+                OutputStream out = socket.getOutputStream();
+                BinaryProtocol.writeMagic(out);
+                BinaryProtocol.writeFrame(out, ChatFrame.hello(0, username, true));
+                out.flush();
+                // Asks for binary framing and sends the username in a HELLO frame that
+                // offers compression
+
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                ChatFrame ack = BinaryProtocol.readMagic(in) ? BinaryProtocol.readFrame(in, MAX_FRAME_LENGTH) : null;
+                if (ack == null) {
+                    throw new IOException("Server does not support the binary protocol");
+                }
+                compression = (ack.getFlags() & ChatFrame.FLAG_COMPRESSION) != 0;
+                socket.setSoTimeout(0);
+                // Waits for the server to echo the magic bytes and acknowledge the HELLO.
+                // Servers without binary support never answer, hence the timeout. Older
+                // servers and servers with compression off leave the flag unset
+            } else {
+                BufferedWriter writer = new BufferedWriter(
+                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                writer.write(username + "\n");
+                writer.flush();
+                // Send the username to the server immediately after connection
+            }
+            return new ChatClient(socket, username, binaryProtocol, compression);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+    // Connects to a server and introduces the user, in the text or binary protocol
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isBinaryProtocol() {
+        return binaryProtocol;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public int getCurrentRoomId() {
+        return currentRoomId;
+    }
+
+    public void setHistory(ChatHistory history) {
+        this.history = history;
+    }
+    // Messages sent and received are added to this history. Optional, bots can
+    // leave it unset to keep nothing on disk. The caller loads and closes it
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void start() {
+        Thread receiver = new Thread(this::receiveMessages, "chat-client-" + username);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+    // Starts receiving messages. The listener is called on the receiving thread
+
+    public Message send(String text) throws IOException {
+        if (text.isEmpty()) {
+            return null;
+        }
+        if (write(text)) {
+            return null;
+            // Room commands are answered by the server and not shown as chat
+        }
+        long timestamp = System.currentTimeMillis();
+        return new Message(timestamp, currentRoomId, username, text, username + ": " + text, store(username, text),
+                false);
+    }
+    // Sends a chat message, or a room command for binary clients. Returns the
+    // message as sent, or null for a command
+
+    public void requestHistory(int count) throws IOException {
+        write("/history " + count);
+    }
+    // Asks the server to replay the last messages of the current room. The replay
+    // arrives through the listener, marked as replayed
+
+    private boolean write(String text) throws IOException {
+        synchronized (writeLock) {
+            if (binaryProtocol) {
+                ChatFrame commandFrame = roomCommandFrame(text);
+                ChatFrame frame = commandFrame != null ? commandFrame
+                        : ChatFrame.chat(currentRoomId, 0, username, text);
+                BinaryProtocol.writeFrame(outputStream, compression ? FrameCompression.compress(frame) : frame);
+                outputStream.flush();
+                // The server fills in the sender id, name and time
+                return commandFrame != null;
+            }
+            bufferedWriter.write(username + ": " + text);
+            bufferedWriter.newLine();
+            bufferedWriter.flush();
+            return false;
+        }
+    }
+    // Writes a line of text in the negotiated protocol. Returns whether it was
+    // sent as a command frame
+
+    private ChatFrame roomCommandFrame(String text) {
+        String[] parts = text.trim().split("\\s+", 2);
+        String argument = parts.length > 1 ? parts[1] : "";
+        switch (parts[0]) {
+            case "/join":
+                return new ChatFrame(ChatFrame.TYPE_JOIN, (byte) 0, 0, 0, 0, username,
+                        argument.getBytes(StandardCharsets.UTF_8));
+            case "/leave":
+                String roomName = RoomRegistry.normaliseName(argument);
+                int roomId = RoomRegistry.LOBBY_NAME.equals(roomName) ? RoomRegistry.LOBBY_ID : currentRoomId;
+                // The lobby is joined on connect, so its name never arrives in a JOIN reply
+                for (Map.Entry<Integer, String> room : roomNames.entrySet()) {
+                    if (room.getValue().equals(roomName)) {
+                        roomId = room.getKey();
+                    }
+                }
+                return new ChatFrame(ChatFrame.TYPE_LEAVE, (byte) 0, roomId, 0, 0, username, new byte[0]);
+            case "/rooms":
+                return new ChatFrame(ChatFrame.TYPE_ROOM_LIST, (byte) 0, 0, 0, 0, username, new byte[0]);
+            case "/history":
+                return new ChatFrame(ChatFrame.TYPE_HISTORY, (byte) 0, currentRoomId, 0, 0, username,
+                        argument.getBytes(StandardCharsets.UTF_8));
+            default:
+                return null;
+        }
+    }
+    // Turns /join <room>, /leave [room], /rooms and /history into binary command
+    // frames. Returns null for anything else
+
+    private String roomPrefix(int roomId) {
+        String roomName = roomNames.get(roomId);
+        return roomId == RoomRegistry.LOBBY_ID || roomName == null ? "" : "[#" + roomName + "] ";
+    }
+    // Tags messages from rooms other than the lobby, like the server does for text
+    // clients
+
+    private void receiveMessages() {
+        while (socket.isConnected()) {
+            try {
+                if (binaryProtocol) {
+                    ChatFrame frame = BinaryProtocol.readFrame(dataInputStream, MAX_FRAME_LENGTH);
+                    if (frame == null) {
+                        break;
+                    }
+                    if (frame.getType() == ChatFrame.TYPE_JOIN) {
+                        roomNames.put(frame.getRoomId(), frame.getText());
+                        currentRoomId = frame.getRoomId();
+                        frame = ChatFrame.system(frame.getRoomId(), "[SERVER] You joined #" + frame.getText() + ".");
+                    } else if (frame.getType() == ChatFrame.TYPE_LEAVE) {
+                        if (currentRoomId == frame.getRoomId()) {
+                            currentRoomId = RoomRegistry.LOBBY_ID;
+                        }
+                        frame = ChatFrame.system(RoomRegistry.LOBBY_ID, "[SERVER] You left #" + frame.getText() + ".");
+                    } else if (frame.getType() == ChatFrame.TYPE_ROOM_LIST) {
+                        frame = ChatFrame.system(RoomRegistry.LOBBY_ID,
+                                "[SERVER] Rooms: " + frame.getText().replace("\n", ", "));
+                    } else if (frame.getType() == ChatFrame.TYPE_HISTORY) {
+                        frame = new ChatFrame(ChatFrame.TYPE_SYSTEM, ChatFrame.FLAG_REPLAY, frame.getRoomId(),
+                                0, frame.getTimestamp(), "",
+                                ("[SERVER] End of history, next offset " + frame.getText() + ".")
+                                        .getBytes(StandardCharsets.UTF_8));
+                    }
+                    // Replies to room commands are shown as server notices
+
+                    if (frame.getType() == ChatFrame.TYPE_CHAT || frame.getType() == ChatFrame.TYPE_SYSTEM) {
+                        String sender = frame.getType() == ChatFrame.TYPE_CHAT ? frame.getSenderName() : "Group";
+                        boolean replay = (frame.getFlags() & ChatFrame.FLAG_REPLAY) != 0;
+                        long offset = replay ? -1 : store(sender, frame.getText());
+                        // Binary frames carry the sender separately, so history keeps the real
+                        // sender instead of "Group". Replayed messages are already stored on
+                        // the server
+                        deliver(new Message(frame.getTimestamp(), frame.getRoomId(), sender, frame.getText(),
+                                roomPrefix(frame.getRoomId()) + frame.toTextLine(), offset, replay));
+                    }
+                    continue;
+                }
+
+                String messageFromGroup = readLine();
+                if (messageFromGroup == null) {
+                    break;
+                }
+                // readLine() returns null once the server has closed the connection,
+                // and throws for a line over the limit, which ends it as well
+
+                deliver(new Message(System.currentTimeMillis(), RoomRegistry.LOBBY_ID, "Group", messageFromGroup,
+                        messageFromGroup, store("Group", messageFromGroup), false));
+                // Text lines arrive already formatted by the server, with the sender in them
+            } catch (IOException e) {
+                break;
+            }
+        }
+
+        boolean wasClosed = closed;
+        close();
+        Listener currentListener = listener;
+        if (!wasClosed && currentListener != null) {
+            currentListener.onDisconnected();
+        }
+        // Only reported when the server went away, not after close()
+    }
+    // Receiving thread. Decodes messages, stores them in the history and hands
+    // them to the listener until the connection ends
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = bufferedReader.read()) >= 0) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_FRAME_LENGTH) {
+                throw new ProtocolException("Line exceeds " + MAX_FRAME_LENGTH + " characters");
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+    // Same as the server's line reader, so a server that never sends a newline
+    // cannot fill the client's heap
+
+    private long store(String sender, String text) {
+        ChatHistory currentHistory = history;
+        return currentHistory == null ? -1 : currentHistory.addMessage(new ChatMessage(sender, text));
+    }
+    // Queues a message for the history and returns its offset there, -1 without
+    // a history
+
+    private void deliver(Message message) {
+        Listener currentListener = listener;
+        if (currentListener != null) {
+            currentListener.onMessage(message);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // Closing the socket first unblocks the receiving thread, which holds the
+        // reader's lock while it waits for data
+        try {
+            if (bufferedReader != null) {
+                bufferedReader.close();
+            }
+            if (bufferedWriter != null) {
+                bufferedWriter.close();
+            }
+            if (dataInputStream != null) {
+                dataInputStream.close();
+            }
+            if (outputStream != null) {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            // The connection is going away either way
+        }
+    }
+    // Closes all streams and the socket. The history is left open for its owner
+
+    public interface Listener {
+        void onMessage(Message message);
+
+        void onDisconnected();
+    }
+    // Callbacks from the receiving thread. Implementations that touch Swing have to
+    // hand over to the EDT themselves
+
+    public static final class Message {
+        private final long timestamp;
+        private final int roomId;
+        private final String sender;
+        private final String text;
+        private final String line;
+        private final long historyOffset;
+        private final boolean replay;
+
+        private Message(long timestamp, int roomId, String sender, String text, String line, long historyOffset,
+                boolean replay) {
+            this.timestamp = timestamp;
+            this.roomId = roomId;
+            this.sender = sender;
+            this.text = text;
+            this.line = line;
+            this.historyOffset = historyOffset;
+            this.replay = replay;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public int getRoomId() {
+            return roomId;
+        }
+
+        public String getSender() {
+            return sender;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public String getLine() {
+            return line;
+        }
+        // The message as shown in a chat window, with its room tag and sender
+
+        public long getHistoryOffset() {
+            return historyOffset;
+        }
+        // Offset of the message in the history, -1 if it was not stored
+
+        public boolean isReplay() {
+            return replay;
+        }
+        // Replayed from the server's history on request rather than sent just now
+    }
+}
+// Headless chat client: connects, sends and receives in the text or binary
+// protocol and keeps an optional local history, without any UI. The Swing
+// Client is built on it, and so can bots and load generators
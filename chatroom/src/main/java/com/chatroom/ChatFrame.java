@@ -0,0 +1,122 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.nio.charset.StandardCharsets;
+
+public final class ChatFrame {
+
+    public static final byte TYPE_HELLO = 1;
+    // Client to server: username in the payload. Server to client: handshake
+    // acknowledgement, senderId holds the id assigned to the client
+    public static final byte TYPE_CHAT = 2;
+    // A chat message, the payload is the text without the sender's name
+    public static final byte TYPE_SYSTEM = 3;
+    // A notice from the server such as joins and leaves
+    public static final byte TYPE_JOIN = 4;
+    // Client to server: join the room named in the payload. Server to client:
+    // acknowledgement with the room's id and name
+    public static final byte TYPE_LEAVE = 5;
+    // Client to server: leave the room in roomId. Server to client: acknowledgement
+    public static final byte TYPE_ROOM_LIST = 6;
+    // Client to server: request the room list. Server to client: one room per line
+    public static final byte TYPE_HISTORY = 7;
+    // Client to server: replay the history of roomId, the payload is "N" for the
+    // last N messages or "since X" for everything from offset X. Server to client:
+    // sent after the replayed messages, the payload is the next offset
+
+    public static final byte FLAG_REPLAY = 1;
+    // Set on messages replayed from the server's message store
+    public static final byte FLAG_COMPRESSED = 2;
+    // The payload is deflated, see FrameCompression. Only seen on the wire and on
+    // disk, decoding inflates the payload and clears the flag
+    public static final byte FLAG_COMPRESSION = 4;
+    // HELLO only: the sender can read compressed frames
+
+    private final byte type;
+    private final byte flags;
+    private final int roomId;
+    private final long senderId;
+    private final long timestamp;
+    private final String senderName;
+    private final byte[] payload;
+
+    public ChatFrame(byte type, byte flags, int roomId, long senderId, long timestamp, String senderName,
+            byte[] payload) {
+        this.type = type;
+        this.flags = flags;
+        this.roomId = roomId;
+        this.senderId = senderId;
+        this.timestamp = timestamp;
+        this.senderName = senderName == null ? "" : senderName;
+        this.payload = payload;
+    }
+
+    public static ChatFrame chat(int roomId, long senderId, String senderName, String text) {
+        return new ChatFrame(TYPE_CHAT, (byte) 0, roomId, senderId, System.currentTimeMillis(), senderName,
+                text.getBytes(StandardCharsets.UTF_8));
+    }
+    // Creates a chat message stamped with the current time
+
+    public static ChatFrame system(int roomId, String text) {
+        return new ChatFrame(TYPE_SYSTEM, (byte) 0, roomId, 0, System.currentTimeMillis(), "",
+                text.getBytes(StandardCharsets.UTF_8));
+    }
+    // Creates a server notice stamped with the current time
+
+    public static ChatFrame hello(long senderId, String username) {
+        return hello(senderId, username, false);
+    }
+
+    public static ChatFrame hello(long senderId, String username, boolean compression) {
+        return new ChatFrame(TYPE_HELLO, compression ? FLAG_COMPRESSION : (byte) 0, 0, senderId,
+                System.currentTimeMillis(), username, username.getBytes(StandardCharsets.UTF_8));
+    }
+    // Creates the handshake frame carrying the username, optionally offering or
+    // accepting compression
+
+    public byte getType() {
+        return type;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public int getRoomId() {
+        return roomId;
+    }
+
+    public long getSenderId() {
+        return senderId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSenderName() {
+        return senderName;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+    // Get-methods for the frame fields. The payload array is shared and must not
+    // be modified
+
+    public String getText() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+    // Payload decoded as UTF-8 text
+
+    public String toTextLine() {
+        if (type == TYPE_CHAT && !senderName.isEmpty()) {
+            return senderName + ": " + getText();
+        }
+        return getText();
+    }
+    // Renders the frame the way the newline text protocol shows it, with the
+    // sender's name in front of chat messages
+}
+// A message as the server routes it. Both wire protocols are decoded into and
+// encoded from this, so routing never has to parse strings
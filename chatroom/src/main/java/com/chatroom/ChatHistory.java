@@ -0,0 +1,561 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+// Packages used to store/read data in/from json files
+
+class ChatHistory {
+    private static final String DEFAULT_DIRECTORY = "chat_history";
+    private static final String JOURNAL_FILENAME = "chat_history.jsonl";
+    private static final String LEGACY_FILENAME = "chat_history.json";
+    private static final String MIGRATING_SUFFIX = ".migrating";
+    private static final long SEGMENT_BYTES = 4 * 1024 * 1024;
+    private static final int INDEX_INTERVAL = 32;
+    private static final int RETENTION_INTERVAL = 10_000;
+    private static final int SNAPSHOT_INTERVAL = 100_000;
+    private static final byte COMPRESSED_RECORD = 0;
+    // First byte of a journal record holding a deflated message
+
+    private static final Gson JOURNAL_GSON = new GsonBuilder()
+            .registerTypeAdapter(Date.class, new EpochMillisAdapter())
+            .create();
+    // Compact, single-line JSON with timestamps stored as epoch milliseconds
+
+    private final File directory;
+    private SegmentedLog log;
+    private SearchIndex searchIndex;
+    private HistoryWriter<ChatMessage> writer;
+    private HistoryWriter.Durability durability = HistoryWriter.Durability.FLUSH;
+    private int maxMessages;
+    private long maxAgeMillis;
+    private long maxTotalBytes;
+    private int pageSize = 200;
+    private int appendsSinceRetention;
+    private long nextOffset;
+    // Log offset the next message added will get. Messages are written in the
+    // order they are added, so it is known before the writer gets to them
+
+    public ChatHistory() {
+        this(DEFAULT_DIRECTORY);
+    }
+
+    public ChatHistory(String directory) {
+        this.directory = new File(directory == null || directory.isEmpty() ? DEFAULT_DIRECTORY : directory);
+    }
+
+    public synchronized void setMaxMessages(int maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+    public synchronized void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public synchronized void setMaxTotalBytes(long maxTotalBytes) {
+        this.maxTotalBytes = maxTotalBytes;
+    }
+    // Retention limits, 0 disables each. Applied whole segments at a time at
+    // startup and every few thousand messages, so slightly more may be kept
+
+    public synchronized void setPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be greater than 0.");
+        }
+        this.pageSize = pageSize;
+    }
+    // Amount of messages read at startup and each time the chat view pages in
+    // older or newer messages
+
+    public synchronized int getPageSize() {
+        return pageSize;
+    }
+
+    public synchronized void setDurability(HistoryWriter.Durability durability) {
+        this.durability = durability;
+        if (writer != null) {
+            writer.setDurability(durability);
+        }
+    }
+    // How far each batch of messages is pushed towards the disk. FLUSH by default
+
+    public synchronized long addMessage(ChatMessage message) {
+        HistoryWriter<ChatMessage> historyWriter = writer();
+        long offset = nextOffset++;
+        historyWriter.submit(message);
+
+        appendsSinceRetention++;
+        if (appendsSinceRetention >= RETENTION_INTERVAL) {
+            SegmentedLog historyLog = log;
+            historyWriter.runAfterPending(() -> applyRetention(historyLog));
+            appendsSinceRetention = 0;
+        }
+        // Retention runs on the writer thread, the only one that changes the log
+        return offset;
+    }
+    // Adds a message to the chat history and queues it for the log. The disk
+    // write happens on the history writer thread, batched with other messages.
+    // Returns the message's offset in the log
+
+    private HistoryWriter<ChatMessage> writer() {
+        if (writer == null) {
+            if (log == null) {
+                load();
+            }
+            if (writer == null) {
+                startWriter();
+            }
+        }
+        return writer;
+    }
+
+    private void startWriter() {
+        SegmentedLog historyLog = log;
+        SearchIndex index = new SearchIndex(directory);
+        LogSink sink = new LogSink(historyLog, index);
+        searchIndex = index;
+        writer = new HistoryWriter<>(sink, "history-writer");
+        writer.setDurability(durability);
+        writer.runAfterPending(() -> {
+            index.load();
+            readRange(historyLog, Math.max(index.getNextId(), historyLog.getStartOffset()),
+                    historyLog.getCommittedOffset(), (offset, message) -> index.add(offset, indexedText(message)));
+            sink.indexReady = true;
+        });
+    }
+    // Starts the history writer. Its first task loads the search index and indexes
+    // any messages it is missing, such as history imported from an older version,
+    // without holding up startup
+
+    public synchronized void load() {
+        closeLog();
+        // Anything still queued is written before the log is reopened
+
+        try {
+            migrateJournal();
+            log = new SegmentedLog(directory, SEGMENT_BYTES, INDEX_INTERVAL);
+            applyRetention(log);
+            nextOffset = log.getCommittedOffset();
+            startWriter();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    // Opens the log without reading any messages. Startup cost is the same
+    // however long the history is
+
+    public synchronized long getStartOffset() {
+        return log == null ? nextOffset : log.getStartOffset();
+    }
+
+    public synchronized long getEndOffset() {
+        return nextOffset;
+    }
+    // Offsets of the oldest message kept and of the next message to be added
+
+    public synchronized boolean isEmpty() {
+        return getStartOffset() >= nextOffset;
+    }
+
+    public void read(long start, long end, RecordHandler handler) {
+        SegmentedLog historyLog;
+        synchronized (this) {
+            historyLog = log;
+        }
+        if (historyLog == null || start >= end) {
+            return;
+        }
+        if (end > historyLog.getCommittedOffset()) {
+            flush();
+        }
+        // Recent messages may still be queued for the writer
+        try {
+            readRange(historyLog, Math.max(start, historyLog.getStartOffset()), end, handler);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    // Passes the messages from offset start up to end to the handler with their
+    // offsets, oldest first. Reads from disk, so call it off the EDT
+
+    public List<ChatMessage> findBetween(Date from, Date to) {
+        List<ChatMessage> found = new ArrayList<>();
+        flush();
+        SegmentedLog historyLog;
+        synchronized (this) {
+            historyLog = log;
+        }
+        if (historyLog == null) {
+            return found;
+        }
+        try (SegmentedLog.Cursor cursor = historyLog.readFrom(from.getTime())) {
+            SegmentedLog.Record record;
+            while ((record = cursor.next()) != null && record.getTimestamp() < to.getTime()) {
+                ChatMessage message = decode(record);
+                if (message != null) {
+                    found.add(message);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return found;
+    }
+    // Messages sent at or after from and before to, oldest first. A binary search
+    // of the timestamp index finds the start, then only the matching records are
+    // read. Reads from disk, so call it off the EDT
+
+    public List<ChatMessage> search(String query, int limit) {
+        List<ChatMessage> found = new ArrayList<>();
+        flush();
+        SegmentedLog historyLog;
+        SearchIndex index;
+        synchronized (this) {
+            historyLog = log;
+            index = searchIndex;
+        }
+        if (historyLog == null || index == null) {
+            return found;
+        }
+        long[] offsets = index.search(query, limit);
+        Arrays.sort(offsets);
+        try (SegmentedLog.Cursor cursor = historyLog.read(offsets.length == 0 ? 0 : offsets[0])) {
+            for (long offset : offsets) {
+                if (offset < historyLog.getStartOffset()) {
+                    continue;
+                    // Removed by retention since it was indexed
+                }
+                cursor.seek(offset);
+                SegmentedLog.Record record = cursor.next();
+                if (record != null && record.getOffset() == offset) {
+                    ChatMessage message = decode(record);
+                    if (message != null) {
+                        found.add(message);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Collections.reverse(found);
+        return found;
+    }
+    // Full-text search: messages containing every word of the query, newest first.
+    // The index lookup is in memory, then one cursor reads only the matching
+    // messages from disk in log order. Call it off the EDT
+
+    private static String indexedText(ChatMessage message) {
+        return message.getSender() + " " + message.getMessage();
+    }
+    // Messages can be found by their sender as well as their text
+
+    private static void readRange(SegmentedLog historyLog, long start, long end, RecordHandler handler)
+            throws IOException {
+        try (SegmentedLog.Cursor cursor = historyLog.read(start)) {
+            SegmentedLog.Record record;
+            while ((record = cursor.next()) != null && record.getOffset() < end) {
+                ChatMessage message = decode(record);
+                if (message != null) {
+                    handler.accept(record.getOffset(), message);
+                }
+            }
+        }
+    }
+
+    interface RecordHandler {
+        void accept(long offset, ChatMessage message) throws IOException;
+    }
+
+    private static ChatMessage decode(SegmentedLog.Record record) {
+        try {
+            byte[] data = record.getData();
+            if (data.length > 0 && data[0] == COMPRESSED_RECORD) {
+                data = FrameCompression.inflate(Arrays.copyOfRange(data, 1, data.length),
+                        FrameCompression.MAX_INFLATED_LENGTH);
+            }
+            return JOURNAL_GSON.fromJson(new String(data, StandardCharsets.UTF_8), ChatMessage.class);
+        } catch (JsonParseException | ProtocolException e) {
+            return null;
+        }
+    }
+    // Records are CRC-checked, this only guards against records written by a
+    // different ChatMessage format
+
+    private static byte[] encode(ChatMessage message) {
+        byte[] json = JOURNAL_GSON.toJson(message).getBytes(StandardCharsets.UTF_8);
+        if (json.length < FrameCompression.MIN_LENGTH) {
+            return json;
+        }
+        byte[] compressed = FrameCompression.deflate(json);
+        if (compressed == null) {
+            return json;
+        }
+        byte[] record = new byte[1 + compressed.length];
+        record[0] = COMPRESSED_RECORD;
+        System.arraycopy(compressed, 0, record, 1, compressed.length);
+        return record;
+    }
+    // Long messages are stored deflated behind a marker byte. JSON never starts
+    // with that byte, so journals written before compression read back unchanged
+
+    private void applyRetention(SegmentedLog historyLog) throws IOException {
+        if (maxAgeMillis > 0) {
+            historyLog.deleteSegmentsBefore(System.currentTimeMillis() - maxAgeMillis);
+        }
+        if (maxTotalBytes > 0) {
+            historyLog.deleteSegmentsBeyond(maxTotalBytes);
+        }
+        if (maxMessages > 0) {
+            historyLog.deleteSegmentsBeforeOffset(historyLog.getCommittedOffset() - maxMessages);
+        }
+    }
+    // Deletes whole segments that are older, or beyond the size or message limit
+
+    private void migrateJournal() throws IOException {
+        File parent = directory.getAbsoluteFile().getParentFile();
+        File journalFile = new File(parent, JOURNAL_FILENAME);
+        File legacyFile = new File(parent, LEGACY_FILENAME);
+        File source = journalFile.exists() ? journalFile : legacyFile.exists() ? legacyFile : null;
+        if (source == null) {
+            return;
+        }
+
+        if (!hasRecords(directory)) {
+            File temporary = new File(parent, directory.getName() + MIGRATING_SUFFIX);
+            deleteDirectory(temporary);
+            // Left behind by an import that did not finish
+            boolean imported = true;
+            SegmentedLog importLog = new SegmentedLog(temporary, SEGMENT_BYTES, INDEX_INTERVAL);
+            try {
+                if (source == journalFile) {
+                    importJournal(journalFile, importLog);
+                } else {
+                    imported = importLegacy(legacyFile, importLog);
+                }
+                importLog.sync(HistoryWriter.Durability.FSYNC);
+            } finally {
+                importLog.close();
+            }
+            if (!imported) {
+                deleteDirectory(temporary);
+                return;
+            }
+            deleteDirectory(directory);
+            Files.move(temporary.toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        // The import is written to a separate directory that only replaces the empty
+        // log once it is complete. A crash part way leaves the log empty and the old
+        // file in place, so the next start imports it again from the beginning
+
+        File migrated = new File(source.getPath() + ".migrated");
+        if (!migrated.exists()) {
+            source.renameTo(migrated);
+        }
+        // Old files are kept under a new name rather than deleted, in case they are
+        // needed again. Also finishes an import that crashed after the swap
+    }
+    // One-time import of the chat_history.jsonl journal, or of a pretty-printed
+    // chat_history.json from before the journal existed, into an empty log
+
+    private static void importJournal(File journalFile, SegmentedLog importLog) throws IOException {
+        long timestamp = journalFile.lastModified();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    ChatMessage message = JOURNAL_GSON.fromJson(line, ChatMessage.class);
+                    if (message != null) {
+                        message = withTimestamp(message, timestamp);
+                        timestamp = message.getTimestamp().getTime();
+                        importLog.append(timestamp, encode(message));
+                    }
+                } catch (JsonParseException e) {
+                    // Torn or damaged journal lines are left behind
+                }
+            }
+        }
+    }
+
+    private static boolean importLegacy(File legacyFile, SegmentedLog importLog) throws IOException {
+        long timestamp = legacyFile.lastModified();
+        try (Reader reader = new InputStreamReader(new FileInputStream(legacyFile), StandardCharsets.UTF_8)) {
+            List<ChatMessage> legacyMessages = new Gson().fromJson(reader,
+                    new TypeToken<List<ChatMessage>>() {
+                    }.getType());
+            if (legacyMessages != null) {
+                for (ChatMessage message : legacyMessages) {
+                    if (message == null) {
+                        continue;
+                    }
+                    message = withTimestamp(message, timestamp);
+                    timestamp = message.getTimestamp().getTime();
+                    importLog.append(timestamp, encode(message));
+                }
+            }
+            return true;
+        } catch (JsonParseException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+    // Returns false if the file cannot be parsed, it is then left unmigrated
+
+    private static boolean hasRecords(File logDirectory) throws IOException {
+        if (!logDirectory.isDirectory()) {
+            return false;
+        }
+        SegmentedLog existing = new SegmentedLog(logDirectory, SEGMENT_BYTES, INDEX_INTERVAL);
+        try {
+            return existing.getCommittedOffset() > 0;
+        } finally {
+            existing.close();
+        }
+    }
+
+    private static void deleteDirectory(File target) throws IOException {
+        File[] files = target.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(target.toPath());
+    }
+    // Log directories are flat, segment, index and search index files only
+
+    private static ChatMessage withTimestamp(ChatMessage message, long fallback) {
+        if (message.getTimestamp() != null) {
+            return message;
+        }
+        return new ChatMessage(message.getSender(), message.getMessage(), new Date(fallback));
+    }
+    // Old files can hold messages without a timestamp. They get the one of the
+    // message before them, or the file's modification time if they come first
+
+    public void flush() {
+        HistoryWriter<ChatMessage> historyWriter;
+        SegmentedLog historyLog;
+        synchronized (this) {
+            historyWriter = writer;
+            historyLog = log;
+        }
+        if (historyWriter != null) {
+            historyWriter.runAfterPending(() -> historyLog.sync(HistoryWriter.Durability.FLUSH));
+            historyWriter.flush();
+        }
+    }
+    // Blocks until every message added so far is in the log and readable, even
+    // with durability NONE. Not meant for the EDT
+
+    public synchronized void close() {
+        closeLog();
+    }
+    // Drains the history writer and closes the log
+
+    private void closeLog() {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            searchIndex = null;
+        }
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            log = null;
+        }
+    }
+
+    private static final class LogSink implements HistoryWriter.Sink<ChatMessage> {
+        private final SegmentedLog log;
+        private final SearchIndex index;
+        private boolean indexReady;
+
+        private LogSink(SegmentedLog log, SearchIndex index) {
+            this.log = log;
+            this.index = index;
+        }
+
+        @Override
+        public void append(ChatMessage message) throws IOException {
+            long offset = log.append(message.getTimestamp().getTime(), encode(message));
+            if (indexReady) {
+                index.add(offset, indexedText(message));
+            }
+            // Indexing happens here on the writer thread, never on the send path
+        }
+
+        @Override
+        public void sync(HistoryWriter.Durability durability) throws IOException {
+            if (durability != HistoryWriter.Durability.NONE) {
+                log.sync(durability);
+            }
+            if (indexReady) {
+                index.sync();
+                if (index.getJournalEntries() >= SNAPSHOT_INTERVAL) {
+                    index.snapshot();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            log.sync(HistoryWriter.Durability.FLUSH);
+            index.close();
+        }
+    }
+    // Appends messages to the log and the search index for the history writer.
+    // Only used on the writer thread. The index is only updated once it has been
+    // loaded, messages before that are picked up by its catch-up
+
+    private static class EpochMillisAdapter extends TypeAdapter<Date> {
+        @Override
+        public void write(JsonWriter out, Date value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+            } else {
+                out.value(value.getTime());
+            }
+        }
+
+        @Override
+        public Date read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return new Date(in.nextLong());
+        }
+    }
+    // Stores dates as numbers, Gson's default date text depends on the locale and
+    // JDK version
+}
+// Manages the history of chat messages, persisted in a segmented log of compact
+// JSON records. No messages are held in memory, the chat view reads pages by
+// offset and searches read only their matches from the memory-mapped segments
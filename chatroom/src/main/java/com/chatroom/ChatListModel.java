@@ -0,0 +1,223 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+
+class ChatListModel extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 1L;
+    // Swing models are Serializable, this one is never actually serialised
+
+    private final String[] lines;
+    private final long[] offsets;
+    private int head;
+    private int size;
+    private long oldestOffset;
+    private long newestOffset;
+    // History offsets of the oldest line shown and just past the newest one. Older
+    // and newer messages are only on disk
+    private boolean live = true;
+    // False once newer lines were dropped to make room for older ones, until they
+    // have been read back in
+
+    ChatListModel(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than 0.");
+        }
+        this.lines = new String[capacity];
+        this.offsets = new long[capacity];
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return lines[slot(index)];
+    }
+
+    long getOldestOffset() {
+        return oldestOffset;
+    }
+
+    long getNewestOffset() {
+        return newestOffset;
+    }
+
+    boolean isLive() {
+        return live;
+    }
+    // Whether the newest message is shown, so new messages can be added at the end
+
+    void reset(Page page) {
+        int removed = size;
+        for (int i = 0; i < size; i++) {
+            lines[slot(i)] = null;
+        }
+        head = 0;
+        size = 0;
+        if (removed > 0) {
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+        oldestOffset = page.start;
+        newestOffset = page.end;
+        live = true;
+        appendPage(page);
+    }
+    // Replaces every line with a page of history ending at the newest message
+
+    int addAll(List<String> batch, List<Long> batchOffsets) {
+        int oldSize = size;
+        int added = 0;
+        int dropped = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            long offset = batchOffsets.get(i);
+            if (offset >= 0) {
+                if (!live || offset < newestOffset) {
+                    continue;
+                }
+                newestOffset = offset + 1;
+            }
+            // While older history is shown the message stays on disk until the view
+            // scrolls back down. Messages already read back from disk are not added
+            // twice
+            dropped += appendLine(batch.get(i), offset);
+            added++;
+        }
+        return fireAppended(oldSize, added, dropped);
+    }
+    // Adds new messages at the end, offset -1 for lines that are not in the
+    // history such as replies from the server. Listeners hear about the whole
+    // batch at once. Returns how many of the lines shown before were dropped from
+    // the start to make room
+
+    int appendNewer(Page page, boolean reachedEnd) {
+        newestOffset = Math.max(newestOffset, page.end);
+        live = reachedEnd;
+        return appendPage(page);
+    }
+    // Adds a page of history read from the newest offset onwards. Returns how many
+    // lines were dropped from the start
+
+    int prependOlder(Page page) {
+        int count = Math.min(page.size(), lines.length);
+        int dropped = Math.max(0, size + count - lines.length);
+        for (int i = size - dropped; i < size; i++) {
+            long offset = offsets[slot(i)];
+            if (offset >= 0) {
+                newestOffset = Math.min(newestOffset, offset);
+            }
+            lines[slot(i)] = null;
+        }
+        if (dropped > 0) {
+            size -= dropped;
+            live = false;
+            fireIntervalRemoved(this, size, size + dropped - 1);
+        }
+        // Lines dropped from the end are read back from disk when the view scrolls
+        // down again
+
+        for (int i = page.size() - 1; i >= page.size() - count; i--) {
+            head = (head - 1 + lines.length) % lines.length;
+            lines[head] = page.lines.get(i);
+            offsets[head] = page.offsets.get(i);
+        }
+        size += count;
+        oldestOffset = count < page.size() ? page.offsets.get(page.size() - count) : page.start;
+        if (count > 0) {
+            fireIntervalAdded(this, 0, count - 1);
+        }
+        return count;
+    }
+    // Adds a page of history read from before the oldest offset in front of the
+    // first line, dropping lines from the end if the ring is full. Returns how many
+    // lines were added
+
+    private int appendPage(Page page) {
+        int oldSize = size;
+        int dropped = 0;
+        for (int i = 0; i < page.size(); i++) {
+            dropped += appendLine(page.lines.get(i), page.offsets.get(i));
+        }
+        return fireAppended(oldSize, page.size(), dropped);
+    }
+
+    private int fireAppended(int oldSize, int added, int dropped) {
+        int droppedShown = Math.min(dropped, oldSize);
+        if (droppedShown > 0) {
+            fireIntervalRemoved(this, 0, droppedShown - 1);
+        }
+        int kept = added - (dropped - droppedShown);
+        if (kept > 0) {
+            fireIntervalAdded(this, size - kept, size - 1);
+        }
+        return droppedShown;
+    }
+    // One event for the lines dropped from the start and one for the lines added,
+    // however many there were. Lines both added and dropped in the same batch are
+    // never reported
+
+    private int appendLine(String line, long offset) {
+        int dropped = 0;
+        if (size == lines.length) {
+            long droppedOffset = offsets[head];
+            if (droppedOffset >= 0) {
+                oldestOffset = Math.max(oldestOffset, droppedOffset + 1);
+            }
+            lines[head] = null;
+            head = (head + 1) % lines.length;
+            size--;
+            dropped = 1;
+        }
+        // The oldest line makes room, so memory stays the same however long the
+        // session runs
+        lines[slot(size)] = line;
+        offsets[slot(size)] = offset;
+        size++;
+        return dropped;
+    }
+
+    private int slot(int index) {
+        return (head + index) % lines.length;
+    }
+
+    static final class Page {
+        private final long start;
+        private final long end;
+        private final List<String> lines = new ArrayList<>();
+        private final List<Long> offsets = new ArrayList<>();
+
+        Page(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        void add(long offset, String line) {
+            lines.add(line);
+            offsets.add(offset);
+        }
+
+        long getStart() {
+            return start;
+        }
+
+        long getEnd() {
+            return end;
+        }
+
+        int size() {
+            return lines.size();
+        }
+    }
+    // Formatted lines read from the history between two offsets, built off the
+    // EDT
+}
+// Bounded list model behind the chat view. Keeps the lines shown in a ring
+// buffer of fixed capacity, with the history offset of each line so messages
+// dropped from either end can be read back from the history on scroll. Only
+// used on the EDT
@@ -0,0 +1,40 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.util.Date;
+
+class ChatMessage {
+    private String sender;
+    private String message;
+    private Date timestamp;
+
+    public ChatMessage(String sender, String message) {
+        this.sender = sender;
+        this.message = message;
+        this.timestamp = new Date();
+    }
+    // Represents a message in the chat system
+
+    ChatMessage(String sender, String message, Date timestamp) {
+        this.sender = sender;
+        this.message = message;
+        this.timestamp = timestamp;
+    }
+    // Recreates a message with a known timestamp
+
+    public String getSender() {
+        return sender;
+    }
+    // Get-method for message sender
+
+    public String getMessage() {
+        return message;
+    }
+    // Get-method for message
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+    // Get-method for message timestamp
+}
+// A chat message as kept in the client's local history
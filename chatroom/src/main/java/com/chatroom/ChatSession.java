@@ -0,0 +1,49 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.nio.ByteBuffer;
+
+public interface ChatSession {
+
+    long getSessionId();
+    // Server-wide unique id, assigned when the connection is accepted
+
+    String getUsername();
+    // Returns the username the client sent during the handshake
+
+    SessionRooms getRooms();
+    // Rooms the client has joined and the one its text messages go to
+
+    void deliver(OutboundMessage message);
+    // Queues an already encoded message for the client. Implementations handle
+    // their own I/O errors by closing the session
+
+    default void deliver(String message) {
+        deliver(OutboundMessage.text(message));
+    }
+    // Encodes and queues a single line for the client
+
+    OutboundQueue<ByteBuffer> getOutboundQueue();
+    // Messages waiting to be written to the client. Long-running senders such as
+    // history replay watch its depth to avoid overflowing it
+
+    boolean hasPendingWrites();
+    // Whether messages are still queued or partly written to the socket. A
+    // graceful shutdown waits for this to turn false before closing the session
+
+    void close(ServerMetrics.DisconnectReason reason);
+    // Closes the connection and removes the session from the chatroom. Only the
+    // first close of a session counts its reason in the metrics
+
+    default void close() {
+        close(ServerMetrics.DisconnectReason.SERVER_SHUTDOWN);
+    }
+    // Closed by the server itself, such as on shutdown
+
+    boolean isClosed();
+    // Whether the session has ended, from either side. Work done on behalf of a
+    // closed session, such as a history replay, stops here
+}
+// Common view of a connected client, regardless of which server engine accepted
+// it. Broadcasting only talks to this interface so blocking and NIO clients can
+// share the same chatroom
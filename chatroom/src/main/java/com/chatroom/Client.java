@@ -4,44 +4,61 @@ package com.chatroom;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
-import java.net.Socket;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.*;
 // Package used for UI
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-// Packages used to store/read data in/from json files
 
 public class Client extends JFrame {
 
-    private Socket socket;
-    private BufferedReader bufferedReader;
-    private BufferedWriter bufferedWriter;
-    private String username;
-    private JTextArea chatArea;
+    private static final long serialVersionUID = 1L;
+    private static final int CHAT_VIEW_CAPACITY = 2000;
+    // Lines kept in the chat view, older and newer ones are read back from the
+    // history when scrolled to
+    private static final int VIEW_UPDATE_MILLIS = 16;
+    // New lines are shown at most once per frame, about 60 times a second
+
+    private ChatClient chatClient;
+    private JList<String> chatList;
+    private ChatListModel chatModel;
     private JTextField messageField;
     private SimpleDateFormat formatter = new SimpleDateFormat("HH:mm:ss");
+    // Only used on the EDT, SimpleDateFormat is not thread-safe
     private ChatHistory chatHistory;
     private JScrollPane scrollPane;
-
-    public Client(Socket socket, String username) {
-        super("Chat Client - " + username);
-        this.socket = socket;
-        this.username = username;
+    private boolean loadingHistoryPage = false;
+    // Set while a page of history is read in the background, EDT only
+    private final Queue<PendingLine> pendingLines = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean viewUpdateScheduled = new AtomicBoolean();
+    private Timer viewUpdateTimer;
+    // Lines received since the last frame, handed to the EDT in one batch
+
+    public Client(ChatClient chatClient) {
+        super("Chat Client - " + chatClient.getUsername());
+        this.chatClient = chatClient;
         this.chatHistory = new ChatHistory();
+        chatClient.setHistory(chatHistory);
+        chatClient.setListener(new ChatClient.Listener() {
+            @Override
+            public void onMessage(ChatClient.Message message) {
+                showLine(message.getTimestamp(), message.getLine(), message.getHistoryOffset());
+            }
 
-        try {
-            this.bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-            this.bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        } catch (IOException e) {
-            closeAll(socket, bufferedReader, bufferedWriter);
-        }
+            @Override
+            public void onDisconnected() {
+                SwingUtilities.invokeLater(() -> closeAll());
+            }
+            // The shutdown dialog is shown from the EDT like every other Swing call
+        });
+        // Called on the client's receiving thread, which only queues lines for the
+        // chat view
 
         setupUI();
 
@@ -50,19 +67,61 @@ public class Client extends JFrame {
             public void windowOpened(WindowEvent e) {
                 messageField.requestFocusInWindow();
             }
+
+            @Override
+            public void windowClosing(WindowEvent e) {
+                chatHistory.close();
+            }
+            // Writes out messages still queued for the history before the window exits
         });
     }
     // Represents a client in the chat system
-    // Creates a new client instance with provided socket and username, then creates
-    // a ChatHistory object alongside setting up the UI
+    // Creates the chat window for a connected ChatClient, then creates a
+    // ChatHistory object alongside setting up the UI
 
     private void setupUI() {
         setSize(400, 300);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        scrollPane = new JScrollPane(chatArea);
+        viewUpdateTimer = new Timer(VIEW_UPDATE_MILLIS, e -> updateChatView());
+        viewUpdateTimer.setRepeats(false);
+
+        chatModel = new ChatListModel(CHAT_VIEW_CAPACITY);
+        chatList = new JList<>(chatModel);
+        chatList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                setToolTipText((String) value);
+                return this;
+            }
+        });
+        // Lines too long for the window are cut off, the tooltip shows all of it
+        chatList.setFixedCellHeight(chatList.getFontMetrics(chatList.getFont()).getHeight() + 2);
+        // With a fixed cell size the list never measures its rows, so adding a line
+        // costs the same however many are shown and only visible rows are painted
+        scrollPane = new JScrollPane(chatList, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED,
+                ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        scrollPane.getViewport().addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                chatList.setFixedCellWidth(scrollPane.getViewport().getWidth());
+            }
+        });
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener() {
+            @Override
+            public void adjustmentValueChanged(AdjustmentEvent e) {
+                JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
+                if (e.getValue() == 0 && verticalBar.getMaximum() > verticalBar.getVisibleAmount()) {
+                    loadOlderMessages();
+                } else if (!chatModel.isLive() && isChatAtBottom()) {
+                    loadNewerMessages();
+                }
+            }
+        });
+        // Scrolling to the top pages in older history, scrolling back down reads
+        // newer history that was dropped to make room for it
 
         messageField = new JTextField();
         messageField.addActionListener(new ActionListener() {
@@ -80,12 +139,34 @@ public class Client extends JFrame {
             }
         });
 
+        JTextField searchField = new JTextField();
+        searchField.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                searchHistory(searchField.getText());
+            }
+        });
+        JButton searchButton = new JButton("Search");
+        searchButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                searchHistory(searchField.getText());
+            }
+        });
+
+        JPanel topPanel = new JPanel();
+        topPanel.setLayout(new BorderLayout());
+        topPanel.add(searchField, BorderLayout.CENTER);
+        topPanel.add(searchButton, BorderLayout.EAST);
+        // Search bar for the chat history
+
         JPanel bottomPanel = new JPanel();
         bottomPanel.setLayout(new BorderLayout());
         bottomPanel.add(messageField, BorderLayout.CENTER);
         bottomPanel.add(sendButton, BorderLayout.EAST);
 
         getContentPane().setLayout(new BorderLayout());
+        getContentPane().add(topPanel, BorderLayout.NORTH);
         getContentPane().add(scrollPane, BorderLayout.CENTER);
         getContentPane().add(bottomPanel, BorderLayout.SOUTH);
 
@@ -97,118 +178,275 @@ public class Client extends JFrame {
     }
     // Sets up the graphical user interface and configures size and layout for UI
     // Calls for methods to load the chat history and display said chat history to
-    // fill out the chatarea.
+    // fill out the chat view.
     // Finally centers the window on the monitor/display
 
     public void sendMessage() {
         try {
             String messageToSend = messageField.getText();
             if (!messageToSend.isEmpty()) {
-                bufferedWriter.write(username + ": " + messageToSend);
-                bufferedWriter.newLine();
-                bufferedWriter.flush();
+                ChatClient.Message sent = chatClient.send(messageToSend);
                 messageField.setText("");
-                Date date = new Date();
-                chatArea.append("[" + formatter.format(date) + "] " + username + ": " + messageToSend + "\n");
-                scrollChatToBottom();
+                if (sent == null) {
+                    return;
+                }
+                // Room commands are answered by the server and not shown as chat
+                showLine(sent.getTimestamp(), sent.getLine(), sent.getHistoryOffset());
+                if (!chatModel.isLive()) {
+                    showLatestMessages();
+                }
+                // Sending jumps back to the newest messages when older history is shown
                 messageField.requestFocusInWindow();
                 // Requests focus to the message input field for a seamless chatting experience
-                chatHistory.addMessage(new ChatMessage(username, messageToSend));
-                // Add the sent message to chat history
-                chatHistory.saveToFile("chat_history.json");
-                // Save chat history to file after sending message
             }
         } catch (IOException e) {
-            closeAll(socket, bufferedReader, bufferedWriter);
+            closeAll();
         }
     }
-    // Sends a message to the server and updates the chat interface
+    // Sends a message to the server and updates the chat interface. The
+    // ChatClient adds it to the chat history
 
     public void listenForMessage() {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                String messageFromGroup;
-
-                while (socket.isConnected()) {
-                    try {
-                        messageFromGroup = bufferedReader.readLine();
-                        if (messageFromGroup != null) {
-                            Date date = new Date();
-                            chatArea.append("[" + formatter.format(date) + "] " + messageFromGroup + "\n");
-                            scrollChatToBottom();
-                            chatHistory.addMessage(new ChatMessage("Group", messageFromGroup));
-                            // Add received message to chat history
-                            chatHistory.saveToFile("chat_history.json");
-                            // Save chat history to file after receiving message
-                        }
-                    } catch (IOException e) {
-                        closeAll(socket, bufferedReader, bufferedWriter);
-                    }
-                }
-            }
-        }).start();
+        chatClient.start();
+    }
+    // Starts listening for messages from the server. The ChatClient receives them
+    // on its own thread, which never touches Swing
+
+    public void requestServerHistoryIfEmpty(int count) {
+        if (!chatHistory.isEmpty()) {
+            return;
+        }
+        try {
+            chatClient.requestHistory(count);
+        } catch (IOException e) {
+            SwingUtilities.invokeLater(() -> closeAll());
+        }
     }
-    // Listens for messages from the server and updates the chat interface
+    // A client without local history, such as on a new machine, asks the server to
+    // replay the last messages of the lobby
 
     private void loadChatHistory() {
-        chatHistory.loadFromFile("chat_history.json");
+        chatHistory.load();
     }
-    // Loads chat history from a JSON file
+    // Opens the chat history, importing an old chat_history.jsonl or
+    // chat_history.json the first time
 
     private void displayChatHistory() {
-        for (ChatMessage message : chatHistory.getMessages()) {
-            chatArea.append("[" + formatter.format(message.getTimestamp()) + "] " +
-                    message.getSender() + ": "
-                    + message.getMessage() + "\n");
+        long end = chatHistory.getEndOffset();
+        chatModel.reset(readPage(Math.max(chatHistory.getStartOffset(), end - chatHistory.getPageSize()), end));
+    }
+    // Reads the most recent page of the chat history and displays it in the chat
+    // view
+
+    private ChatListModel.Page readPage(long start, long end) {
+        ChatListModel.Page page = new ChatListModel.Page(start, end);
+        SimpleDateFormat pageFormatter = new SimpleDateFormat("HH:mm:ss");
+        chatHistory.read(start, end, (offset, message) -> page.add(offset,
+                "[" + pageFormatter.format(message.getTimestamp()) + "] " + message.getSender() + ": "
+                        + message.getMessage()));
+        return page;
+    }
+    // Reads and formats the history between two offsets. Has its own formatter as
+    // it runs on background threads
+
+    private void showLine(long timestamp, String text, long offset) {
+        pendingLines.add(new PendingLine(timestamp, text, offset));
+        if (viewUpdateScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(viewUpdateTimer::restart);
         }
+        // Only the first line of a frame schedules an update, the rest join it
     }
-    // Retrieves messages from the chatHistory object and displays it in the chat
-    // interface
+    // Queues a line for the chat view from any thread. Offset is the message's
+    // place in the history, -1 for lines that are not stored
+
+    private void updateChatView() {
+        viewUpdateScheduled.set(false);
+        // Cleared before draining, so a line queued from now on schedules the next
+        // frame instead of being missed
+        List<String> lines = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        PendingLine pending;
+        while ((pending = pendingLines.poll()) != null) {
+            lines.add("[" + formatter.format(new Date(pending.timestamp)) + "] " + pending.text);
+            offsets.add(pending.offset);
+        }
+        if (lines.isEmpty()) {
+            return;
+        }
 
-    private void definiteScrollChatToBottom() {
-        SwingUtilities.invokeLater(() -> {
+        boolean atBottom = isChatAtBottom();
+        int dropped = chatModel.addAll(lines, offsets);
+        if (atBottom) {
+            scrollPane.validate();
             JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
             verticalBar.setValue(verticalBar.getMaximum());
-        });
+        } else {
+            shiftChatView(-dropped);
+        }
+        // Follows new messages at the bottom, otherwise keeps the lines being read
+        // in place while the oldest ones are dropped
+    }
+    // Runs on the EDT once per frame: adds every queued line to the view in one
+    // batch, so a burst of messages costs one layout, one scroll and one repaint
+
+    private static final class PendingLine {
+        private final long timestamp;
+        private final String text;
+        private final long offset;
+
+        private PendingLine(long timestamp, String text, long offset) {
+            this.timestamp = timestamp;
+            this.text = text;
+            this.offset = offset;
+        }
     }
-    // Always scrolls the chat window to the bottom to display new messages on
-    // startup
 
-    private void scrollChatToBottom() {
-        SwingUtilities.invokeLater(() -> {
-            JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
-            int maximumValue = verticalBar.getMaximum();
-            int currentValue = verticalBar.getValue();
-            int extent = verticalBar.getModel().getExtent();
+    private void loadOlderMessages() {
+        long end = chatModel.getOldestOffset();
+        long start = Math.max(chatHistory.getStartOffset(), end - chatHistory.getPageSize());
+        if (loadingHistoryPage || start >= end) {
+            return;
+        }
+        loadingHistoryPage = true;
+        new SwingWorker<ChatListModel.Page, Void>() {
+            @Override
+            protected ChatListModel.Page doInBackground() {
+                return readPage(start, end);
+            }
+            // Reads the history log off the EDT
 
-            if (currentValue + extent >= maximumValue - 20) {
-                verticalBar.setValue(maximumValue);
+            @Override
+            protected void done() {
+                try {
+                    shiftChatView(chatModel.prependOlder(get()));
+                    // Keeps the message that was at the top in view instead of jumping to
+                    // the start of the new page
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                loadingHistoryPage = false;
             }
-            // Check if the user is already close to the bottom
-        });
+        }.execute();
     }
-    // Scrolls the chat window to the bottom to display new messages if user is
-    // already scrolled near to the bottom
+    // Prepends the page of history before the oldest message shown
 
-    public void closeAll(Socket socket, BufferedReader bufferedReader, BufferedWriter bufferedWriter) {
-        try {
-            if (bufferedReader != null) {
-                bufferedReader.close();
+    private void loadNewerMessages() {
+        long start = chatModel.getNewestOffset();
+        long end = Math.min(chatHistory.getEndOffset(), start + chatHistory.getPageSize());
+        if (loadingHistoryPage) {
+            return;
+        }
+        loadingHistoryPage = true;
+        new SwingWorker<ChatListModel.Page, Void>() {
+            @Override
+            protected ChatListModel.Page doInBackground() {
+                return readPage(start, end);
             }
-            if (bufferedWriter != null) {
-                bufferedWriter.close();
+
+            @Override
+            protected void done() {
+                try {
+                    ChatListModel.Page page = get();
+                    shiftChatView(-chatModel.appendNewer(page, page.getEnd() >= chatHistory.getEndOffset()));
+                    // Live again once the newest message has been read back
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                loadingHistoryPage = false;
             }
-            if (socket != null) {
-                socket.close();
+        }.execute();
+    }
+    // Appends the page of history after the newest message shown, after older
+    // pages pushed it out of the view
+
+    private void showLatestMessages() {
+        long end = chatHistory.getEndOffset();
+        long start = Math.max(chatHistory.getStartOffset(), end - chatHistory.getPageSize());
+        new SwingWorker<ChatListModel.Page, Void>() {
+            @Override
+            protected ChatListModel.Page doInBackground() {
+                return readPage(start, end);
             }
-            JOptionPane.showMessageDialog(null, "Server has shut down", "Server Error", JOptionPane.ERROR_MESSAGE);
-            System.exit(0);
-        } catch (IOException e) {
-            e.printStackTrace();
+
+            @Override
+            protected void done() {
+                try {
+                    chatModel.reset(get());
+                    definiteScrollChatToBottom();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+    // Replaces the view with the newest page of history
+
+    private void shiftChatView(int lines) {
+        if (lines == 0) {
+            return;
+        }
+        scrollPane.validate();
+        // Lays out the list right away so the scroll bar knows its new size
+        JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
+        verticalBar.setValue(verticalBar.getValue() + lines * chatList.getFixedCellHeight());
+    }
+    // Scrolls by whole lines, to make up for lines added or dropped above the view
+
+    private boolean isChatAtBottom() {
+        JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
+        return verticalBar.getValue() + verticalBar.getModel().getExtent() >= verticalBar.getMaximum() - 20;
+    }
+    // Whether the user is scrolled to, or close to, the bottom of the chat
+
+    private void searchHistory(String query) {
+        if (query.trim().isEmpty()) {
+            return;
         }
+        new SwingWorker<List<ChatMessage>, Void>() {
+            @Override
+            protected List<ChatMessage> doInBackground() {
+                return chatHistory.search(query, 100);
+            }
+            // Searches the index and reads the matches off the EDT
+
+            @Override
+            protected void done() {
+                try {
+                    List<ChatMessage> results = get();
+                    DefaultListModel<String> model = new DefaultListModel<>();
+                    SimpleDateFormat resultFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                    for (ChatMessage message : results) {
+                        model.addElement("[" + resultFormatter.format(message.getTimestamp()) + "] "
+                                + message.getSender() + ": " + message.getMessage());
+                    }
+                    JScrollPane resultPane = new JScrollPane(new JList<>(model));
+                    resultPane.setPreferredSize(new Dimension(500, 300));
+                    JOptionPane.showMessageDialog(Client.this, resultPane,
+                            results.size() + " result(s) for \"" + query + "\"", JOptionPane.PLAIN_MESSAGE);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+    // Shows the newest 100 messages containing every word of the query
+
+    private void definiteScrollChatToBottom() {
+        SwingUtilities.invokeLater(() -> {
+            JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
+            verticalBar.setValue(verticalBar.getMaximum());
+        });
+    }
+    // Always scrolls the chat window to the bottom to display new messages on
+    // startup
+
+    public void closeAll() {
+        chatHistory.close();
+        chatClient.close();
+        JOptionPane.showMessageDialog(null, "Server has shut down", "Server Error", JOptionPane.ERROR_MESSAGE);
+        System.exit(0);
     }
-    // Closes all streams and sockets associated with the client
+    // Closes the connection and the chat history, then exits
 
     public static void main(String[] args) {
         JFrame startupFrame = new JFrame();
@@ -220,6 +458,7 @@ public class Client extends JFrame {
         JTextField portField = new JTextField(20);
         JCheckBox defaultCheckBox = new JCheckBox("Use default values (127.0.0.1:2000)");
         JTextField usernameField = new JTextField(20);
+        JCheckBox binaryCheckBox = new JCheckBox("Use binary protocol");
 
         JPanel panel = new JPanel(new GridLayout(0, 1));
         panel.add(new JLabel("Host:"));
@@ -229,6 +468,7 @@ public class Client extends JFrame {
         panel.add(defaultCheckBox);
         panel.add(new JLabel("Username:"));
         panel.add(usernameField);
+        panel.add(binaryCheckBox);
 
         JFrame connectingFrame = new JFrame();
         connectingFrame.setTitle("Connecting");
@@ -292,23 +532,17 @@ public class Client extends JFrame {
             connectingFrame.setVisible(true);
 
             try {
-                Socket socket = new Socket(host, port);
-                System.out.println(
-                        "Successfully connected to host: " + socket.getInetAddress() + " at Port: " + socket.getPort());
-
-                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-
-                writer.write(username + "\n");
-                // Send the username to the server immediately after connection
-                writer.flush();
-                // Send username with a newline
+                ChatClient chatClient = ChatClient.connect(host, port, username, binaryCheckBox.isSelected());
+                System.out.println("Successfully connected to host: " + host + " at Port: " + port);
+                // Connects and introduces the user in the chosen protocol
 
                 connectingFrame.dispose();
                 // Hide connectingFrame as is not relevant after successful connection
 
-                Client client = new Client(socket, username);
+                Client client = new Client(chatClient);
                 client.setVisible(true);
                 client.listenForMessage();
+                client.requestServerHistoryIfEmpty(50);
                 client.definiteScrollChatToBottom();
                 break;
                 // Break out of the loop if connection is successful
@@ -328,88 +562,3 @@ public class Client extends JFrame {
     // Main method to start the chat client
 }
 
-class ChatMessage {
-    private String sender;
-    private String message;
-    private Date timestamp;
-
-    public ChatMessage(String sender, String message) {
-        this.sender = sender;
-        this.message = message;
-        this.timestamp = new Date();
-    }
-    // Represents a message in the chat system
-
-    public String getSender() {
-        return sender;
-    }
-    // Get-method for message sender
-
-    public String getMessage() {
-        return message;
-    }
-    // Get-method for message
-
-    public Date getTimestamp() {
-        return timestamp;
-    }
-    // Get-method for message timestamp
-}
-
-class ChatHistory {
-    private List<ChatMessage> messages;
-    private static final String DEFAULT_FILENAME = "chat_history.json";
-
-    public ChatHistory() {
-        messages = new ArrayList<>();
-    }
-
-    public void addMessage(ChatMessage message) {
-        messages.add(message);
-    }
-    // Adds a message to the chat history
-
-    public List<ChatMessage> getMessages() {
-        return messages;
-    }
-
-    public void saveToFile(String filename) {
-        if (filename == null || filename.isEmpty()) {
-            filename = DEFAULT_FILENAME;
-        }
-        try (FileWriter writer = new FileWriter(new File(filename))) {
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            gson.toJson(messages, writer);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-    // Saves the chat history to a file in JSON format
-
-    public void loadFromFile(String filename) {
-        if (filename == null || filename.isEmpty()) {
-            filename = DEFAULT_FILENAME;
-        }
-        File file = new File(filename);
-        if (file.exists()) {
-            try (FileReader reader = new FileReader(file)) {
-                Gson gson = new Gson();
-                List<ChatMessage> loadedMessages = gson.fromJson(reader, new TypeToken<List<ChatMessage>>() {
-                }.getType());
-                if (loadedMessages != null) {
-                    messages = loadedMessages;
-                } else {
-                    messages = new ArrayList<>();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-                messages = new ArrayList<>();
-            }
-        } else {
-            messages = new ArrayList<>();
-        }
-    }
-    // Loads the chat history from a JSON file
-
-}
-// Manages the history of chat messages
\ No newline at end of file
@@ -1,65 +1,175 @@
 package com.chatroom;
 // Package declaration for MAVEN project in VSCode
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.net.ProtocolException;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
-public class ClientHandler implements Runnable {
+public class ClientHandler implements Runnable, ChatSession {
 
-    public static ArrayList<ClientHandler> clientHandlers = new ArrayList<>();
+    public static final SessionRegistry sessionRegistry = new SessionRegistry();
     // Keeps track of all clients in session. When a client sends a message, this
-    // list is used as a reference to send other clients said message
+    // registry is used as a reference to send other clients said message
 
+    private final long sessionId = SessionRegistry.nextSessionId();
     private Socket socket;
     private BufferedReader bufferedReader;
-    private BufferedWriter bufferedWriter;
+    private DataInputStream dataInputStream;
+    private boolean binaryProtocol;
+    private boolean compression;
+    // Text clients are read line by line, binary clients frame by frame. Binary
+    // clients may also agree to receive large messages compressed
+    private GatheringWriter gatheringWriter;
     public String clientUsername;
+    private final SessionRooms rooms = new SessionRooms();
 
-    public ClientHandler(Socket socket) {
+    private final ServerConfig config;
+    private final OutboundQueue<ByteBuffer> outboundQueue;
+    private final Executor writerExecutor;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    // Messages for this client are queued by the senders and written out by a
+    // writer task, so a slow reader only ever blocks its own writer
+    private final AtomicBoolean disconnectRecorded = new AtomicBoolean();
+    private final AdmissionControl admission;
+    private AdmissionControl.SessionLimits limits;
+    private volatile boolean handshakeDone;
+
+    ClientHandler(Socket socket, ServerConfig config, Executor writerExecutor, AdmissionControl admission) {
+        this.config = config;
+        this.admission = admission;
+        this.outboundQueue = new OutboundQueue<>(config.getOutboundQueueCapacity(), config.getOverflowPolicy());
+        this.writerExecutor = writerExecutor;
+        this.socket = socket;
+        this.limits = admission.newSessionLimits(socket.getInetAddress());
+        try {
+            this.gatheringWriter = new GatheringWriter(socket.getChannel() != null ? socket.getChannel()
+                    : Channels.newChannel(socket.getOutputStream()), config.getWriteCoalesceMaxBytes());
+            // Channel to send messages. Sockets accepted through a channel get gathering
+            // writes straight from the shared message buffers
+        } catch (IOException e) {
+            recordDisconnect(ServerMetrics.writeFailure(e));
+            closeAll(socket, bufferedReader);
+        }
+    }
+    // Only sets the session up. Nothing is read from the client here, so the
+    // accept loop can hand the handler on and accept the next connection at once
+
+    boolean handshake() {
+        if (handshakeDone) {
+            return true;
+        }
         try {
-            this.socket = socket;
-            this.bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-            // Stream to send messages
+            socket.setSoTimeout((int) Math.min(config.getHandshakeTimeoutMillis(), Integer.MAX_VALUE));
+            // Reads until the username fail with a timeout, so a client that connects and
+            // says nothing does not hold its slot forever
+
+            BufferedInputStream inputStream = new BufferedInputStream(new MeteredInputStream(socket.getInputStream()));
+            inputStream.mark(1);
+            int firstByte = inputStream.read();
+            inputStream.reset();
+            // Peeks at the first byte to tell binary clients from text clients
+
+            if (firstByte == BinaryProtocol.MAGIC[0]) {
+                binaryProtocol = true;
+                if (!BinaryProtocol.readMagic(inputStream)) {
+                    throw new ProtocolException("Unsupported binary protocol version");
+                }
+                this.dataInputStream = new DataInputStream(inputStream);
+                ChatFrame hello = BinaryProtocol.readFrame(dataInputStream, config.getMaxLineLength());
+                if (hello != null && hello.getType() == ChatFrame.TYPE_HELLO) {
+                    this.clientUsername = hello.getText();
+                    compression = config.isCompression() && (hello.getFlags() & ChatFrame.FLAG_COMPRESSION) != 0;
+                    enqueue(BinaryProtocol.handshakeAck(sessionId, clientUsername, compression));
+                }
+                // Binary clients send their username in a HELLO frame and get one back
+                // with their session id. Compression is used if both sides offer it
 
-            this.bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            // Stream to receive messages
+            } else {
+                this.bufferedReader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+                // Stream to receive messages
 
-            this.clientUsername = bufferedReader.readLine();
-            // Reads the first line from what the user sends and puts it as their username
+                this.clientUsername = readLine();
+                // Reads the first line from what the user sends and puts it as their username
+            }
 
-            synchronized (clientHandlers) {
-                clientHandlers.add(this);
+            if (clientUsername == null) {
+                throw new EOFException("Client disconnected before sending a username");
             }
-            // adds ClientHandler object to arraylist 'clientHandlers'
+            socket.setSoTimeout(0);
 
-            broadcastMessage("[SERVER] " + clientUsername + " has entered the chat.");
-            // Announces to all connected clients that a new user + their username; has
-            // entered the chat
+            MessageRouter.connect(this);
+            // adds ClientHandler object to the session registry and the lobby, and
+            // announces to the lobby that a new user + their username; has entered the chat
 
+            handshakeDone = true;
+            return true;
         } catch (IOException e) {
-            closeAll(socket, bufferedReader, bufferedWriter);
+            recordDisconnect(ServerMetrics.readFailure(e));
+            closeAll(socket, bufferedReader);
+            return false;
         }
     }
+    // Reads the protocol and username, then joins the lobby. The server runs this
+    // on its handshake threads. Returns false if the client was closed instead
+
+    @Override
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    @Override
+    public String getUsername() {
+        return clientUsername;
+    }
+
+    @Override
+    public SessionRooms getRooms() {
+        return rooms;
+    }
 
     @Override
     public void run() {
-        String messageFromClient;
+        if (!handshake()) {
+            return;
+        }
+        // Already done when the server ran the handshake stage, handlers started
+        // directly on a thread do it here
+        ChatFrame messageFromClient;
         while (socket.isConnected()) {
             try {
-                messageFromClient = bufferedReader.readLine();
+                messageFromClient = readFrame();
                 // Blocking operation waiting for messages from other clients
 
-                broadcastMessage(messageFromClient);
-                // Uses the broadcastMessage() method to send message to other clients in the
-                // chatroom
+                if (messageFromClient == null) {
+                    recordDisconnect(ServerMetrics.DisconnectReason.CLIENT_CLOSED);
+                    closeAll(socket, bufferedReader);
+                    break;
+                }
+                // Null once the client has closed its end of the socket
+
+                if (limits.allowMessage(this)) {
+                    MessageRouter.handleIncomingFrame(this, messageFromClient);
+                }
+                // Sends the message on to the other clients in the chatroom, unless the
+                // client is over its rate limit
 
             } catch (IOException e) {
-                closeAll(socket, bufferedReader, bufferedWriter);
+                recordDisconnect(ServerMetrics.readFailure(e));
+                closeAll(socket, bufferedReader);
                 break;
                 // Breaks out of the while-loop after client disconnects
             }
@@ -68,41 +178,160 @@ public class ClientHandler implements Runnable {
     // Separate thread running method to scan for new messages. Is done on separate
     // thread as to not lock client into waiting for messages
 
-    public void broadcastMessage(String message) {
-        for (ClientHandler clientHandler : clientHandlers) {
-            try {
-                if (!clientHandler.clientUsername.equals(clientUsername)) {
-                    clientHandler.bufferedWriter.write(message + "\n");
-                    clientHandler.bufferedWriter.flush();
-                    // Flush to ensure that any buffered data is immediately written out
+    private ChatFrame readFrame() throws IOException {
+        if (binaryProtocol) {
+            return BinaryProtocol.readFrame(dataInputStream, config.getMaxLineLength());
+        }
+        String line = readLine();
+        return line == null ? null : frameFromTextLine(this, line);
+    }
+    // Reads the next message in whichever protocol the client negotiated
 
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = bufferedReader.read()) >= 0) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
                 }
-                // If statement that ensures message is not sent back to the sender as an
-                // incoming message
+                return line.toString();
+            }
+            if (line.length() >= config.getMaxLineLength()) {
+                throw new ProtocolException("Line exceeds " + config.getMaxLineLength() + " characters");
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+    // Like BufferedReader.readLine() but with the NIO engine's line limit, so a
+    // client that never sends a newline is disconnected instead of filling the
+    // heap. Returns null at end of stream
 
-            } catch (IOException e) {
-                closeAll(socket, bufferedReader, bufferedWriter);
+    public static ChatFrame frameFromTextLine(ChatSession sender, String line) {
+        String prefix = sender.getUsername() + ": ";
+        String text = line.startsWith(prefix) ? line.substring(prefix.length()) : line;
+        return ChatFrame.chat(sender.getRooms().getCurrentRoomId(), sender.getSessionId(), sender.getUsername(), text);
+    }
+    // Text clients put their own name in front of every message. It is stripped so
+    // the server routes the bare text and binary clients get it without the name.
+    // Text clients have no room field, their messages go to their current room
+
+    public void broadcastMessage(String message) {
+        broadcastMessage(this, message);
+    }
+    // Method used to broadcast a server notice to the lobby.
+
+    public static void broadcastMessage(ChatSession sender, String message) {
+        broadcastMessage(sender, ChatFrame.system(RoomRegistry.LOBBY_ID, message));
+    }
+    // Broadcasts a server notice to the lobby on behalf of a session
+
+    public static void broadcastMessage(ChatSession sender, ChatFrame frame) {
+        MessageRouter.broadcastToRoom(sender, frame);
+    }
+    // Broadcasts a message from any session, blocking or NIO, to the other members
+    // of the frame's room
+
+    @Override
+    public void deliver(OutboundMessage message) {
+        enqueue(message.encodedFor(binaryProtocol, compression));
+    }
+    // Queues a message for this client in the protocol it negotiated
+
+    private void enqueue(ByteBuffer buffer) {
+        if (!outboundQueue.offer(buffer)) {
+            System.out.println("Disconnecting slow client " + clientUsername + ", outbound queue is full");
+            close(ServerMetrics.DisconnectReason.SLOW_CONSUMER);
+            return;
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            writerExecutor.execute(this::drainOutboundQueue);
+        }
+    }
+    // Queues bytes for this client without blocking the sender. Starts a writer
+    // task unless one is already draining the queue
+
+    private void drainOutboundQueue() {
+        try {
+            long coalesceDelay = config.getWriteCoalesceDelayMicros();
+            if (coalesceDelay > 0 && outboundQueue.getDepth() < GatheringWriter.MAX_BATCH) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(coalesceDelay));
+            }
+            // Waits briefly so messages arriving within the window share one write
+
+            while (true) {
+                gatheringWriter.writeFrom(outboundQueue);
+                // Writes everything queued so far, a burst of messages goes out in a few
+                // gathering writes
+
+                drainScheduled.set(false);
+                if (outboundQueue.isEmpty() || !drainScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                // A sender may have queued a message after the queue was drained
             }
+        } catch (IOException e) {
+            drainScheduled.set(false);
+            close(ServerMetrics.writeFailure(e));
         }
     }
-    // Method used to broadcast a message to all connected clients.
+    // Writer task, the only code that writes to this client's socket
+
+    @Override
+    public OutboundQueue<ByteBuffer> getOutboundQueue() {
+        return outboundQueue;
+    }
+    // Get-method for the outbound queue, used to read queue depth metrics
+
+    @Override
+    public boolean hasPendingWrites() {
+        return drainScheduled.get() || !outboundQueue.isEmpty();
+    }
+    // The writer task stays scheduled until its last write has returned
+
+    @Override
+    public boolean isClosed() {
+        return disconnectRecorded.get();
+    }
+    // Every way a handler ends goes through recordDisconnect or reject
 
     public void removeClient() {
-        clientHandlers.remove(this);
-        broadcastMessage("SERVER: " + clientUsername + " has left the chat.");
+        MessageRouter.disconnect(this);
+        // Only the first close announces the leave
     }
-    // Method to remove client socket from clientHandlers arrayList and announces to
-    // remaining users that said user has left
+    // Method to remove client socket from the session registry and its rooms, and
+    // announces to remaining users that said user has left
 
-    public void closeAll(Socket socket, BufferedReader bufferedReader, BufferedWriter bufferedWriter) {
+    @Override
+    public void close(ServerMetrics.DisconnectReason reason) {
+        recordDisconnect(reason);
         removeClient();
+        outboundQueue.clear();
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    // Closes the client from any thread. Closing the socket unblocks this client's
+    // reader and writer, and the reader thread then cleans up the streams
+
+    public void closeAll(Socket socket, BufferedReader bufferedReader) {
+        removeClient();
+        outboundQueue.clear();
+        if (socket != null && socket.isClosed()) {
+            return;
+        }
+        // Socket was already closed by close(), which also closed its streams
+
         try {
             if (bufferedReader != null) {
                 bufferedReader.close();
             }
-            if (bufferedWriter != null) {
-                bufferedWriter.close();
-            }
             if (socket != null) {
                 socket.close();
             }
@@ -110,6 +339,52 @@ public class ClientHandler implements Runnable {
             e.printStackTrace();
         }
     }
-    // Method to close the socket, bufferedReader and bufferedWriter elements after
-    // removing the client from the arrayList
+    // Method to close the socket and bufferedReader elements after
+    // removing the client from the session registry
+
+    void reject(ServerMetrics.RejectReason reason) {
+        if (disconnectRecorded.compareAndSet(false, true)) {
+            admission.release();
+            limits.close();
+            AdmissionControl.reject(socket, reason);
+        }
+    }
+    // Turns the client away before its handshake started. Does nothing if the
+    // handler already failed and freed its slot
+
+    private void recordDisconnect(ServerMetrics.DisconnectReason reason) {
+        if (disconnectRecorded.compareAndSet(false, true)) {
+            ServerMetrics.recordDisconnect(reason);
+            admission.release();
+            limits.close();
+        }
+    }
+    // The reader and a closing thread can both see the end of the connection,
+    // whichever gets here first gives the reason and frees the connection's slot
+
+    private static final class MeteredInputStream extends FilterInputStream {
+        private MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                ServerMetrics.recordBytesIn(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                ServerMetrics.recordBytesIn(read);
+            }
+            return read;
+        }
+    }
+    // Counts bytes read from the socket. Sits under the BufferedInputStream, so it
+    // sees one call per socket read rather than one per byte
 }
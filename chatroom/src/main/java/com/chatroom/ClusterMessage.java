@@ -0,0 +1,187 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public final class ClusterMessage {
+
+    public static final byte TYPE_RELAY = 1;
+    // A message broadcast to a room on the origin node
+    public static final byte TYPE_MEMBER_JOINED = 2;
+    public static final byte TYPE_MEMBER_LEFT = 3;
+    // One session of the origin node joined or left a room
+    public static final byte TYPE_MEMBERSHIP = 4;
+    // Every room membership of the origin node, replacing what was known before
+
+    static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+    private final byte type;
+    private final String originNodeId;
+    private final long epoch;
+    private final long sequence;
+    private final String roomName;
+    private final ChatFrame frame;
+    private final long sessionId;
+    private final Map<String, Set<Long>> membership;
+
+    private ClusterMessage(byte type, String originNodeId, long epoch, long sequence, String roomName,
+            ChatFrame frame, long sessionId, Map<String, Set<Long>> membership) {
+        this.type = type;
+        this.originNodeId = originNodeId;
+        this.epoch = epoch;
+        this.sequence = sequence;
+        this.roomName = roomName;
+        this.frame = frame;
+        this.sessionId = sessionId;
+        this.membership = membership;
+    }
+
+    static ClusterMessage relay(String originNodeId, long epoch, long sequence, String roomName, ChatFrame frame) {
+        return new ClusterMessage(TYPE_RELAY, originNodeId, epoch, sequence, roomName, frame, 0,
+                Collections.emptyMap());
+    }
+
+    static ClusterMessage memberChanged(String originNodeId, long epoch, long sequence, boolean joined,
+            String roomName, long sessionId) {
+        return new ClusterMessage(joined ? TYPE_MEMBER_JOINED : TYPE_MEMBER_LEFT, originNodeId, epoch, sequence,
+                roomName, null, sessionId, Collections.emptyMap());
+    }
+
+    static ClusterMessage membership(String originNodeId, long epoch, long sequence,
+            Map<String, Set<Long>> membership) {
+        return new ClusterMessage(TYPE_MEMBERSHIP, originNodeId, epoch, sequence, "", null, 0, membership);
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public String getOriginNodeId() {
+        return originNodeId;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+    // When the origin node started. Sequence numbers start again from 0 with
+    // every new epoch
+
+    public long getSequence() {
+        return sequence;
+    }
+    // Together with the origin node and epoch, identifies the message across the
+    // cluster
+
+    public String getRoomName() {
+        return roomName;
+    }
+    // Rooms are addressed by name between nodes, room ids are local to a node
+
+    public ChatFrame getFrame() {
+        return frame;
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public Map<String, Set<Long>> getMembership() {
+        return membership;
+    }
+
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeByte(type);
+            out.writeUTF(originNodeId);
+            out.writeLong(epoch);
+            out.writeLong(sequence);
+            out.writeUTF(roomName);
+            if (type == TYPE_RELAY) {
+                ByteBuffer encoded = BinaryProtocol.encode(frame, false);
+                out.write(encoded.array(), encoded.arrayOffset(), encoded.remaining());
+            } else if (type == TYPE_MEMBERSHIP) {
+                out.writeInt(membership.size());
+                for (Map.Entry<String, Set<Long>> room : membership.entrySet()) {
+                    out.writeUTF(room.getKey());
+                    out.writeInt(room.getValue().size());
+                    for (long id : room.getValue()) {
+                        out.writeLong(id);
+                    }
+                }
+            } else {
+                out.writeLong(sessionId);
+            }
+            out.flush();
+            byte[] encoded = bytes.toByteArray();
+            ByteBuffer.wrap(encoded).putInt(encoded.length - 4);
+            return encoded;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        // Writing to memory never fails
+    }
+    // Encodes the message with a 4 byte length prefix. Relayed chat frames are
+    // embedded in the binary protocol's own encoding
+
+    public static ClusterMessage read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == 0) {
+            return null;
+        }
+        // A heartbeat, sent on idle links
+        if (length < 0 || length > MAX_LENGTH) {
+            throw new ProtocolException("Invalid cluster message length " + length);
+        }
+        byte type = in.readByte();
+        String originNodeId = in.readUTF();
+        long epoch = in.readLong();
+        long sequence = in.readLong();
+        String roomName = in.readUTF();
+        switch (type) {
+            case TYPE_RELAY:
+                int frameLength = in.readInt();
+                BinaryProtocol.checkLength(frameLength, MAX_LENGTH);
+                byte[] body = new byte[frameLength];
+                in.readFully(body);
+                return relay(originNodeId, epoch, sequence, roomName,
+                        BinaryProtocol.decode(ByteBuffer.wrap(body), FrameCompression.MAX_INFLATED_LENGTH, false));
+                // A compressed frame stays compressed, the receiving node hands the same
+                // bytes to its clients and its message store
+            case TYPE_MEMBER_JOINED:
+            case TYPE_MEMBER_LEFT:
+                return memberChanged(originNodeId, epoch, sequence, type == TYPE_MEMBER_JOINED, roomName,
+                        in.readLong());
+            case TYPE_MEMBERSHIP:
+                int rooms = in.readInt();
+                Map<String, Set<Long>> membership = new HashMap<>();
+                for (int i = 0; i < rooms; i++) {
+                    String room = in.readUTF();
+                    int count = in.readInt();
+                    Set<Long> ids = new HashSet<>();
+                    for (int j = 0; j < count; j++) {
+                        ids.add(in.readLong());
+                    }
+                    membership.put(room, ids);
+                }
+                return membership(originNodeId, epoch, sequence, membership);
+            default:
+                throw new ProtocolException("Unknown cluster message type " + type);
+        }
+    }
+    // Reads one length-prefixed message. Returns null for a heartbeat
+}
+// Message exchanged between the nodes of a cluster: a relayed room broadcast or
+// a change in which sessions of a node are in which rooms
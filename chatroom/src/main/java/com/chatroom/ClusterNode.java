@@ -0,0 +1,254 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ClusterNode implements ClusterTransport.Listener {
+
+    static final int DEDUP_WINDOW = 4096;
+    // How many of an origin's most recent sequence numbers are remembered. Older
+    // messages arriving late are treated as duplicates
+
+    private final String nodeId;
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final ClusterTransport transport;
+    private final boolean compression;
+    private final ConcurrentHashMap<String, OriginWindow> origins = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Set<Long>>> remoteMembers =
+            new ConcurrentHashMap<>();
+    // Room name -> node id -> ids of that node's sessions in the room
+
+    public ClusterNode(String nodeId, ClusterTransport transport) {
+        this(nodeId, transport, true);
+    }
+
+    public ClusterNode(String nodeId, ClusterTransport transport, boolean compression) {
+        this.nodeId = nodeId;
+        this.transport = transport;
+        this.compression = compression;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void start() throws IOException {
+        transport.start(this);
+    }
+
+    public void close() {
+        transport.close();
+    }
+
+    public void relay(Room room, OutboundMessage message) {
+        if (!hasRemoteMembers(room.getName())) {
+            return;
+        }
+        ChatFrame frame = compression ? message.compressedFrame() : message.getFrame();
+        transport.publish(ClusterMessage.relay(nodeId, epoch, nextSequence.getAndIncrement(), room.getName(),
+                frame));
+    }
+    // Forwards a broadcast to the other nodes, but only for rooms some session on
+    // another node is in. A large message is compressed at most once, and only
+    // if it leaves this node or a local client or the store needs it compressed
+
+    public void memberJoined(Room room, ChatSession session) {
+        transport.publish(ClusterMessage.memberChanged(nodeId, epoch, nextSequence.getAndIncrement(), true,
+                room.getName(), session.getSessionId()));
+    }
+
+    public void memberLeft(Room room, ChatSession session) {
+        transport.publish(ClusterMessage.memberChanged(nodeId, epoch, nextSequence.getAndIncrement(), false,
+                room.getName(), session.getSessionId()));
+    }
+    // Tell the other nodes which rooms this node's sessions are in
+
+    public int remoteMemberCount(String roomName) {
+        Map<String, Set<Long>> nodes = remoteMembers.get(roomName);
+        if (nodes == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Set<Long> sessions : nodes.values()) {
+            count += sessions.size();
+        }
+        return count;
+    }
+    // Members of a room on all other nodes, as far as this node knows
+
+    private boolean hasRemoteMembers(String roomName) {
+        Map<String, Set<Long>> nodes = remoteMembers.get(roomName);
+        if (nodes == null) {
+            return false;
+        }
+        for (Set<Long> sessions : nodes.values()) {
+            if (!sessions.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onMessage(ClusterMessage message) {
+        String origin = message.getOriginNodeId();
+        if (origin.equals(nodeId)) {
+            return;
+        }
+        // A broker may hand a node its own messages back
+
+        Map<String, Set<Long>> membership = new HashMap<>();
+        String roomName = null;
+        if (message.getType() == ClusterMessage.TYPE_MEMBERSHIP) {
+            for (Map.Entry<String, Set<Long>> room : message.getMembership().entrySet()) {
+                String name = RoomRegistry.normaliseName(room.getKey());
+                if (name == null) {
+                    ServerMetrics.recordDroppedClusterMessage();
+                    return;
+                }
+                membership.computeIfAbsent(name, key -> new HashSet<>()).addAll(room.getValue());
+            }
+        } else {
+            roomName = RoomRegistry.normaliseName(message.getRoomName());
+            if (roomName == null) {
+                ServerMetrics.recordDroppedClusterMessage();
+                return;
+            }
+        }
+        // Room names from other nodes are checked like a local /join, they end up
+        // in file names of the message store
+
+        OriginWindow window = origins.computeIfAbsent(origin, id -> new OriginWindow());
+        if (!window.firstDelivery(message.getEpoch(), message.getSequence())) {
+            return;
+        }
+        switch (message.getType()) {
+            case ClusterMessage.TYPE_RELAY:
+                MessageRouter.deliverFromCluster(roomName, message.getFrame());
+                break;
+            case ClusterMessage.TYPE_MEMBER_JOINED:
+                MessageRouter.roomRegistry.getOrCreate(roomName);
+                nodeMembers(roomName, origin).add(message.getSessionId());
+                break;
+            case ClusterMessage.TYPE_MEMBER_LEFT:
+                nodeMembers(roomName, origin).remove(message.getSessionId());
+                releaseRoom(roomName);
+                break;
+            case ClusterMessage.TYPE_MEMBERSHIP:
+                Set<String> previousRooms = removeNode(origin);
+                for (Map.Entry<String, Set<Long>> room : membership.entrySet()) {
+                    MessageRouter.roomRegistry.getOrCreate(room.getKey());
+                    nodeMembers(room.getKey(), origin).addAll(room.getValue());
+                }
+                previousRooms.removeAll(membership.keySet());
+                for (String previousRoom : previousRooms) {
+                    releaseRoom(previousRoom);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+    // Rooms with members elsewhere are created here too, so local clients can see
+    // and join them. Like local rooms they are dropped again once empty, and are
+    // not created beyond the room limit
+
+    @Override
+    public void onPeerConnected() {
+        Map<String, Set<Long>> membership = new HashMap<>();
+        for (Room room : MessageRouter.roomRegistry.list()) {
+            ChatSession[] members = room.getMembers().snapshot();
+            if (members.length == 0) {
+                continue;
+            }
+            Set<Long> ids = new HashSet<>();
+            for (ChatSession member : members) {
+                ids.add(member.getSessionId());
+            }
+            membership.put(room.getName(), ids);
+        }
+        transport.publish(ClusterMessage.membership(nodeId, epoch, nextSequence.getAndIncrement(), membership));
+    }
+    // Sends this node's whole membership whenever a link comes up, which also
+    // repairs anything a peer missed while it was unreachable
+
+    @Override
+    public void onPeerDisconnected(String peerNodeId) {
+        for (String roomName : removeNode(peerNodeId)) {
+            releaseRoom(roomName);
+        }
+    }
+
+    private Set<Long> nodeMembers(String roomName, String origin) {
+        return remoteMembers.computeIfAbsent(roomName, name -> new ConcurrentHashMap<>())
+                .computeIfAbsent(origin, id -> ConcurrentHashMap.newKeySet());
+    }
+
+    private Set<String> removeNode(String origin) {
+        Set<String> rooms = new HashSet<>();
+        for (Map.Entry<String, ConcurrentHashMap<String, Set<Long>>> room : remoteMembers.entrySet()) {
+            if (room.getValue().remove(origin) != null) {
+                rooms.add(room.getKey());
+            }
+        }
+        return rooms;
+    }
+    // Forgets every member of a node and returns the rooms it had members in
+
+    private static void releaseRoom(String roomName) {
+        Room room = MessageRouter.roomRegistry.findByName(roomName);
+        if (room != null) {
+            MessageRouter.releaseIfEmpty(room);
+        }
+    }
+
+    static final class OriginWindow {
+        private long epoch = -1;
+        private long highest = -1;
+        private final BitSet seen = new BitSet(DEDUP_WINDOW);
+
+        synchronized boolean firstDelivery(long messageEpoch, long sequence) {
+            if (messageEpoch < epoch) {
+                return false;
+            }
+            // Left over from before the origin restarted
+            if (messageEpoch > epoch) {
+                epoch = messageEpoch;
+                highest = -1;
+                seen.clear();
+            }
+            if (sequence <= highest - DEDUP_WINDOW) {
+                return false;
+            }
+            if (sequence > highest) {
+                long firstSkipped = Math.max(highest + 1, sequence - DEDUP_WINDOW + 1);
+                for (long skipped = firstSkipped; skipped < sequence; skipped++) {
+                    seen.clear((int) (skipped % DEDUP_WINDOW));
+                }
+                // Slots reused by the new numbers forget what they held before
+                highest = sequence;
+                seen.set((int) (sequence % DEDUP_WINDOW));
+                return true;
+            }
+            int slot = (int) (sequence % DEDUP_WINDOW);
+            if (seen.get(slot)) {
+                return false;
+            }
+            seen.set(slot);
+            return true;
+        }
+    }
+    // Sliding window over the sequence numbers seen from one origin, so a message
+    // that arrives twice, over two paths or after a retry, is delivered once
+}
+// One server's place in a cluster: relays room broadcasts to the other nodes,
+// delivers theirs locally exactly once and keeps track of which rooms have
+// members on other nodes
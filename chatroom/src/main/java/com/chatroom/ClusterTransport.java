@@ -0,0 +1,33 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.IOException;
+
+public interface ClusterTransport {
+
+    void start(Listener listener) throws IOException;
+    // Starts delivering messages from other nodes to the listener
+
+    void publish(ClusterMessage message);
+    // Sends a message to every other node without blocking. Delivery is best
+    // effort: messages for a node that cannot be reached are dropped, and the
+    // same message may arrive more than once
+
+    void close();
+
+    interface Listener {
+
+        void onMessage(ClusterMessage message);
+        // Called on a transport thread for every message from another node
+
+        void onPeerConnected();
+        // A link to another node was (re)established. The node republishes its
+        // room membership so the new peer starts from a complete picture
+
+        void onPeerDisconnected(String nodeId);
+        // A node went away. Its room members are no longer counted
+    }
+}
+// Carries messages between the server nodes of a cluster. TcpMeshTransport
+// connects every node directly to every other one; a message broker can
+// implement the same interface with a topic every node subscribes to
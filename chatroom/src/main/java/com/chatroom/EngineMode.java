@@ -0,0 +1,28 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+public enum EngineMode {
+
+    THREAD_PER_CONNECTION("Thread per connection"),
+    // Original engine, every accepted socket gets its own platform thread
+
+    VIRTUAL_THREADS("Virtual threads"),
+    // Blocking ClientHandler code, but every client runs on a virtual thread
+    // (Java 21+)
+
+    NIO("NIO selector");
+    // Non-blocking engine, a small pool of selector threads serves all sockets
+
+    private final String label;
+
+    EngineMode(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+    // Label shown in the server configuration window
+}
+// Selects which engine the Server uses to accept and serve client connections
@@ -0,0 +1,205 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class EventLoop implements Runnable {
+
+    private final Selector selector;
+    private final ServerConfig config;
+    private final AdmissionControl admission;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final PriorityQueue<ScheduledTask> scheduledTasks = new PriorityQueue<>();
+    // Delayed tasks, only touched on the selector thread
+    private final ByteBuffer readBuffer;
+    // One read buffer per selector thread instead of one per connection keeps
+    // memory flat for idle clients
+
+    private Thread thread;
+    private volatile boolean running;
+
+    EventLoop(ServerConfig config, AdmissionControl admission) throws IOException {
+        this.config = config;
+        this.admission = admission;
+        this.selector = Selector.open();
+        this.readBuffer = ByteBuffer.allocateDirect(config.getReadBufferSize());
+    }
+
+    void start(String name) {
+        running = true;
+        thread = new Thread(this, name);
+        thread.start();
+    }
+    // Starts the selector thread
+
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioSession session = new NioSession(channel, key, this, config, admission);
+                key.attach(session);
+                long handshakeTimeout = config.getHandshakeTimeoutMillis();
+                if (handshakeTimeout > 0) {
+                    schedule(session::handshakeTimedOut, TimeUnit.MILLISECONDS.toNanos(handshakeTimeout));
+                }
+            } catch (ClosedChannelException e) {
+                admission.release();
+                // Client went away before it was registered, only its slot to free
+            }
+        });
+    }
+    // Hands a freshly accepted channel over to this loop. Registration has to
+    // happen on the selector thread, otherwise register() blocks while select()
+    // is running
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+    // Queues a task to run on the selector thread. Only the first task after a
+    // select() pays for the wakeup
+
+    void schedule(Runnable task, long delayNanos) {
+        long deadline = System.nanoTime() + delayNanos;
+        execute(() -> scheduledTasks.add(new ScheduledTask(deadline, task)));
+    }
+    // Runs a task on the selector thread once the delay has passed
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (tasks.isEmpty()) {
+                    selector.select(selectTimeoutMillis());
+                } else {
+                    selector.selectNow();
+                }
+                // Tasks queued from this thread don't wake the selector, so don't block
+                // while any are waiting
+                wakeupPending.set(false);
+                runTasks();
+                runScheduledTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioSession session = (NioSession) key.attachment();
+                    if (session == null) {
+                        continue;
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        session.handleRead(readBuffer);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        session.flushPending();
+                    }
+                }
+                // Dispatches ready sockets to their sessions
+
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        closeAllSessions();
+    }
+    // Selector thread. Waits for ready sockets, then runs queued tasks and
+    // reads/writes for every ready session
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private long selectTimeoutMillis() {
+        ScheduledTask next = scheduledTasks.peek();
+        if (next == null) {
+            return 0;
+            // 0 blocks until a socket is ready or the loop is woken up
+        }
+        long remaining = next.deadline - System.nanoTime();
+        return remaining <= 0 ? 1 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+    }
+    // select() only has millisecond resolution, so shorter delays wait at least a
+    // millisecond unless other work wakes the loop earlier
+
+    private void runScheduledTasks() {
+        long now = System.nanoTime();
+        ScheduledTask next;
+        while ((next = scheduledTasks.peek()) != null && next.deadline - now <= 0) {
+            scheduledTasks.poll();
+            try {
+                next.task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+        private final long deadline;
+        private final Runnable task;
+
+        private ScheduledTask(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+
+    private void closeAllSessions() {
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            NioSession session = (NioSession) key.attachment();
+            if (session != null) {
+                session.close();
+                session.closeChannel();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+    // Stops the selector thread, which runs the tasks still queued and closes
+    // every session it owns on the way out. Sessions closed from other threads
+    // just before get their channel closed here as well
+}
+// Single selector thread of the NIO engine. Each loop owns a subset of the
+// connections and does all socket I/O for them
@@ -0,0 +1,158 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public final class FrameCompression {
+
+    public static final int MIN_LENGTH = 256;
+    // Payloads shorter than this are sent as they are. Deflate saves little on a
+    // short line and costs a few microseconds per message
+
+    public static final int MAX_INFLATED_LENGTH = 16 * 1024 * 1024;
+    // Upper bound on any inflated payload, whatever the caller allows
+
+    private static final int POOL_SIZE = 8;
+    // Deflaters and inflaters hold native memory, so a handful are kept for reuse
+    // instead of one per thread. Extra ones are released after use
+
+    private static final byte[] DICTIONARY = String.join("",
+            "https://www.http://localhost:8080/api/v1/ HTTP/1.1\" 200 404 500 GET POST PUT DELETE ",
+            "\"id\": \"name\": \"type\": \"status\": \"message\": \"error\": \"data\": \"value\": ",
+            "true, false, null, {\"timestamp\": \"",
+            "SELECT * FROM WHERE INSERT INTO UPDATE SET ORDER BY LIMIT ",
+            "Traceback (most recent call last):\n  File \"\", line , in \n",
+            "Caused by: java.lang.IllegalStateException: java.lang.IllegalArgumentException: ",
+            "java.io.IOException: java.lang.NullPointerException: Cannot invoke \"\" because \"\" is null\n",
+            "\tat java.base/java.lang.Thread.run(Thread.java:\n",
+            "\tat java.base/java.util.concurrent.ThreadPoolExecutor$Worker.run(ThreadPoolExecutor.java:\n",
+            "\tat java.base/java.util.concurrent.ThreadPoolExecutor.runWorker(ThreadPoolExecutor.java:\n",
+            "\tat java.base/jdk.internal.reflect.DirectMethodHandleAccessor.invoke(\n",
+            "\tat org.springframework.\n\tat com.\n\tat sun.\n\t... more\n",
+            "Exception in thread \"main\" ",
+            " DEBUG  INFO  WARN  ERROR  TRACE [main] ",
+            "the and that this with for from have not you are was will can should would could there ",
+            "\n\tat ").getBytes(StandardCharsets.UTF_8);
+    // Preset dictionary shared by both ends. It primes deflate with strings common
+    // in pasted logs, stack traces and JSON so even a single message compresses
+    // well. Changing it breaks compatibility with existing peers and history, so
+    // it is fixed for the protocol version. The most common strings go last,
+    // where deflate's back references are cheapest
+
+    private static final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+    private FrameCompression() {
+    }
+
+    public static ChatFrame compress(ChatFrame frame) {
+        if ((frame.getFlags() & ChatFrame.FLAG_COMPRESSED) != 0 || frame.getPayload().length < MIN_LENGTH) {
+            return frame;
+        }
+        byte[] compressed = deflate(frame.getPayload());
+        if (compressed == null) {
+            return frame;
+        }
+        return new ChatFrame(frame.getType(), (byte) (frame.getFlags() | ChatFrame.FLAG_COMPRESSED),
+                frame.getRoomId(), frame.getSenderId(), frame.getTimestamp(), frame.getSenderName(), compressed);
+    }
+    // Returns the frame with its payload deflated, or the frame itself if it is too
+    // short or would not get smaller
+
+    public static ChatFrame decompress(ChatFrame frame, int maxLength) throws ProtocolException {
+        if ((frame.getFlags() & ChatFrame.FLAG_COMPRESSED) == 0) {
+            return frame;
+        }
+        return new ChatFrame(frame.getType(), (byte) (frame.getFlags() & ~ChatFrame.FLAG_COMPRESSED),
+                frame.getRoomId(), frame.getSenderId(), frame.getTimestamp(), frame.getSenderName(),
+                inflate(frame.getPayload(), maxLength));
+    }
+    // Returns the frame with its payload inflated, or the frame itself if it was
+    // not compressed
+
+    public static byte[] deflate(byte[] data) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] out = new byte[4 + data.length];
+            ByteBuffer.wrap(out).putInt(data.length);
+            int length = 4;
+            while (!deflater.finished() && length < out.length) {
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            if (!deflater.finished() || length >= data.length) {
+                return null;
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(out, 0, result, 0, length);
+            return result;
+        } finally {
+            deflater.reset();
+            if (deflaters.size() < POOL_SIZE) {
+                deflaters.offer(deflater);
+            } else {
+                deflater.end();
+            }
+        }
+    }
+    // Raw deflate preceded by the inflated length. Returns null if the result is
+    // not shorter than the input
+
+    public static byte[] inflate(byte[] data, int maxLength) throws ProtocolException {
+        if (data.length < 4) {
+            throw new ProtocolException("Compressed payload too short");
+        }
+        int length = ByteBuffer.wrap(data).getInt();
+        if (length < 0 || length > Math.min(maxLength, MAX_INFLATED_LENGTH)) {
+            throw new ProtocolException("Invalid inflated length " + length);
+        }
+        // Checked before allocating, so a small frame cannot claim a huge payload
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(data, 4, data.length - 4);
+            byte[] out = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = inflater.inflate(out, read, length - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read == length && !inflater.finished() && inflater.inflate(new byte[1]) > 0) {
+                read++;
+            }
+            if (read != length || !inflater.finished()) {
+                throw new ProtocolException("Compressed payload does not match its length");
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Corrupt compressed payload");
+        } finally {
+            inflater.reset();
+            if (inflaters.size() < POOL_SIZE) {
+                inflaters.offer(inflater);
+            } else {
+                inflater.end();
+            }
+        }
+    }
+    // Inflates a payload produced by deflate, at most maxLength bytes
+}
+// Per-message deflate with a preset dictionary, used for large payloads on the
+// binary protocol, between cluster nodes and in the message stores
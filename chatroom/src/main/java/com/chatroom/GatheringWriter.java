@@ -0,0 +1,105 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+class GatheringWriter {
+
+    static final int MAX_BATCH = 64;
+
+    private static final LongAdder writeCalls = new LongAdder();
+    private static final LongAdder messagesWritten = new LongAdder();
+    // Server-wide counters used to work out system calls per delivered message
+
+    private final WritableByteChannel channel;
+    private final int maxBatchBytes;
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+    private int batchStart;
+    private int batchEnd;
+    // Buffers taken from the queue but not yet fully written. Never handed back
+    // to the queue, so dropping queued messages cannot cut a line in half
+
+    GatheringWriter(WritableByteChannel channel, int maxBatchBytes) {
+        this.channel = channel;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    boolean writeFrom(OutboundQueue<ByteBuffer> queue) throws IOException {
+        while (true) {
+            if (batchStart == batchEnd) {
+                batchStart = 0;
+                batchEnd = 0;
+                int batchBytes = 0;
+                ByteBuffer buffer;
+                while (batchEnd < MAX_BATCH && batchBytes < maxBatchBytes && (buffer = queue.poll()) != null) {
+                    batch[batchEnd++] = buffer;
+                    batchBytes += buffer.remaining();
+                }
+                if (batchEnd == 0) {
+                    return true;
+                }
+                messagesWritten.add(batchEnd);
+            }
+            // Refills the batch once the previous one is fully written, up to the byte
+            // budget
+
+            long written;
+            if (channel instanceof GatheringByteChannel) {
+                written = ((GatheringByteChannel) channel).write(batch, batchStart, batchEnd - batchStart);
+            } else {
+                written = channel.write(batch[batchStart]);
+            }
+            writeCalls.increment();
+            ServerMetrics.recordBytesOut(written);
+            // One gathering write for the whole batch
+
+            while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                batch[batchStart++] = null;
+            }
+            if (batchStart < batchEnd && isNonBlocking()) {
+                return false;
+            }
+            // Socket buffer is full, the caller continues once the socket is writable
+        }
+    }
+    // Writes queued buffers until the queue is empty. Returns false if a
+    // non-blocking channel could not take everything
+
+    private boolean isNonBlocking() {
+        return channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking();
+    }
+
+    static long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    static long getMessagesWritten() {
+        return messagesWritten.sum();
+    }
+
+    static double getWritesPerMessage() {
+        long messages = messagesWritten.sum();
+        return messages == 0 ? 0 : (double) writeCalls.sum() / messages;
+    }
+    // Write system calls per delivered message, well below 1 while writes are
+    // being coalesced
+
+    boolean hasPending() {
+        return batchStart < batchEnd;
+    }
+
+    void clear() {
+        for (int i = batchStart; i < batchEnd; i++) {
+            batch[i] = null;
+        }
+        batchStart = 0;
+        batchEnd = 0;
+    }
+}
+// Drains an outbound queue into a socket using gathering writes, so many queued
+// messages go out in a single system call
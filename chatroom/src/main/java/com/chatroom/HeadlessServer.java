@@ -0,0 +1,90 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+
+public class HeadlessServer {
+
+    private HeadlessServer() {
+    }
+
+    public static ServerConfig parseArguments(String[] args) throws IOException {
+        ServerConfig config = new ServerConfig();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--config")) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("--config needs a file name");
+                }
+                config.load(new File(args[++i]));
+            }
+        }
+        // The config file is applied first, so settings on the command line win
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--config")) {
+                i++;
+                continue;
+            }
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            String key = arg.substring(2);
+            String value;
+            int equals = key.indexOf('=');
+            if (equals >= 0) {
+                value = key.substring(equals + 1);
+                key = key.substring(0, equals);
+            } else if (i + 1 < args.length) {
+                value = args[++i];
+            } else {
+                throw new IllegalArgumentException(arg + " needs a value");
+            }
+            config.set(key, value);
+        }
+        return config;
+    }
+    // Builds the server configuration from --config <file> and --key value or
+    // --key=value arguments, using the same keys as the config file
+
+    public static void main(String[] args) {
+        ServerConfig config;
+        try {
+            config = parseArguments(args);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage: HeadlessServer [--config server.properties] [--port 2000] [--engine NIO]"
+                    + " [--metricsPort 9100] [--<setting> <value> ...]");
+            System.exit(2);
+            return;
+        }
+        // Exit status 2 is a usage error, so scripts and service managers can tell a
+        // bad command line from a server that failed to start
+
+        Server server = null;
+        try {
+            ServerSocket serverSocket = Server.openServerSocket(config.getPort(), config.getAcceptBacklog());
+            server = new Server(serverSocket, config);
+            server.startServer();
+            System.out.println("Server running on port " + serverSocket.getLocalPort());
+        } catch (IOException | IllegalStateException e) {
+            System.out.println("Failed to start server on port " + config.getPort() + ": " + e.getMessage());
+            if (server != null) {
+                server.shutdown();
+            }
+            System.exit(1);
+            return;
+        }
+        // The store, metrics endpoint and cluster may already be running when the
+        // engine fails, shutdown() closes them before the process exits
+
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown, "server-shutdown"));
+        // Ctrl+C or SIGTERM shuts down gracefully, clients receive what is queued
+        // for them before their connections close
+    }
+    // The server's threads keep the process alive after main returns
+}
+// Entry point for running the server without a display, configured from the
+// command line and an optional properties file
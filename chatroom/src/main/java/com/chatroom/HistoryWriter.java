@@ -0,0 +1,232 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class HistoryWriter<T> implements Runnable {
+
+    public enum Durability {
+        NONE,
+        // Records are handed to the operating system when the write buffer fills
+        // up or the writer closes. Fastest, a crash can lose the last messages
+        FLUSH,
+        // Every batch is flushed to the operating system. Survives the process
+        // crashing but not the machine
+        FSYNC
+        // Every batch is forced to disk before the writer continues
+    }
+
+    interface Sink<T> {
+        void append(T record) throws IOException;
+
+        void sync(Durability durability) throws IOException;
+
+        void close() throws IOException;
+    }
+    // Storage the writer appends to. Only ever called from the writer thread
+
+    private static final Object SHUTDOWN = new Object();
+
+    private final Sink<T> sink;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    // Pending records, interleaved with tasks that must run after the
+    // messages queued before them
+    private final Thread thread;
+    private final AtomicLong batchesWritten = new AtomicLong();
+    private final AtomicLong messagesWritten = new AtomicLong();
+
+    private volatile Durability durability = Durability.FLUSH;
+    private volatile int maxBatchSize = 256;
+    private volatile long maxBatchDelayMillis = 20;
+    private volatile boolean closed = false;
+
+    HistoryWriter(Sink<T> sink, String name) {
+        this.sink = sink;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than 0.");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    void setMaxBatchDelayMillis(long maxBatchDelayMillis) {
+        if (maxBatchDelayMillis < 0) {
+            throw new IllegalArgumentException("Batch delay cannot be negative.");
+        }
+        this.maxBatchDelayMillis = maxBatchDelayMillis;
+    }
+    // A batch is written once it holds maxBatchSize messages or its first message
+    // has waited maxBatchDelayMillis, whichever comes first
+
+    void submit(T record) {
+        if (closed) {
+            throw new IllegalStateException("History writer is closed");
+        }
+        queue.add(new Record<>(record));
+    }
+    // Queues a record without touching the disk, safe to call from the EDT or a
+    // reader thread
+
+    Future<Void> runAfterPending(IORunnable task) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        queue.add(new PendingTask(task, result));
+        return result;
+    }
+    // Runs a task on the writer thread once every message queued before it has
+    // been written and synced. Used for compaction, which rewrites the file
+
+    void flush() {
+        await(runAfterPending(() -> {
+        }));
+    }
+    // Blocks until everything queued so far is written with the configured
+    // durability
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(SHUTDOWN);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    // Drains every pending message, syncs and closes the sink
+
+    long getBatchesWritten() {
+        return batchesWritten.get();
+    }
+
+    long getMessagesWritten() {
+        return messagesWritten.get();
+    }
+    // Messages per batch shows how well writes are grouped
+
+    @Override
+    public void run() {
+        List<Object> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+                while (batch.size() < maxBatchSize && !(batch.get(batch.size() - 1) instanceof PendingTask)
+                        && batch.get(batch.size() - 1) != SHUTDOWN) {
+                    long remaining = deadline - System.nanoTime();
+                    Object next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                // Gathers a batch until it is full, the delay runs out, or a task or
+                // shutdown needs everything before it written
+
+                running = writeBatch(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                running = false;
+            }
+        }
+        try {
+            sink.sync(durability == Durability.NONE ? Durability.FLUSH : durability);
+            sink.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    // Writer thread. Group commit: one sync covers every message in a batch
+
+    @SuppressWarnings("unchecked")
+    private boolean writeBatch(List<Object> batch) {
+        int messages = 0;
+        try {
+            for (Object item : batch) {
+                if (item instanceof Record) {
+                    sink.append(((Record<T>) item).value);
+                    messages++;
+                }
+            }
+            if (messages > 0) {
+                sink.sync(durability);
+                batchesWritten.incrementAndGet();
+                messagesWritten.addAndGet(messages);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        Object last = batch.get(batch.size() - 1);
+        if (last instanceof PendingTask) {
+            ((PendingTask) last).run();
+        }
+        return last != SHUTDOWN;
+    }
+
+    private static void await(Future<Void> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+
+    interface IORunnable {
+        void run() throws IOException;
+    }
+
+    private static final class Record<T> {
+        private final T value;
+
+        private Record(T value) {
+            this.value = value;
+        }
+    }
+    // Wraps queued records so they can never be mistaken for tasks
+
+    private static final class PendingTask {
+        private final IORunnable task;
+        private final CompletableFuture<Void> result;
+
+        private PendingTask(IORunnable task, CompletableFuture<Void> result) {
+            this.task = task;
+            this.result = result;
+        }
+
+        private void run() {
+            try {
+                task.run();
+                result.complete(null);
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
+// Background writer for chat history. Records are queued by the send and
+// receive paths and written in batches, so bursts cost a handful of disk writes
+// and disk latency never stalls typing or receiving. Used by the client's
+// ChatHistory and the server's MessageStore
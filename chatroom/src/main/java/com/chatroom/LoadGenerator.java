@@ -0,0 +1,426 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LoadGenerator {
+
+    private static final String MARKER = "LG ";
+    // Starts the text of every generated message, followed by its intended send
+    // time, so receivers can tell load messages from server notices
+
+    private String host = "localhost";
+    private int[] ports = {ServerConfig.DEFAULT_PORT};
+    // Several ports spread the clients round-robin over the nodes of a cluster
+    private int clients = 100;
+    private double rate = 10;
+    // Messages per second sent by each client
+    private int messageSize = 100;
+    private int rooms = 10;
+    private Distribution distribution = Distribution.UNIFORM;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private int senderThreads = Runtime.getRuntime().availableProcessors();
+    private boolean binaryProtocol;
+
+    private final List<SimulatedClient> connected = Collections.synchronizedList(new ArrayList<>());
+    private long connectNanos;
+    // Time from the first connect until every client had joined its room
+    private int[] roomSizes;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sentMeasured = new LongAdder();
+    // Sent after the warmup, the throughput is worked out from these
+    private final LongAdder expected = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicReference<LatencyHistogram> intervalLatency = new AtomicReference<>(new LatencyHistogram());
+    private volatile long measureFromNanos = Long.MAX_VALUE;
+
+    public enum Distribution {
+        UNIFORM, ZIPF
+    }
+    // UNIFORM spreads the clients evenly over the rooms, ZIPF gives room k a share
+    // proportional to 1/(k+1): a few crowded rooms and a long tail of small ones
+
+    public void set(String key, String value) {
+        String trimmed = value.trim();
+        try {
+            switch (key) {
+                case "host":
+                    host = trimmed;
+                    break;
+                case "port":
+                    String[] list = trimmed.split(",");
+                    ports = new int[list.length];
+                    for (int i = 0; i < list.length; i++) {
+                        ports[i] = positive(key, Integer.parseInt(list[i].trim()));
+                    }
+                    break;
+                case "clients":
+                    clients = positive(key, Integer.parseInt(trimmed));
+                    break;
+                case "rate":
+                    rate = Double.parseDouble(trimmed);
+                    if (!(rate > 0)) {
+                        throw new IllegalArgumentException("rate must be greater than 0.");
+                    }
+                    break;
+                case "size":
+                    messageSize = positive(key, Integer.parseInt(trimmed));
+                    break;
+                case "rooms":
+                    rooms = positive(key, Integer.parseInt(trimmed));
+                    break;
+                case "distribution":
+                    try {
+                        distribution = Distribution.valueOf(trimmed.toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Invalid value for distribution: " + value
+                                + ", expected UNIFORM or ZIPF");
+                    }
+                    break;
+                case "duration":
+                    durationSeconds = positive(key, Integer.parseInt(trimmed));
+                    break;
+                case "warmup":
+                    warmupSeconds = Integer.parseInt(trimmed);
+                    if (warmupSeconds < 0) {
+                        throw new IllegalArgumentException("warmup must not be negative.");
+                    }
+                    break;
+                case "threads":
+                    senderThreads = positive(key, Integer.parseInt(trimmed));
+                    break;
+                case "binary":
+                    binaryProtocol = Boolean.parseBoolean(trimmed);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown setting: " + key);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+        }
+    }
+    // Same keys as the --key value arguments of main
+
+    private String describePorts() {
+        StringBuilder description = new StringBuilder();
+        for (int port : ports) {
+            description.append(description.length() == 0 ? "" : ",").append(port);
+        }
+        return description.toString();
+    }
+
+    private static int positive(String key, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(key + " must be greater than 0.");
+        }
+        return value;
+    }
+
+    public void run() throws IOException, InterruptedException {
+        int[] assignment = assignRooms();
+        roomSizes = new int[rooms];
+        for (int room : assignment) {
+            roomSizes[room]++;
+        }
+        System.out.println("Connecting " + clients + " " + (binaryProtocol ? "binary" : "text") + " clients to "
+                + host + ":" + describePorts() + ", room sizes " + describeRooms());
+
+        CountDownLatch joined = new CountDownLatch(clients);
+        try {
+            long connectStart = System.nanoTime();
+            connectAll(assignment, joined);
+            if (!joined.await(30, TimeUnit.SECONDS)) {
+                throw new IOException((clients - joined.getCount()) + " of " + clients
+                        + " clients joined their room within 30 seconds");
+            }
+            connectNanos = System.nanoTime() - connectStart;
+            System.out.printf("Connected in %s, %.0f connects/s including handshake and room join%n",
+                    millis(connectNanos), connectsPerSecond());
+            for (SimulatedClient client : connected) {
+                client.chatClient.send("/leave lobby");
+            }
+            // Out of the lobby, so notices about other clients connecting do not count
+            // as load
+            Thread.sleep(500);
+
+            long period = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+            measureFromNanos = startNanos + TimeUnit.SECONDS.toNanos(warmupSeconds);
+            ScheduledExecutorService senders = Executors.newScheduledThreadPool(senderThreads, runnable -> {
+                Thread thread = new Thread(runnable, "load-sender");
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (SimulatedClient client : connected) {
+                long firstSend = startNanos + ThreadLocalRandom.current().nextLong(period);
+                client.nextSendNanos = firstSend;
+                senders.scheduleAtFixedRate(client::sendNext, firstSend - System.nanoTime(), period,
+                        TimeUnit.NANOSECONDS);
+            }
+            // Every client sends at the same rate, started at a random point within one
+            // period so the sends are spread out instead of arriving in waves
+
+            System.out.println("Sending " + rate + " messages/s per client of " + messageSize + " bytes for "
+                    + durationSeconds + "s (first " + warmupSeconds + "s are warmup)");
+            long endNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+            long lastSent = 0;
+            long lastDelivered = 0;
+            for (int second = 1; System.nanoTime() < endNanos; second++) {
+                Thread.sleep(1000);
+                LatencyHistogram interval = intervalLatency.getAndSet(new LatencyHistogram());
+                long sentNow = sent.sum();
+                long deliveredNow = delivered.sum();
+                System.out.printf("%4ds  sent %8d/s  delivered %9d/s  p50 %8s  p99 %8s  max %8s%n", second,
+                        sentNow - lastSent, deliveredNow - lastDelivered,
+                        millis(interval.getValueAtPercentile(50)), millis(interval.getValueAtPercentile(99)),
+                        millis(interval.getMax()));
+                lastSent = sentNow;
+                lastDelivered = deliveredNow;
+            }
+            senders.shutdownNow();
+            senders.awaitTermination(5, TimeUnit.SECONDS);
+
+            long drainDeadline = System.currentTimeMillis() + 5000;
+            while (delivered.sum() < expected.sum() && System.currentTimeMillis() < drainDeadline) {
+                Thread.sleep(10);
+            }
+            // Gives messages still in flight time to arrive before counting the losses
+            report();
+        } finally {
+            for (SimulatedClient client : connected) {
+                client.chatClient.close();
+            }
+        }
+    }
+    // Connects every client, puts it in its room, sends for the warmup and the
+    // measured duration and prints throughput and latency every second and at the
+    // end
+
+    private void connectAll(int[] assignment, CountDownLatch joined) throws IOException, InterruptedException {
+        ExecutorService connectors = Executors.newFixedThreadPool(senderThreads);
+        List<Future<?>> connects = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            int index = i;
+            connects.add(connectors.submit(() -> {
+                SimulatedClient client = new SimulatedClient(index, assignment[index], joined);
+                connected.add(client);
+                client.start();
+                return null;
+            }));
+        }
+        connectors.shutdown();
+        try {
+            for (Future<?> connect : connects) {
+                connect.get();
+            }
+        } catch (ExecutionException e) {
+            connectors.shutdownNow();
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+    // Connects from as many threads as there are sender threads. At most that many
+    // connects are in flight at once, which keeps well within the server's accept
+    // backlog while still showing how fast it accepts and handshakes
+
+    private double connectsPerSecond() {
+        return clients / (connectNanos / 1e9);
+    }
+
+    private void report() {
+        double seconds = durationSeconds;
+        System.out.println();
+        System.out.println("Clients:         " + clients + " in " + rooms + " rooms (" + distribution + ")");
+        System.out.printf("Connects:        %.0f/s (%s for all clients to join their room)%n", connectsPerSecond(),
+                millis(connectNanos));
+        System.out.println("Sent:            " + sent.sum() + " messages, " + sendErrors.sum() + " send errors");
+        System.out.println("Delivered:       " + delivered.sum() + " of " + expected.sum() + " expected ("
+                + (expected.sum() - Math.min(expected.sum(), delivered.sum())) + " missing)");
+        System.out.printf("Throughput:      %.0f messages/s sent, %.0f deliveries/s after warmup%n",
+                sentMeasured.sum() / seconds, latency.getCount() / seconds);
+        System.out.println("Latency (ms):    mean " + millis((long) latency.getMean())
+                + "  p50 " + millis(latency.getValueAtPercentile(50))
+                + "  p90 " + millis(latency.getValueAtPercentile(90))
+                + "  p99 " + millis(latency.getValueAtPercentile(99))
+                + "  p99.9 " + millis(latency.getValueAtPercentile(99.9))
+                + "  p99.99 " + millis(latency.getValueAtPercentile(99.99))
+                + "  max " + millis(latency.getMax()));
+    }
+
+    private int[] assignRooms() {
+        int[] assignment = new int[clients];
+        if (distribution == Distribution.UNIFORM) {
+            for (int i = 0; i < clients; i++) {
+                assignment[i] = i % rooms;
+            }
+            return assignment;
+        }
+        double[] cumulative = new double[rooms];
+        double total = 0;
+        for (int room = 0; room < rooms; room++) {
+            total += 1.0 / (room + 1);
+            cumulative[room] = total;
+        }
+        for (int i = 0; i < clients; i++) {
+            double point = (i + 0.5) / clients * total;
+            int room = Arrays.binarySearch(cumulative, point);
+            assignment[i] = Math.min(rooms - 1, room < 0 ? -room - 1 : room);
+        }
+        return assignment;
+    }
+    // Deterministic, so two runs with the same settings load the same rooms
+
+    private String describeRooms() {
+        int largest = 0;
+        int smallest = Integer.MAX_VALUE;
+        for (int size : roomSizes) {
+            largest = Math.max(largest, size);
+            smallest = Math.min(smallest, size);
+        }
+        return smallest + "-" + largest;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / 1_000_000.0);
+    }
+
+    private final class SimulatedClient implements ChatClient.Listener {
+        private final int room;
+        private final CountDownLatch joined;
+        private final ChatClient chatClient;
+        private final String padding;
+        private long nextSendNanos;
+        // Only touched by the sender task of this client, which never runs twice at
+        // once
+        private boolean hasJoined;
+
+        private SimulatedClient(int index, int room, CountDownLatch joined) throws IOException {
+            this.room = room;
+            this.joined = joined;
+            this.chatClient = ChatClient.connect(host, ports[index % ports.length], "load-" + index,
+                    binaryProtocol);
+            int paddingLength = Math.max(0, messageSize - MARKER.length() - 21);
+            char[] chars = new char[paddingLength];
+            Arrays.fill(chars, 'x');
+            this.padding = new String(chars);
+        }
+
+        private void start() throws IOException {
+            chatClient.setListener(this);
+            chatClient.start();
+            chatClient.send("/join load-room-" + room);
+        }
+
+        private void sendNext() {
+            long intended = nextSendNanos;
+            nextSendNanos += (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            try {
+                chatClient.send(MARKER + intended + " " + padding);
+                sent.increment();
+                expected.add(roomSizes[room] - 1);
+                if (intended >= measureFromNanos) {
+                    sentMeasured.increment();
+                }
+            } catch (IOException e) {
+                sendErrors.increment();
+            }
+        }
+        // The message carries the time it was meant to be sent, not the time it
+        // was, so a sender that falls behind shows up as latency instead of hiding
+        // it (coordinated omission)
+
+        @Override
+        public void onMessage(ChatClient.Message message) {
+            long now = System.nanoTime();
+            String text = message.getText();
+            int start = text.indexOf(MARKER);
+            if (start < 0) {
+                if (!hasJoined && text.contains("[SERVER] You joined #")) {
+                    hasJoined = true;
+                    joined.countDown();
+                }
+                return;
+            }
+            int end = text.indexOf(' ', start + MARKER.length());
+            long sentAt;
+            try {
+                sentAt = Long.parseLong(text.substring(start + MARKER.length(), end < 0 ? text.length() : end));
+            } catch (NumberFormatException e) {
+                return;
+            }
+            delivered.increment();
+            if (sentAt >= measureFromNanos) {
+                latency.record(now - sentAt);
+                intervalLatency.get().record(now - sentAt);
+            }
+        }
+        // Runs on the client's receiving thread. Every client runs in this process,
+        // so System.nanoTime() on both ends gives the end-to-end delivery latency
+
+        @Override
+        public void onDisconnected() {
+            System.out.println(chatClient.getUsername() + " was disconnected by the server");
+        }
+    }
+
+    public static void main(String[] args) {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unexpected argument: " + arg);
+                }
+                String key = arg.substring(2);
+                String value;
+                int equals = key.indexOf('=');
+                if (equals >= 0) {
+                    value = key.substring(equals + 1);
+                    key = key.substring(0, equals);
+                } else if (key.equals("binary")) {
+                    value = "true";
+                } else if (i + 1 < args.length) {
+                    value = args[++i];
+                } else {
+                    throw new IllegalArgumentException(arg + " needs a value");
+                }
+                generator.set(key, value);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage: LoadGenerator [--host localhost] [--port 2000[,2001...]] [--clients 100] [--rate 10]"
+                    + " [--size 100] [--rooms 10] [--distribution UNIFORM|ZIPF] [--duration 30] [--warmup 5]"
+                    + " [--threads N] [--binary]");
+            return;
+        }
+
+        try {
+            generator.run();
+        } catch (IOException e) {
+            System.out.println("Load test failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+// Load generator for the server. Opens many simulated clients from one process,
+// spread over rooms, each sending fixed-size messages at a fixed rate, and
+// measures throughput and end-to-end delivery latency from send to every
+// receiver
@@ -0,0 +1,347 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+public final class MessageRouter {
+
+    public static final RoomRegistry roomRegistry = new RoomRegistry();
+    private static volatile MessageStore messageStore;
+    private static volatile ClusterNode cluster;
+
+    private MessageRouter() {
+    }
+
+    public static void setMessageStore(MessageStore store) {
+        messageStore = store;
+    }
+    // Sets the store chat messages are persisted to and replayed from. null turns
+    // server-side history off
+
+    public static void setCluster(ClusterNode node) {
+        cluster = node;
+    }
+    // Sets the cluster room broadcasts are relayed to. null runs the server on its
+    // own
+
+    public static void connect(ChatSession session) {
+        ClientHandler.sessionRegistry.register(session);
+        Room lobby = roomRegistry.getLobby();
+        lobby.getMembers().add(session);
+        session.getRooms().join(lobby.getId());
+        ClusterNode node = cluster;
+        if (node != null) {
+            node.memberJoined(lobby, session);
+        }
+        if (session.isClosed()) {
+            ClientHandler.sessionRegistry.unregister(session);
+            leaveAllRooms(session, false);
+            return;
+        }
+        // The session may have closed during the handshake, and its disconnect may
+        // have run before it was registered. Sessions set their closed state before
+        // calling disconnect, so one of the two always cleans up
+        broadcastToRoom(session, ChatFrame.system(lobby.getId(),
+                "[SERVER] " + session.getUsername() + " has entered the chat."));
+    }
+    // Registers a session once its username is known, puts it in the lobby and
+    // announces it there
+
+    public static boolean disconnect(ChatSession session) {
+        if (!ClientHandler.sessionRegistry.unregister(session)) {
+            return false;
+        }
+        leaveAllRooms(session, true);
+        return true;
+    }
+    // Removes a session from the registry and every room it joined, announcing the
+    // leave in each. Only the first call returns true
+
+    private static void leaveAllRooms(ChatSession session, boolean announce) {
+        for (int roomId : session.getRooms().getJoinedRoomIds()) {
+            Room room = roomRegistry.findById(roomId);
+            if (room != null && room.getMembers().remove(session)) {
+                ClusterNode node = cluster;
+                if (node != null) {
+                    node.memberLeft(room, session);
+                }
+                if (announce) {
+                    broadcastToRoom(session, ChatFrame.system(roomId,
+                            "SERVER: " + session.getUsername() + " has left the chat."));
+                }
+                releaseIfEmpty(room);
+            }
+        }
+    }
+    // Each room membership is removed by exactly one caller, so leaves are never
+    // announced twice
+
+    public static void handleIncomingFrame(ChatSession sender, ChatFrame frame) {
+        ServerMetrics.recordMessageIn();
+        switch (frame.getType()) {
+            case ChatFrame.TYPE_CHAT:
+                String text = frame.getText();
+                if (text.startsWith("/") && handleCommand(sender, text)) {
+                    return;
+                }
+                // Room commands typed into the chat work for text and binary clients
+
+                if (!sender.getRooms().isMember(frame.getRoomId())) {
+                    reply(sender, ChatFrame.system(frame.getRoomId(), "[SERVER] You are not in that room."));
+                    return;
+                }
+                broadcastToRoom(sender, new ChatFrame(ChatFrame.TYPE_CHAT, (byte) 0, frame.getRoomId(),
+                        sender.getSessionId(), System.currentTimeMillis(), sender.getUsername(), frame.getPayload()));
+                // Sender id, name and time are filled in by the server so clients cannot
+                // spoof them
+                break;
+            case ChatFrame.TYPE_JOIN:
+                joinRoom(sender, frame.getText(), true);
+                break;
+            case ChatFrame.TYPE_LEAVE:
+                Room room = roomRegistry.findById(frame.getRoomId());
+                leaveRoom(sender, room, true);
+                break;
+            case ChatFrame.TYPE_ROOM_LIST:
+                sendRoomList(sender, true);
+                break;
+            case ChatFrame.TYPE_HISTORY:
+                replayHistory(sender, roomRegistry.findById(frame.getRoomId()), frame.getText(), true);
+                break;
+            default:
+                break;
+                // Unknown frame types are ignored so newer clients can talk to this server
+        }
+    }
+    // Handles a message received from a client of either engine or protocol
+
+    private static boolean handleCommand(ChatSession sender, String text) {
+        String[] parts = text.trim().split("\\s+", 2);
+        String argument = parts.length > 1 ? parts[1] : "";
+        switch (parts[0]) {
+            case "/join":
+                joinRoom(sender, argument, false);
+                return true;
+            case "/leave":
+                Room room = argument.isEmpty() ? roomRegistry.findById(sender.getRooms().getCurrentRoomId())
+                        : roomRegistry.findByName(String.valueOf(RoomRegistry.normaliseName(argument)));
+                leaveRoom(sender, room, false);
+                return true;
+            case "/rooms":
+                sendRoomList(sender, false);
+                return true;
+            case "/history":
+                replayHistory(sender, roomRegistry.findById(sender.getRooms().getCurrentRoomId()), argument, false);
+                return true;
+            default:
+                return false;
+                // Anything else starting with '/' is sent as a normal message
+        }
+    }
+    // Text commands: /join <room>, /leave [room], /rooms and /history
+
+    private static void joinRoom(ChatSession session, String name, boolean binaryReply) {
+        String roomName = RoomRegistry.normaliseName(name);
+        if (roomName == null) {
+            reply(session, ChatFrame.system(RoomRegistry.LOBBY_ID,
+                    "[SERVER] Room names are 1-32 letters, digits, '-' or '_'."));
+            return;
+        }
+        Room room;
+        boolean added;
+        while (true) {
+            room = roomRegistry.getOrCreate(roomName);
+            if (room == null) {
+                reply(session, ChatFrame.system(RoomRegistry.LOBBY_ID,
+                        "[SERVER] There are too many rooms, join an existing one."));
+                return;
+            }
+            added = room.getMembers().add(session);
+            if (roomRegistry.findByName(roomName) == room) {
+                break;
+            }
+            if (added) {
+                room.getMembers().remove(session);
+            }
+        }
+        // The room may have been dropped as empty just before the session was added,
+        // then the join starts over with a new room
+        session.getRooms().join(room.getId());
+        // Joining a room again just makes it the current room
+        ClusterNode node = cluster;
+        if (added && node != null) {
+            node.memberJoined(room, session);
+        }
+
+        if (binaryReply) {
+            reply(session, roomFrame(ChatFrame.TYPE_JOIN, room));
+        } else {
+            reply(session, ChatFrame.system(room.getId(), "[SERVER] You joined #" + room.getName() + "."));
+        }
+        if (added) {
+            broadcastToRoom(session, ChatFrame.system(room.getId(),
+                    "[SERVER] " + session.getUsername() + " joined #" + room.getName() + "."));
+        }
+    }
+
+    private static void leaveRoom(ChatSession session, Room room, boolean binaryReply) {
+        if (room == null || !session.getRooms().leave(room.getId())) {
+            reply(session, ChatFrame.system(RoomRegistry.LOBBY_ID, "[SERVER] You are not in that room."));
+            return;
+        }
+        room.getMembers().remove(session);
+        ClusterNode node = cluster;
+        if (node != null) {
+            node.memberLeft(room, session);
+        }
+        if (binaryReply) {
+            reply(session, roomFrame(ChatFrame.TYPE_LEAVE, room));
+        } else {
+            reply(session, ChatFrame.system(room.getId(), "[SERVER] You left #" + room.getName() + "."));
+        }
+        broadcastToRoom(session, ChatFrame.system(room.getId(),
+                "[SERVER] " + session.getUsername() + " left #" + room.getName() + "."));
+        releaseIfEmpty(room);
+    }
+
+    static void releaseIfEmpty(Room room) {
+        ClusterNode node = cluster;
+        if (node != null && node.remoteMemberCount(room.getName()) > 0) {
+            return;
+        }
+        if (roomRegistry.removeIfEmpty(room)) {
+            MessageStore store = messageStore;
+            if (store != null) {
+                store.release(room.getName());
+            }
+        }
+    }
+    // Drops a room nobody is in anymore, on this node or any other, and closes its
+    // log in the message store. Its history stays on disk for when the room is
+    // joined again
+
+    private static void sendRoomList(ChatSession session, boolean binaryReply) {
+        StringBuilder list = new StringBuilder();
+        ClusterNode node = cluster;
+        for (Room room : roomRegistry.list()) {
+            if (list.length() > 0) {
+                list.append(binaryReply ? "\n" : ", ");
+            }
+            int members = room.getMembers().size() + (node == null ? 0 : node.remoteMemberCount(room.getName()));
+            list.append('#').append(room.getName()).append(" (").append(members).append(')');
+        }
+        if (binaryReply) {
+            reply(session, new ChatFrame(ChatFrame.TYPE_ROOM_LIST, (byte) 0, RoomRegistry.LOBBY_ID, 0,
+                    System.currentTimeMillis(), "", list.toString().getBytes(StandardCharsets.UTF_8)));
+        } else {
+            reply(session, ChatFrame.system(RoomRegistry.LOBBY_ID, "[SERVER] Rooms: " + list));
+        }
+    }
+    // Lists every room with its member count across the cluster, one room per line
+    // for binary clients
+
+    private static void replayHistory(ChatSession session, Room room, String request, boolean binaryReply) {
+        MessageStore store = messageStore;
+        if (store == null) {
+            reply(session, ChatFrame.system(RoomRegistry.LOBBY_ID, "[SERVER] History is not enabled."));
+            return;
+        }
+        if (room == null || !session.getRooms().isMember(room.getId())) {
+            reply(session, ChatFrame.system(RoomRegistry.LOBBY_ID, "[SERVER] You are not in that room."));
+            return;
+        }
+        store.replay(session, room, request, binaryReply);
+    }
+    // Replays the last N messages or everything since an offset of a room the
+    // session is in
+
+    private static ChatFrame roomFrame(byte type, Room room) {
+        return new ChatFrame(type, (byte) 0, room.getId(), 0, System.currentTimeMillis(), "",
+                room.getName().getBytes(StandardCharsets.UTF_8));
+    }
+    // Acknowledges a binary JOIN/LEAVE with the room's id and name
+
+    private static void reply(ChatSession session, ChatFrame frame) {
+        session.deliver(OutboundMessage.of(frame));
+    }
+    // Sends a frame to a single session
+
+    public static void broadcastToRoom(ChatSession sender, ChatFrame frame) {
+        Room room = roomRegistry.findById(frame.getRoomId());
+        if (room == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        OutboundMessage encodedMessage = OutboundMessage.of(frame);
+        // Encodes the message once per protocol, every recipient writes the same bytes
+
+        MessageStore store = messageStore;
+        if (store != null && frame.getType() == ChatFrame.TYPE_CHAT) {
+            store.append(room, encodedMessage);
+        }
+        // Chat messages are persisted once here, whichever engine received them
+
+        for (ChatSession recipient : room.getMembers().snapshot()) {
+            // Iterates over a snapshot of the room's members only, so fan-out cost
+            // depends on the room size rather than the whole server
+
+            if (recipient != sender && !recipient.getUsername().equals(sender.getUsername())) {
+                recipient.deliver(encodedMessage);
+            }
+            // If statement that ensures message is not sent back to the sender as an
+            // incoming message
+        }
+        ServerMetrics.recordBroadcast(System.nanoTime() - start);
+
+        ClusterNode node = cluster;
+        if (node != null) {
+            node.relay(room, encodedMessage);
+        }
+        // Other nodes deliver the message to their own members of the room. Large
+        // messages travel compressed, the same bytes compressed clients receive
+    }
+    // Broadcasts a message to every other member of the frame's room
+
+    static void deliverFromCluster(String roomName, ChatFrame relayed) {
+        String name = RoomRegistry.normaliseName(roomName);
+        if (name == null) {
+            ServerMetrics.recordDroppedClusterMessage();
+            return;
+        }
+        // Never trusts a room name from the network, see ClusterNode.onMessage
+        Room room = roomRegistry.findByName(name);
+        if (room == null) {
+            return;
+        }
+        // Nodes only relay rooms this node has members in. A relay for a room that
+        // has just emptied has nobody to go to, and must not create the room again
+        long start = System.nanoTime();
+        ChatFrame wireFrame = new ChatFrame(relayed.getType(), relayed.getFlags(), room.getId(),
+                relayed.getSenderId(), relayed.getTimestamp(), relayed.getSenderName(), relayed.getPayload());
+        // Room ids differ between nodes, the frame gets this node's id for the room
+
+        ChatFrame frame;
+        try {
+            frame = FrameCompression.decompress(wireFrame, FrameCompression.MAX_INFLATED_LENGTH);
+        } catch (ProtocolException e) {
+            ServerMetrics.recordDroppedClusterMessage();
+            return;
+        }
+        OutboundMessage encodedMessage = OutboundMessage.of(frame, frame == wireFrame ? null : wireFrame);
+        // A frame relayed compressed is inflated once for text clients, compressed
+        // clients and the message store get the bytes the origin compressed
+        MessageStore store = messageStore;
+        if (store != null && frame.getType() == ChatFrame.TYPE_CHAT) {
+            store.append(room, encodedMessage);
+        }
+        for (ChatSession recipient : room.getMembers().snapshot()) {
+            recipient.deliver(encodedMessage);
+        }
+        ServerMetrics.recordBroadcast(System.nanoTime() - start);
+    }
+    // Broadcasts a message relayed from another node to every local member of the
+    // room. It is not relayed again, the origin already sent it to every node
+}
+// Routes messages between sessions: joins and leaves, room commands and fan-out
+// to room members
@@ -0,0 +1,257 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class MessageStore {
+
+    static final long SEGMENT_BYTES = 16 * 1024 * 1024;
+    static final int INDEX_INTERVAL = 64;
+    static final int MAX_REPLAY_THREADS = 2;
+    static final long REPLAY_STALL_MILLIS = 5000;
+    // A replay gives up once its client has not drained its queue for this long,
+    // so clients that stop reading cannot hold the replay threads
+
+    private final File directory;
+    private final boolean compression;
+    private final Map<String, SegmentedLog> logs = new ConcurrentHashMap<>();
+    private final HistoryWriter<StoredFrame> writer;
+    private final ExecutorService replayExecutor;
+    private volatile long replayStallMillis = REPLAY_STALL_MILLIS;
+
+    public MessageStore(File directory, HistoryWriter.Durability durability) throws IOException {
+        this(directory, durability, true);
+    }
+
+    public MessageStore(File directory, HistoryWriter.Durability durability, boolean compression)
+            throws IOException {
+        this.directory = directory;
+        this.compression = compression;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.writer = new HistoryWriter<>(new StoreSink(), "message-store-writer");
+        this.writer.setDurability(durability);
+        this.replayExecutor = Executors.newFixedThreadPool(MAX_REPLAY_THREADS, task -> {
+            Thread thread = new Thread(task, "history-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void setReplayStallMillis(long replayStallMillis) {
+        this.replayStallMillis = replayStallMillis;
+    }
+
+    public void append(Room room, OutboundMessage message) {
+        writer.submit(new StoredFrame(room.getName(), message));
+    }
+    // Queues a message for its room's log. Never touches the disk on the caller's
+    // thread. Takes the broadcast's OutboundMessage so a large message is
+    // compressed once for both the clients and the log
+
+    public void replay(ChatSession session, Room room, String request, boolean binaryReply) {
+        long since = -1;
+        long last = -1;
+        try {
+            String[] parts = request.trim().split("\\s+");
+            if (parts.length == 2 && parts[0].equals("since")) {
+                since = Long.parseLong(parts[1]);
+            } else if (parts.length == 1) {
+                last = Long.parseLong(parts[0]);
+            }
+        } catch (NumberFormatException e) {
+            // Handled below like any other malformed request
+        }
+        if (since < 0 && last <= 0) {
+            session.deliver(OutboundMessage.of(ChatFrame.system(room.getId(),
+                    "[SERVER] Usage: /history <count> or /history since <offset>")));
+            return;
+        }
+        long fromOffset = since;
+        long count = last;
+        try {
+            replayExecutor.execute(() -> stream(session, room, fromOffset, count, binaryReply));
+        } catch (RejectedExecutionException e) {
+            session.deliver(OutboundMessage.of(ChatFrame.system(room.getId(),
+                    "[SERVER] History is not available, the server is shutting down.")));
+        }
+    }
+    // Replays "N" (the last N messages) or "since X" (everything from offset X) of
+    // a room to a single session, on a replay thread. Requests arriving after the
+    // store has closed are answered instead of failing the session's reader
+
+    private void stream(ChatSession session, Room room, long since, long last, boolean binaryReply) {
+        long nextOffset = 0;
+        boolean stalled = false;
+        try {
+            SegmentedLog log = log(room.getName());
+            long end = log.getCommittedOffset();
+            long fromOffset = since >= 0 ? since : Math.max(0, end - last);
+            nextOffset = Math.max(fromOffset, log.getStartOffset());
+            if (!binaryReply) {
+                session.deliver(OutboundMessage.of(ChatFrame.system(room.getId(),
+                        "[SERVER] History for #" + room.getName() + " from offset " + nextOffset + ":")));
+            }
+
+            OutboundQueue<ByteBuffer> queue = session.getOutboundQueue();
+            int highWater = Math.max(1, queue.getCapacity() / 2);
+            try (SegmentedLog.Cursor cursor = log.read(fromOffset)) {
+                SegmentedLog.Record record;
+                while ((record = cursor.next()) != null && record.getOffset() < end) {
+                    if (session.isClosed()) {
+                        return;
+                    }
+                    // Stops reading and encoding as soon as the client is gone
+                    if (!awaitDrain(session, queue, highWater)) {
+                        if (session.isClosed()) {
+                            return;
+                        }
+                        stalled = true;
+                        break;
+                    }
+                    // Backpressure: waits for the client to drain its queue instead of
+                    // overflowing it, but not forever
+
+                    ChatFrame frame = BinaryProtocol.decode(ByteBuffer.wrap(record.getData()));
+                    // Compressed records are inflated here and compressed again, if at
+                    // all, for the session's protocol
+                    session.deliver(OutboundMessage.of(new ChatFrame(frame.getType(),
+                            (byte) (frame.getFlags() | ChatFrame.FLAG_REPLAY), room.getId(), frame.getSenderId(),
+                            frame.getTimestamp(), frame.getSenderName(), frame.getPayload())));
+                    nextOffset = record.getOffset() + 1;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        if (stalled) {
+            session.deliver(OutboundMessage.of(ChatFrame.system(room.getId(),
+                    "[SERVER] History for #" + room.getName() + " stopped, your connection is too slow. Use"
+                            + " /history since " + nextOffset + " to continue.")));
+        }
+        if (binaryReply) {
+            session.deliver(OutboundMessage.of(new ChatFrame(ChatFrame.TYPE_HISTORY, (byte) 0, room.getId(), 0,
+                    System.currentTimeMillis(), "", Long.toString(nextOffset).getBytes(StandardCharsets.UTF_8))));
+        } else {
+            session.deliver(OutboundMessage.of(ChatFrame.system(room.getId(),
+                    "[SERVER] End of history for #" + room.getName() + ", next offset " + nextOffset + ".")));
+        }
+    }
+    // Streams records straight from the segment files, one at a time, stopping at
+    // the end of the log as it was when the replay started. A stalled replay ends
+    // early with the offset to continue from
+
+    private boolean awaitDrain(ChatSession session, OutboundQueue<ByteBuffer> queue, int highWater) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replayStallMillis);
+        while (queue.getDepth() >= highWater) {
+            if (session.isClosed() || System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+    // Waits until the session's queue is below highWater. Returns false if the
+    // session closed or the queue did not drain in time
+
+    private SegmentedLog log(String roomName) throws IOException {
+        SegmentedLog log = logs.get(roomName);
+        if (log != null) {
+            return log;
+        }
+        synchronized (logs) {
+            log = logs.get(roomName);
+            if (log == null) {
+                log = new SegmentedLog(new File(directory, roomName), SEGMENT_BYTES, INDEX_INTERVAL);
+                logs.put(roomName, log);
+            }
+            return log;
+        }
+    }
+    // Opens a room's log the first time it is written or replayed. Room names are
+    // used rather than ids because ids are handed out again after a restart
+
+    public void release(String roomName) {
+        writer.runAfterPending(() -> {
+            synchronized (logs) {
+                SegmentedLog log = logs.remove(roomName);
+                if (log != null) {
+                    log.close();
+                }
+            }
+        });
+    }
+    // Closes a room's log once the room is gone, after its queued messages are
+    // written. Writing or replaying the room again reopens it
+
+    public void close() {
+        writer.close();
+        replayExecutor.shutdownNow();
+        for (SegmentedLog log : logs.values()) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    // Writes out every queued message and closes the logs
+
+    private static final class StoredFrame {
+        private final String roomName;
+        private final OutboundMessage message;
+
+        private StoredFrame(String roomName, OutboundMessage message) {
+            this.roomName = roomName;
+            this.message = message;
+        }
+    }
+
+    private final class StoreSink implements HistoryWriter.Sink<StoredFrame> {
+        private final Set<SegmentedLog> dirty = new HashSet<>();
+
+        @Override
+        public void append(StoredFrame record) throws IOException {
+            SegmentedLog log = log(record.roomName);
+            ChatFrame frame = compression ? record.message.compressedFrame() : record.message.getFrame();
+            ByteBuffer encoded = BinaryProtocol.encode(frame, false);
+            log.append(frame.getTimestamp(),
+                    Arrays.copyOfRange(encoded.array(), 4, encoded.limit()));
+            // Stored as the binary frame body, without the length prefix. Large
+            // payloads stay deflated on disk, logs written without compression read
+            // back the same way
+            dirty.add(log);
+        }
+
+        @Override
+        public void sync(HistoryWriter.Durability durability) throws IOException {
+            for (SegmentedLog log : dirty) {
+                log.sync(durability);
+            }
+            dirty.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            sync(HistoryWriter.Durability.FLUSH);
+        }
+    }
+    // Appends to room logs on the writer thread, one sync per room per batch
+}
+// Server-side message history. Every chat message is written once to a
+// segmented log per room, and clients can replay a room's history on request
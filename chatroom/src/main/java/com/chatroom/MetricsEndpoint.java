@@ -0,0 +1,66 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+class MetricsEndpoint {
+
+    private final HttpServer httpServer;
+    private final ExecutorService executor;
+
+    private MetricsEndpoint(HttpServer httpServer, ExecutorService executor) {
+        this.httpServer = httpServer;
+        this.executor = executor;
+    }
+
+    static MetricsEndpoint start(int port) throws IOException {
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.setExecutor(executor);
+        httpServer.createContext("/metrics", MetricsEndpoint::handle);
+        httpServer.start();
+        return new MetricsEndpoint(httpServer, executor);
+    }
+    // Serves GET /metrics on the loopback interface only, so the numbers are not
+    // exposed to the clients' network. One thread is plenty for a scraper
+
+    int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = ServerMetrics.snapshot().toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    void stop() {
+        httpServer.stop(0);
+        executor.shutdown();
+    }
+}
+// Local HTTP endpoint for ServerMetrics in the Prometheus text format
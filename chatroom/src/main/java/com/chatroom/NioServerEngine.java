@@ -0,0 +1,140 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+public class NioServerEngine {
+
+    static final long ACCEPT_ERROR_PAUSE_MILLIS = 100;
+    // How long the acceptor waits after accept() fails, e.g. with too many open
+    // files, before it tries again
+
+    private final ServerSocketChannel serverChannel;
+    private final ServerConfig config;
+    private final EventLoop[] eventLoops;
+    private final AdmissionControl admission;
+    private volatile boolean running = false;
+    private int nextLoop = 0;
+
+    public NioServerEngine(ServerSocketChannel serverChannel, ServerConfig config) throws IOException {
+        this(serverChannel, config, new AdmissionControl(config));
+    }
+
+    NioServerEngine(ServerSocketChannel serverChannel, ServerConfig config, AdmissionControl admission)
+            throws IOException {
+        this.serverChannel = serverChannel;
+        this.config = config;
+        this.admission = admission;
+        this.eventLoops = new EventLoop[config.getEventLoopThreads()];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(config, admission);
+        }
+    }
+
+    public void start() {
+        running = true;
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i].start("nio-event-loop-" + i);
+        }
+
+        Thread acceptorThread = new Thread(this::acceptLoop, "nio-acceptor");
+        acceptorThread.start();
+        // Accepting happens on its own thread so a busy event loop never delays new
+        // connections
+    }
+    // Starts the event loops and the acceptor thread
+
+    private void acceptLoop() {
+        try {
+            serverChannel.configureBlocking(true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+                // Blocking operation that waits until a client connects
+            } catch (ClosedChannelException e) {
+                break;
+                // Server channel was closed by stop()
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                    pauseAfterAcceptError();
+                }
+                continue;
+            }
+            // Out of file descriptors, accept() fails until some connections close.
+            // The acceptor waits a moment and tries again instead of giving up
+            ServerMetrics.recordAccept();
+
+            ServerMetrics.RejectReason rejected = admission.admit(channel.socket().getInetAddress());
+            if (rejected != null) {
+                AdmissionControl.reject(channel.socket(), rejected);
+                continue;
+            }
+            // Rejected while the channel is still blocking, before an event loop sees it
+
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                System.out.println("New client connected to " + channel.getRemoteAddress() + " at Port: "
+                        + serverChannel.socket().getLocalPort());
+            } catch (IOException e) {
+                admission.release();
+                closeQuietly(channel);
+                continue;
+            }
+            // The client reset the connection already, its slot is freed right away
+
+            eventLoops[nextLoop].register(channel);
+            nextLoop = (nextLoop + 1) % eventLoops.length;
+            // Spreads connections round-robin over the event loops
+        }
+    }
+    // Accept loop, runs until the server channel is closed
+
+    private static void pauseAfterAcceptError() {
+        try {
+            Thread.sleep(ACCEPT_ERROR_PAUSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    public void stopAccepting() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    // Closes the server channel, connected clients keep being served
+
+    public void stop() {
+        stopAccepting();
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
+    }
+    // Stops accepting and shuts down every event loop
+}
+// Non-blocking server engine. One acceptor thread plus one selector thread per
+// core serve every connection, so idle clients cost a socket and a few bytes
+// instead of a thread stack
@@ -0,0 +1,352 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class NioSession implements ChatSession {
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final EventLoop eventLoop;
+    private final ServerConfig config;
+    private final AdmissionControl admission;
+    private final AdmissionControl.SessionLimits limits;
+
+    private static final int READ_PROTOCOL = 0;
+    private static final int READ_TEXT_LINE = 1;
+    private static final int READ_BINARY_MAGIC = 2;
+    private static final int READ_BINARY_LENGTH = 3;
+    private static final int READ_BINARY_BODY = 4;
+    private int readState = READ_PROTOCOL;
+    private int frameLength;
+    private boolean binaryProtocol;
+    private boolean compression;
+    // Where the session is in the byte stream. The first byte picks the protocol,
+    // after that text clients are split into lines and binary clients into
+    // length-prefixed frames
+
+    private byte[] lineBuffer;
+    private int lineLength;
+    // Holds a partially received line or frame between reads. Only allocated while
+    // one is split across reads
+
+    private final OutboundQueue<ByteBuffer> pendingWrites;
+    private final GatheringWriter gatheringWriter;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final long sessionId = SessionRegistry.nextSessionId();
+    private volatile String clientUsername;
+    private final SessionRooms rooms = new SessionRooms();
+
+    NioSession(SocketChannel channel, SelectionKey key, EventLoop eventLoop, ServerConfig config,
+            AdmissionControl admission) {
+        this.channel = channel;
+        this.key = key;
+        this.eventLoop = eventLoop;
+        this.config = config;
+        this.admission = admission;
+        this.limits = admission.newSessionLimits(channel.socket().getInetAddress());
+        this.pendingWrites = new OutboundQueue<>(config.getOutboundQueueCapacity(), config.getOverflowPolicy());
+        this.gatheringWriter = new GatheringWriter(channel, config.getWriteCoalesceMaxBytes());
+    }
+
+    @Override
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    @Override
+    public String getUsername() {
+        return clientUsername;
+    }
+
+    @Override
+    public SessionRooms getRooms() {
+        return rooms;
+    }
+
+    void handleRead(ByteBuffer readBuffer) {
+        if (closed.get()) {
+            return;
+        }
+        // Closed from another thread, the channel is closed by a task queued behind
+        // this read
+        try {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close(ServerMetrics.DisconnectReason.CLIENT_CLOSED);
+                return;
+            }
+            ServerMetrics.recordBytesIn(read);
+            readBuffer.flip();
+
+            while (readBuffer.hasRemaining() && !closed.get()) {
+                switch (readState) {
+                    case READ_PROTOCOL:
+                        binaryProtocol = readBuffer.get(readBuffer.position()) == BinaryProtocol.MAGIC[0];
+                        readState = binaryProtocol ? READ_BINARY_MAGIC : READ_TEXT_LINE;
+                        break;
+                    case READ_TEXT_LINE:
+                        readLines(readBuffer);
+                        break;
+                    case READ_BINARY_MAGIC:
+                        if (fill(readBuffer, BinaryProtocol.MAGIC.length)) {
+                            if (!Arrays.equals(Arrays.copyOf(lineBuffer, lineLength), BinaryProtocol.MAGIC)) {
+                                throw new ProtocolException("Unsupported binary protocol version");
+                            }
+                            lineLength = 0;
+                            readState = READ_BINARY_LENGTH;
+                        }
+                        break;
+                    case READ_BINARY_LENGTH:
+                        if (fill(readBuffer, 4)) {
+                            frameLength = ByteBuffer.wrap(lineBuffer, 0, 4).getInt();
+                            BinaryProtocol.checkLength(frameLength, config.getMaxLineLength());
+                            lineLength = 0;
+                            readState = READ_BINARY_BODY;
+                        }
+                        break;
+                    default:
+                        if (fill(readBuffer, frameLength)) {
+                            ChatFrame frame = BinaryProtocol.decode(ByteBuffer.wrap(lineBuffer, 0, frameLength),
+                                    config.getMaxLineLength());
+                            releaseLineBuffer();
+                            readState = READ_BINARY_LENGTH;
+                            onFrame(frame);
+                        }
+                        break;
+                }
+            }
+            // Splits the received bytes into lines or frames, keeping the tail for the
+            // next read
+
+        } catch (IOException e) {
+            close(ServerMetrics.readFailure(e));
+        }
+    }
+    // Called by the event loop when the socket is readable
+
+    private void readLines(ByteBuffer readBuffer) throws IOException {
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get();
+            if (b == '\n') {
+                onLine(takeLine());
+                if (closed.get()) {
+                    return;
+                }
+            } else {
+                appendToLine(b);
+            }
+        }
+    }
+
+    private boolean fill(ByteBuffer readBuffer, int target) throws IOException {
+        ensureLineCapacity(target);
+        int count = Math.min(target - lineLength, readBuffer.remaining());
+        readBuffer.get(lineBuffer, lineLength, count);
+        lineLength += count;
+        return lineLength == target;
+    }
+    // Copies bytes until target bytes are buffered. Returns true once complete
+
+    private void ensureLineCapacity(int capacity) throws IOException {
+        if (capacity > config.getMaxLineLength()) {
+            throw new ProtocolException("Frame exceeds " + config.getMaxLineLength() + " bytes");
+        }
+        if (lineBuffer == null) {
+            lineBuffer = new byte[Math.max(128, capacity)];
+        } else if (lineBuffer.length < capacity) {
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.max(capacity, Math.min(lineBuffer.length * 2,
+                    config.getMaxLineLength())));
+        }
+    }
+
+    private void releaseLineBuffer() {
+        lineLength = 0;
+        if (lineBuffer != null && lineBuffer.length > 1024) {
+            lineBuffer = null;
+        }
+        // Releases buffers grown by a long line so idle sessions stay small
+    }
+
+    private void appendToLine(byte b) throws IOException {
+        if (lineBuffer == null) {
+            lineBuffer = new byte[128];
+        } else if (lineLength == lineBuffer.length) {
+            if (lineLength >= config.getMaxLineLength()) {
+                throw new ProtocolException("Line exceeds " + config.getMaxLineLength() + " bytes");
+            }
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.min(lineLength * 2, config.getMaxLineLength()));
+        }
+        lineBuffer[lineLength++] = b;
+    }
+
+    private String takeLine() {
+        int length = lineLength;
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        String line = length == 0 ? "" : new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+        releaseLineBuffer();
+        return line;
+    }
+
+    private void onLine(String line) {
+        if (clientUsername == null) {
+            join(line);
+            // The first line the client sends is its username
+        } else if (limits.allowMessage(this)) {
+            MessageRouter.handleIncomingFrame(this, ClientHandler.frameFromTextLine(this, line));
+        }
+    }
+    // Same protocol as ClientHandler, username line first followed by messages
+
+    private void onFrame(ChatFrame frame) throws IOException {
+        if (clientUsername == null) {
+            if (frame.getType() != ChatFrame.TYPE_HELLO) {
+                throw new ProtocolException("Expected HELLO frame");
+            }
+            compression = config.isCompression() && (frame.getFlags() & ChatFrame.FLAG_COMPRESSION) != 0;
+            enqueue(BinaryProtocol.handshakeAck(sessionId, frame.getText(), compression));
+            join(frame.getText());
+            // Binary clients send their username in a HELLO frame and get one back with
+            // their session id. Compression is used if both sides offer it
+        } else if (limits.allowMessage(this)) {
+            MessageRouter.handleIncomingFrame(this, frame);
+        }
+    }
+
+    private void join(String username) {
+        clientUsername = username;
+        MessageRouter.connect(this);
+    }
+    // Registers the session once its username is known and announces it
+
+    void handshakeTimedOut() {
+        if (clientUsername == null) {
+            close(ServerMetrics.DisconnectReason.HANDSHAKE_TIMEOUT);
+        }
+    }
+    // Runs on the event loop once the handshake timeout has passed. Clients that
+    // have not sent a username by then are closed
+
+    @Override
+    public void deliver(OutboundMessage message) {
+        enqueue(message.encodedFor(binaryProtocol, compression));
+    }
+    // Queues a message in the protocol the client negotiated
+
+    private void enqueue(ByteBuffer buffer) {
+        if (closed.get()) {
+            return;
+        }
+        if (!pendingWrites.offer(buffer)) {
+            System.out.println("Disconnecting slow client " + clientUsername + ", outbound queue is full");
+            eventLoop.execute(() -> close(ServerMetrics.DisconnectReason.SLOW_CONSUMER));
+            return;
+        }
+        if (writeScheduled.compareAndSet(false, true)) {
+            long coalesceDelay = config.getWriteCoalesceDelayMicros();
+            if (coalesceDelay > 0) {
+                eventLoop.schedule(this::flushPending, TimeUnit.MICROSECONDS.toNanos(coalesceDelay));
+            } else {
+                eventLoop.execute(this::flushPending);
+            }
+        }
+    }
+    // Queues a line for the client. The actual write always happens on the
+    // session's event loop, after the coalesce delay if one is configured.
+    // Without a delay the flush still runs after the loop has handled every ready
+    // socket, so all messages produced by one read go out in one write
+
+    void flushPending() {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            while (true) {
+                if (!gatheringWriter.writeFrom(pendingWrites)) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                    // Socket buffer is full, continue once the selector reports it writable
+                }
+
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                writeScheduled.set(false);
+                if (pendingWrites.isEmpty() || !writeScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                // Another thread may have queued a message after the queue was drained
+            }
+        } catch (IOException e) {
+            close(ServerMetrics.writeFailure(e));
+        } catch (RuntimeException e) {
+            close(ServerMetrics.DisconnectReason.WRITE_ERROR);
+        }
+    }
+    // Writes as much of the queue as the socket accepts without blocking
+
+    @Override
+    public void close(ServerMetrics.DisconnectReason reason) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        ServerMetrics.recordDisconnect(reason);
+        admission.release();
+        limits.close();
+        if (eventLoop.inEventLoop()) {
+            closeChannel();
+        } else {
+            eventLoop.execute(this::closeChannel);
+        }
+        // The write state belongs to the event loop, which may be in the middle of a
+        // flush when another thread closes the session
+
+        if (clientUsername != null) {
+            MessageRouter.disconnect(this);
+        }
+    }
+    // Closes the session from any thread and announces to remaining users that
+    // the user has left
+
+    void closeChannel() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        pendingWrites.clear();
+        gatheringWriter.clear();
+    }
+    // Runs on the event loop. Safe to call more than once
+
+    @Override
+    public OutboundQueue<ByteBuffer> getOutboundQueue() {
+        return pendingWrites;
+    }
+    // Get-method for the outbound queue, used to read queue depth metrics
+
+    @Override
+    public boolean hasPendingWrites() {
+        return writeScheduled.get() || !pendingWrites.isEmpty();
+    }
+    // A flush stays scheduled until the socket took every byte
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+}
+// A client connection served by the NIO engine, with its own line framing and
+// write queue
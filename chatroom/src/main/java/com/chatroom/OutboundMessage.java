@@ -0,0 +1,114 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public final class OutboundMessage {
+
+    private final ChatFrame frame;
+    private volatile ByteBuffer textLine;
+    private volatile ByteBuffer binaryFrame;
+    private volatile ChatFrame compressedFrame;
+    private volatile ByteBuffer compressedBinaryFrame;
+    // Each wire format is encoded the first time a recipient needs it. Two threads
+    // racing to encode produce identical bytes, so no locking is needed
+
+    private OutboundMessage(ChatFrame frame) {
+        this.frame = frame;
+    }
+
+    public static OutboundMessage of(ChatFrame frame) {
+        return new OutboundMessage(frame);
+    }
+
+    public static OutboundMessage of(ChatFrame frame, ChatFrame compressedFrame) {
+        OutboundMessage message = new OutboundMessage(frame);
+        message.compressedFrame = compressedFrame;
+        return message;
+    }
+    // A message whose compressed form arrived with it, such as one relayed by
+    // another node. Null compresses on first use as usual
+
+    public static OutboundMessage text(String line) {
+        return new OutboundMessage(ChatFrame.system(0, line));
+    }
+    // A server notice, shown as-is by text clients
+
+    public ChatFrame getFrame() {
+        return frame;
+    }
+
+    public ByteBuffer textLine() {
+        ByteBuffer encoded = textLine;
+        if (encoded == null) {
+            byte[] bytes = (textPrefix() + frame.toTextLine() + "\n").getBytes(StandardCharsets.UTF_8);
+            encoded = ByteBuffer.allocateDirect(bytes.length);
+            encoded.put(bytes).flip();
+            encoded = encoded.asReadOnlyBuffer();
+            textLine = encoded;
+        }
+        return encoded.duplicate();
+    }
+    // The message as a text protocol line. Encoded to UTF-8 once and copied into a
+    // direct buffer so socket writes don't have to copy it again per recipient.
+    // Each call returns a view with its own position
+
+    private String textPrefix() {
+        if (frame.getRoomId() == RoomRegistry.LOBBY_ID) {
+            return "";
+        }
+        Room room = MessageRouter.roomRegistry.findById(frame.getRoomId());
+        return room == null ? "" : "[#" + room.getName() + "] ";
+    }
+    // Text clients have no room field, so messages outside the lobby are tagged
+    // with the room name. Lobby messages look exactly like before rooms existed
+
+    public ByteBuffer binaryFrame() {
+        ByteBuffer encoded = binaryFrame;
+        if (encoded == null) {
+            encoded = BinaryProtocol.encode(frame, true).asReadOnlyBuffer();
+            binaryFrame = encoded;
+        }
+        return encoded.duplicate();
+    }
+    // The message as a length-prefixed binary frame, shared the same way
+
+    public ChatFrame compressedFrame() {
+        ChatFrame compressed = compressedFrame;
+        if (compressed == null) {
+            compressed = FrameCompression.compress(frame);
+            compressedFrame = compressed;
+        }
+        return compressed;
+    }
+    // The frame with a large payload deflated. Compressed once per broadcast and
+    // reused for every recipient, the cluster relay and the message store. The
+    // frame itself if its payload is short or does not compress
+
+    public ByteBuffer compressedBinaryFrame() {
+        ByteBuffer encoded = compressedBinaryFrame;
+        if (encoded == null) {
+            ChatFrame compressed = compressedFrame();
+            encoded = compressed == frame ? binaryFrame() : BinaryProtocol.encode(compressed, true).asReadOnlyBuffer();
+            compressedBinaryFrame = encoded;
+        }
+        return encoded.duplicate();
+    }
+    // The compressed frame as a length-prefixed binary frame. Shares the plain
+    // encoding when compression does not apply
+
+    public ByteBuffer encodedFor(boolean binaryProtocol) {
+        return binaryProtocol ? binaryFrame() : textLine();
+    }
+
+    public ByteBuffer encodedFor(boolean binaryProtocol, boolean compression) {
+        if (binaryProtocol && compression) {
+            return compressedBinaryFrame();
+        }
+        return encodedFor(binaryProtocol);
+    }
+    // Compression is only negotiated by binary clients
+}
+// A message encoded once per wire format and shared, read-only, by every
+// recipient of a broadcast
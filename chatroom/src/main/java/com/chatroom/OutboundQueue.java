@@ -0,0 +1,111 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class OutboundQueue<T> {
+
+    private static final LongAdder totalDepth = new LongAdder();
+    private static final LongAdder totalDropped = new LongAdder();
+    private static final LongAdder slowConsumerDisconnects = new LongAdder();
+    // Server-wide totals over every session's queue
+
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private volatile int highWatermark;
+
+    public OutboundQueue(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be greater than 0.");
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public boolean offer(T item) {
+        int newDepth = depth.incrementAndGet();
+        if (newDepth > capacity) {
+            if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                depth.decrementAndGet();
+                slowConsumerDisconnects.increment();
+                return false;
+            }
+            if (poll() != null) {
+                dropped.incrementAndGet();
+                totalDropped.increment();
+            }
+            // DROP_OLDEST, makes room by discarding the head of the queue
+        }
+        queue.add(item);
+        totalDepth.increment();
+        if (newDepth > highWatermark) {
+            highWatermark = newDepth;
+        }
+        return true;
+    }
+    // Queues an item without blocking. Returns false if the queue is full and the
+    // policy is DISCONNECT, in which case the caller should disconnect the client
+
+    public T poll() {
+        T item = queue.poll();
+        if (item != null) {
+            depth.decrementAndGet();
+            totalDepth.decrement();
+        }
+        return item;
+    }
+    // Takes the next item to write, or null if the queue is empty
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public void clear() {
+        while (poll() != null) {
+            // Drains through poll() so the server-wide depth stays correct
+        }
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+    // Get-method for the current amount of queued items
+
+    public int getCapacity() {
+        return capacity;
+    }
+    // Get-method for the most items the queue holds
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+    // Get-method for the deepest the queue has been
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+    // Get-method for the amount of items discarded by DROP_OLDEST
+
+    public static long getTotalDepth() {
+        return totalDepth.sum();
+    }
+
+    public static long getTotalDropped() {
+        return totalDropped.sum();
+    }
+
+    public static long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.sum();
+    }
+    // Server-wide metrics across all queues
+}
+// Bounded, non-blocking queue of messages waiting to be written to one client.
+// Senders only ever append to it, so a client that reads slowly delays nobody
+// but itself
@@ -0,0 +1,13 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+public enum OverflowPolicy {
+
+    DROP_OLDEST,
+    // Discards the oldest queued message to make room, the client misses messages
+    // but stays connected
+
+    DISCONNECT
+    // Disconnects the client, it cannot keep up with the chatroom
+}
+// What happens when a client's outbound queue is full
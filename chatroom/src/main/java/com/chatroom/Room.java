@@ -0,0 +1,28 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+public class Room {
+
+    private final int id;
+    private final String name;
+    private final SessionSet members = new SessionSet();
+
+    public Room(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public SessionSet getMembers() {
+        return members;
+    }
+    // Subscribers of the room. Broadcasts to the room only iterate these
+}
+// A chat room (channel) with its own set of subscribed sessions
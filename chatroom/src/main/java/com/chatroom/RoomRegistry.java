@@ -0,0 +1,107 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+public class RoomRegistry {
+
+    public static final int LOBBY_ID = 0;
+    public static final String LOBBY_NAME = "lobby";
+    // Every client joins the lobby on connect, which keeps old clients in one
+    // shared room like before
+
+    private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
+    private final ConcurrentHashMap<String, Room> roomsByName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Room> roomsById = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRoomId = new AtomicInteger(LOBBY_ID + 1);
+    private volatile int maxRooms;
+
+    public RoomRegistry() {
+        Room lobby = new Room(LOBBY_ID, LOBBY_NAME);
+        roomsByName.put(LOBBY_NAME, lobby);
+        roomsById.put(LOBBY_ID, lobby);
+    }
+
+    public static String normaliseName(String name) {
+        String trimmed = name.trim();
+        if (trimmed.startsWith("#")) {
+            trimmed = trimmed.substring(1);
+        }
+        trimmed = trimmed.toLowerCase();
+        return VALID_NAME.matcher(trimmed).matches() ? trimmed : null;
+    }
+    // Lower-cases a room name and strips a leading '#'. Returns null if the name
+    // is not 1-32 letters, digits, '-' or '_'
+
+    public void setMaxRooms(int maxRooms) {
+        this.maxRooms = maxRooms;
+    }
+    // Rooms besides the lobby that may exist at once, 0 means no limit
+
+    public Room getOrCreate(String name) {
+        Room existing = roomsByName.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        return roomsByName.computeIfAbsent(name, roomName -> {
+            int limit = maxRooms;
+            if (limit > 0 && roomsByName.size() > limit) {
+                return null;
+            }
+            Room room = new Room(nextRoomId.getAndIncrement(), roomName);
+            roomsById.put(room.getId(), room);
+            return room;
+        });
+    }
+    // Looks up a room by its normalised name, creating it on first use. Returns
+    // null if the room does not exist and there are already maxRooms others
+
+    public boolean removeIfEmpty(Room room) {
+        if (room.getId() == LOBBY_ID) {
+            return false;
+        }
+        boolean[] removed = new boolean[1];
+        roomsByName.computeIfPresent(room.getName(), (name, current) -> {
+            if (current != room || room.getMembers().size() > 0) {
+                return current;
+            }
+            removed[0] = true;
+            return null;
+        });
+        if (removed[0]) {
+            roomsById.remove(room.getId(), room);
+        }
+        return removed[0];
+    }
+    // Drops a room once it has no members. The check and the removal are atomic,
+    // a join that adds itself concurrently either keeps the room or sees it gone
+    // and creates it again
+
+    public Room findById(int roomId) {
+        return roomsById.get(roomId);
+    }
+
+    public Room findByName(String name) {
+        return roomsByName.get(name);
+    }
+
+    public Room getLobby() {
+        return roomsById.get(LOBBY_ID);
+    }
+
+    public List<Room> list() {
+        List<Room> rooms = new ArrayList<>(roomsById.values());
+        rooms.sort(Comparator.comparingInt(Room::getId));
+        return rooms;
+    }
+    // All rooms ordered by id
+}
+// Rooms by name and by id. Rooms are created on first join and dropped again
+// once empty. Room ids are never reused, so a stale id never reaches another
+// room
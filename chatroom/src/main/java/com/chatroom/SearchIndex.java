@@ -0,0 +1,304 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+class SearchIndex {
+
+    private static final int SNAPSHOT_MAGIC = 0x43534958;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final String SNAPSHOT_FILENAME = "terms.snapshot";
+    private static final String JOURNAL_FILENAME = "terms.v2.journal";
+    private static final String OLD_JOURNAL_FILENAME = "terms.journal";
+    // The old journal stored the term count in two bytes. It is dropped on load and
+    // whatever it held is indexed again from the log
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final File oldJournalFile;
+    private final Map<String, PostingList> postings = new ConcurrentHashMap<>();
+    private DataOutputStream journal;
+    private volatile long nextId;
+    private int journalEntries;
+
+    SearchIndex(File directory) {
+        this.snapshotFile = new File(directory, SNAPSHOT_FILENAME);
+        this.journalFile = new File(directory, JOURNAL_FILENAME);
+        this.oldJournalFile = new File(directory, OLD_JOURNAL_FILENAME);
+    }
+
+    void load() throws IOException {
+        postings.clear();
+        nextId = 0;
+        if (snapshotFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(snapshotFile), 64 * 1024))) {
+                if (in.readInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("Not a search index snapshot: " + snapshotFile);
+                }
+                nextId = in.readLong();
+                int terms = in.readInt();
+                for (int i = 0; i < terms; i++) {
+                    String term = in.readUTF();
+                    postings.put(term, PostingList.read(in));
+                }
+            }
+        }
+        // The snapshot holds every posting up to nextId in its compressed form
+
+        if (journalFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(journalFile), 64 * 1024))) {
+                while (true) {
+                    long id = in.readLong();
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String term = in.readUTF();
+                        if (id >= nextId) {
+                            postings.computeIfAbsent(term, key -> new PostingList()).add(id);
+                        }
+                    }
+                    nextId = Math.max(nextId, id + 1);
+                    journalEntries++;
+                }
+            } catch (EOFException e) {
+                // End of the journal, a torn last entry is ignored and re-indexed from the log
+            }
+        }
+        // Messages indexed since the snapshot
+        Files.deleteIfExists(oldJournalFile.toPath());
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+    }
+    // Loads the index from its snapshot and journal. Run on the history writer,
+    // never on the EDT
+
+    long getNextId() {
+        return nextId;
+    }
+    // Every message before this id is indexed
+
+    void add(long id, String text) throws IOException {
+        Set<String> terms = tokenize(text);
+        journal.writeLong(id);
+        journal.writeInt(terms.size());
+        for (String term : terms) {
+            journal.writeUTF(term);
+            postings.computeIfAbsent(term, key -> new PostingList()).add(id);
+        }
+        nextId = id + 1;
+        journalEntries++;
+    }
+    // Indexes a message under every distinct term in it. Ids must increase. Called
+    // only from the history writer thread
+
+    void sync() throws IOException {
+        if (journal != null) {
+            journal.flush();
+        }
+    }
+
+    int getJournalEntries() {
+        return journalEntries;
+    }
+
+    void snapshot() throws IOException {
+        File temporary = new File(snapshotFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporary), 64 * 1024))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(nextId);
+            out.writeInt(postings.size());
+            for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        }
+        Files.move(temporary.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        journal.close();
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, false)));
+        journalEntries = 0;
+    }
+    // Writes the whole index to a new snapshot and starts an empty journal, so
+    // loading never replays more than one journal's worth of messages
+
+    void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    long[] search(String query, int limit) {
+        Set<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return new long[0];
+        }
+        List<PostingList> lists = new ArrayList<>();
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list == null) {
+                return new long[0];
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(PostingList::size));
+        // Starts from the rarest term, so the candidate set is as small as possible
+
+        long[] matches = lists.get(0).toArray();
+        int matchCount = matches.length;
+        for (int i = 1; i < lists.size() && matchCount > 0; i++) {
+            matchCount = lists.get(i).retainAll(matches, matchCount);
+        }
+
+        int resultCount = Math.min(limit, matchCount);
+        long[] newestFirst = new long[resultCount];
+        for (int i = 0; i < resultCount; i++) {
+            newestFirst[i] = matches[matchCount - 1 - i];
+        }
+        return newestFirst;
+    }
+    // Ids of messages containing every term of the query, newest first. Safe to
+    // call while the writer thread adds to the index
+
+    static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) {
+                    terms.add(lower.substring(start, i));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+    // Splits text into lowercase words of letters and digits
+
+    private static final class PostingList {
+        private volatile byte[] data = new byte[8];
+        private volatile int length;
+        private volatile int count;
+        private long lastId = -1;
+
+        private void add(long id) {
+            long delta = lastId < 0 ? id : id - lastId;
+            byte[] bytes = data;
+            if (length + 10 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 10));
+                data = bytes;
+            }
+            int position = length;
+            while ((delta & ~0x7FL) != 0) {
+                bytes[position++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            bytes[position++] = (byte) delta;
+            lastId = id;
+            count++;
+            length = position;
+            // Published last, readers never look past it
+        }
+        // Ids are stored as variable-length deltas from the previous id, one or two
+        // bytes for most messages
+
+        private int size() {
+            return count;
+        }
+
+        private long[] toArray() {
+            int end = length;
+            byte[] bytes = data;
+            long[] ids = new long[count];
+            int found = 0;
+            long id = 0;
+            int position = 0;
+            while (position < end) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[position++];
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id = found == 0 ? delta : id + delta;
+                if (found == ids.length) {
+                    ids = Arrays.copyOf(ids, found * 2 + 1);
+                }
+                ids[found++] = id;
+            }
+            return found == ids.length ? ids : Arrays.copyOf(ids, found);
+        }
+        // Decodes the ids visible when the call started
+
+        private int retainAll(long[] candidates, int candidateCount) {
+            long[] ids = toArray();
+            int kept = 0;
+            int i = 0;
+            for (int c = 0; c < candidateCount; c++) {
+                while (i < ids.length && ids[i] < candidates[c]) {
+                    i++;
+                }
+                if (i < ids.length && ids[i] == candidates[c]) {
+                    candidates[kept++] = candidates[c];
+                }
+            }
+            return kept;
+        }
+        // Intersects in place: both lists are sorted, so one merge pass is enough
+
+        private void write(DataOutputStream out) throws IOException {
+            int end = length;
+            out.writeInt(count);
+            out.writeLong(lastId);
+            out.writeInt(end);
+            out.write(data, 0, end);
+        }
+
+        private static PostingList read(DataInputStream in) throws IOException {
+            PostingList list = new PostingList();
+            list.count = in.readInt();
+            list.lastId = in.readLong();
+            int end = in.readInt();
+            byte[] bytes = new byte[Math.max(8, end)];
+            in.readFully(bytes, 0, end);
+            list.data = bytes;
+            list.length = end;
+            return list;
+        }
+    }
+    // Sorted ids of the messages containing one term. A single writer appends,
+    // searches read concurrently up to the published length
+}
+// Incremental inverted index over the chat history: term to posting list of
+// message ids (log offsets). Kept in memory with compressed posting lists,
+// persisted as a snapshot plus a journal of messages indexed since then
@@ -0,0 +1,559 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+class SegmentedLog implements Closeable {
+
+    static final int RECORD_HEADER_LENGTH = 4 + 4 + 8 + 8;
+    // length, crc32 of the data, offset, timestamp. The data follows
+    private static final int INDEX_ENTRY_LENGTH = 8 + 8 + 8;
+    // offset, position in the segment, timestamp
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final File directory;
+    private final long segmentBytes;
+    private final int indexInterval;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    private Segment activeSegment;
+    private FileOutputStream activeStream;
+    private DataOutputStream activeOut;
+    private DataOutputStream activeIndexOut;
+    private long activeSize;
+    private long nextOffset;
+    private long lastTimestamp;
+    // Writer state, only touched by the thread that appends
+
+    private volatile long committedOffset;
+    // Offset of the first record that is not yet readable. Advanced by sync(), so
+    // readers never see half-written records
+
+    SegmentedLog(File directory, long segmentBytes, int indexInterval) throws IOException {
+        if (segmentBytes <= 0) {
+            throw new IllegalArgumentException("Segment size must be greater than 0.");
+        }
+        if (indexInterval <= 0) {
+            throw new IllegalArgumentException("Index interval must be greater than 0.");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.indexInterval = indexInterval;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        open();
+    }
+
+    private void open() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(LOG_SUFFIX));
+        long[] baseOffsets = new long[files == null ? 0 : files.length];
+        for (int i = 0; i < baseOffsets.length; i++) {
+            String name = files[i].getName();
+            baseOffsets[i] = Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length()));
+        }
+        Arrays.sort(baseOffsets);
+        for (long baseOffset : baseOffsets) {
+            segments.add(new Segment(directory, baseOffset));
+        }
+
+        nextOffset = segments.isEmpty() ? 0 : segments.get(0).baseOffset;
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            boolean last = i == segments.size() - 1;
+            if (last || !segment.loadIndex()) {
+                nextOffset = scan(segment, last);
+            }
+        }
+        // Only the last segment can have been cut short by a crash. Older ones trust
+        // their index unless it is missing or unreadable
+        committedOffset = nextOffset;
+    }
+    // Finds the existing segments
+
+    private long scan(Segment segment, boolean truncate) throws IOException {
+        segment.clearIndex();
+        long offset = segment.baseOffset;
+        int position = 0;
+        try (FileChannel channel = FileChannel.open(segment.logFile.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            while (position + RECORD_HEADER_LENGTH <= length) {
+                buffer.position(position);
+                int dataLength = buffer.getInt();
+                int crc = buffer.getInt();
+                long recordOffset = buffer.getLong();
+                long timestamp = buffer.getLong();
+                if (dataLength < 0 || position + RECORD_HEADER_LENGTH + (long) dataLength > length
+                        || recordOffset != offset) {
+                    break;
+                }
+                byte[] data = new byte[dataLength];
+                buffer.get(data);
+                if (crc32(data) != crc) {
+                    break;
+                }
+                if ((offset - segment.baseOffset) % indexInterval == 0) {
+                    segment.addIndexEntry(offset, position, timestamp);
+                }
+                lastTimestamp = Math.max(lastTimestamp, timestamp);
+                position += RECORD_HEADER_LENGTH + dataLength;
+                offset++;
+            }
+            if (truncate && position < length) {
+                channel.truncate(position);
+            }
+        }
+        segment.rewriteIndex();
+        activeSize = position;
+        return offset;
+    }
+    // Walks a segment record by record, rebuilding its index. For the last segment
+    // anything after the last complete record is cut off
+
+    long append(long timestamp, byte[] data) throws IOException {
+        if (activeOut == null || activeSize >= segmentBytes) {
+            roll();
+        }
+        timestamp = Math.max(timestamp, lastTimestamp);
+        lastTimestamp = timestamp;
+        // Timestamps never go backwards within a log, so the timestamp index can be
+        // binary searched even if the clock is adjusted
+
+        long offset = nextOffset;
+        if ((offset - activeSegment.baseOffset) % indexInterval == 0) {
+            activeSegment.addIndexEntry(offset, activeSize, timestamp);
+            activeIndexOut.writeLong(offset);
+            activeIndexOut.writeLong(activeSize);
+            activeIndexOut.writeLong(timestamp);
+        }
+        // Sparse index: one entry every indexInterval records
+
+        activeOut.writeInt(data.length);
+        activeOut.writeInt(crc32(data));
+        activeOut.writeLong(offset);
+        activeOut.writeLong(timestamp);
+        activeOut.write(data);
+        activeSize += RECORD_HEADER_LENGTH + data.length;
+        nextOffset++;
+        return offset;
+    }
+    // Appends a record and returns its offset. It becomes readable after the next
+    // sync(). Single writer only
+
+    private void roll() throws IOException {
+        if (activeOut != null) {
+            activeOut.flush();
+            activeStream.getChannel().force(false);
+            closeActive();
+        }
+        // A full segment is forced once when it is closed, whatever the durability
+        if (segments.isEmpty() || activeSize >= segmentBytes) {
+            activeSegment = new Segment(directory, nextOffset);
+            segments.add(activeSegment);
+            activeSize = 0;
+        } else {
+            activeSegment = segments.get(segments.size() - 1);
+        }
+        activeStream = new FileOutputStream(activeSegment.logFile, true);
+        activeOut = new DataOutputStream(new BufferedOutputStream(activeStream, 64 * 1024));
+        activeIndexOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(activeSegment.indexFile, true)));
+    }
+    // Opens the last segment for appending, or starts a new one once it is full
+
+    void sync(HistoryWriter.Durability durability) throws IOException {
+        if (activeOut == null) {
+            return;
+        }
+        activeOut.flush();
+        activeIndexOut.flush();
+        if (durability == HistoryWriter.Durability.FSYNC) {
+            activeStream.getChannel().force(false);
+        }
+        committedOffset = nextOffset;
+    }
+    // Hands written records to the operating system, and to the disk for FSYNC.
+    // Always flushes so readers can see what was written
+
+    long getStartOffset() {
+        return segments.isEmpty() ? committedOffset : segments.get(0).baseOffset;
+    }
+    // Offset of the oldest record still stored
+
+    long getCommittedOffset() {
+        return committedOffset;
+    }
+    // Offset the next appended record gets once everything is synced
+
+    long getSizeBytes() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.logFile.length();
+        }
+        return size;
+    }
+    // Total size of the segment files on disk
+
+    Cursor read(long fromOffset) {
+        return new Cursor(Math.max(fromOffset, getStartOffset()), Long.MIN_VALUE);
+    }
+    // Reads records from fromOffset onwards, up to what was synced when each
+    // record is reached
+
+    Cursor readFrom(long timestamp) {
+        Segment found = null;
+        for (Segment segment : segments) {
+            if (found != null && segment.firstTimestamp() >= timestamp) {
+                break;
+            }
+            found = segment;
+        }
+        if (found == null) {
+            return read(committedOffset);
+        }
+        return new Cursor(found.offsetBefore(timestamp), timestamp);
+    }
+    // Reads records with a timestamp at or after the given one. Finding the start
+    // is a binary search of the sparse timestamp index plus a short scan
+
+    int deleteSegmentsBefore(long timestamp) throws IOException {
+        int deleted = 0;
+        while (segments.size() > 1 && segments.get(1).firstTimestamp() <= timestamp) {
+            deleteOldest();
+            deleted++;
+        }
+        return deleted;
+    }
+    // Time-based retention. A segment is only deleted once the segment after it
+    // starts at or before the cutoff, so everything in it is older. The segment
+    // being written to is never deleted
+
+    int deleteSegmentsBeyond(long maxBytes) throws IOException {
+        int deleted = 0;
+        while (segments.size() > 1 && getSizeBytes() > maxBytes) {
+            deleteOldest();
+            deleted++;
+        }
+        return deleted;
+    }
+    // Size-based retention, drops the oldest segments until the log fits
+
+    int deleteSegmentsBeforeOffset(long offset) throws IOException {
+        int deleted = 0;
+        while (segments.size() > 1 && segments.get(1).baseOffset <= offset) {
+            deleteOldest();
+            deleted++;
+        }
+        return deleted;
+    }
+    // Count-based retention, drops segments that only hold records before offset
+
+    private void deleteOldest() throws IOException {
+        Segment oldest = segments.remove(0);
+        if (!oldest.logFile.delete() || (oldest.indexFile.exists() && !oldest.indexFile.delete())) {
+            throw new IOException("Could not delete " + oldest.logFile);
+        }
+    }
+    // Retention runs on the appending thread. Readers that still have the segment
+    // mapped keep reading it until they move on
+
+    @Override
+    public void close() throws IOException {
+        if (activeOut != null) {
+            sync(HistoryWriter.Durability.FLUSH);
+            closeActive();
+        }
+    }
+
+    private void closeActive() throws IOException {
+        activeOut.close();
+        activeIndexOut.close();
+        activeOut = null;
+        activeIndexOut = null;
+        activeStream = null;
+    }
+
+    private Segment segmentFor(long offset) {
+        Segment found = null;
+        for (Segment segment : segments) {
+            if (segment.baseOffset > offset) {
+                break;
+            }
+            found = segment;
+        }
+        return found;
+    }
+
+    static int crc32(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    static final class Record {
+        private final long offset;
+        private final long timestamp;
+        private final byte[] data;
+
+        private Record(long offset, long timestamp, byte[] data) {
+            this.offset = offset;
+            this.timestamp = timestamp;
+            this.data = data;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+    }
+
+    final class Cursor implements Closeable {
+        private long offset;
+        private final long minTimestamp;
+        private Segment segment;
+        private ByteBuffer mapped;
+
+        private Cursor(long offset, long minTimestamp) {
+            this.offset = offset;
+            this.minTimestamp = minTimestamp;
+        }
+
+        Record next() throws IOException {
+            while (offset < committedOffset) {
+                if (mapped == null && !openAt(offset)) {
+                    return null;
+                }
+                if (mapped.remaining() < RECORD_HEADER_LENGTH
+                        || mapped.remaining() < RECORD_HEADER_LENGTH + mapped.getInt(mapped.position())) {
+                    if (!remap()) {
+                        return null;
+                    }
+                    continue;
+                }
+                // The mapping ends before the next record: the record is in the next
+                // segment, or was appended to this one after it was mapped
+
+                int dataLength = mapped.getInt();
+                mapped.getInt();
+                long recordOffset = mapped.getLong();
+                long timestamp = mapped.getLong();
+                if (recordOffset < offset || timestamp < minTimestamp) {
+                    mapped.position(mapped.position() + dataLength);
+                    if (recordOffset >= offset) {
+                        offset = recordOffset + 1;
+                    }
+                    continue;
+                    // Walking forward from the index entry before the requested record
+                }
+                byte[] data = new byte[dataLength];
+                mapped.get(data);
+                offset = recordOffset + 1;
+                return new Record(recordOffset, timestamp, data);
+            }
+            return null;
+        }
+        // Returns the next record, or null once the cursor has caught up with the
+        // synced end of the log
+
+        void seek(long target) {
+            if (target < offset) {
+                throw new IllegalArgumentException("Cursors only move forward.");
+            }
+            if (mapped != null && segmentFor(target) == segment) {
+                long position = segment.positionBefore(target);
+                if (position > mapped.position()) {
+                    mapped.position((int) Math.min(position, mapped.limit()));
+                }
+                // Jumps ahead via the index unless the record is closer than the next
+                // index entry
+            } else {
+                mapped = null;
+            }
+            offset = target;
+        }
+        // Moves the cursor forward to a later offset, reusing the current mapping
+        // when the offset is in the same segment
+
+        private boolean openAt(long target) throws IOException {
+            segment = segmentFor(target);
+            if (segment == null) {
+                return false;
+            }
+            if (!map(segment.positionBefore(target))) {
+                if (getStartOffset() <= offset) {
+                    return false;
+                }
+                offset = getStartOffset();
+                return openAt(offset);
+                // Deleted by retention since the cursor was created, skip ahead
+            }
+            return true;
+        }
+        // Maps the segment holding the offset, positioned at the nearest index entry
+        // before it
+
+        private boolean remap() throws IOException {
+            if (segmentFor(offset) != segment) {
+                mapped = null;
+                return openAt(offset);
+            }
+            int previousLimit = mapped.limit();
+            return map(mapped.position()) && mapped.limit() > previousLimit;
+        }
+        // Moves on to the next segment, or maps the part of the active segment that
+        // was written since the last mapping
+
+        private boolean map(long position) throws IOException {
+            try (FileChannel channel = FileChannel.open(segment.logFile.toPath(), StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                mapped.position((int) Math.min(position, mapped.limit()));
+                return true;
+            } catch (NoSuchFileException e) {
+                mapped = null;
+                return false;
+            }
+        }
+        // The mapping stays valid after the channel is closed. Reads come straight
+        // from the page cache instead of being copied through a stream buffer
+
+        @Override
+        public void close() {
+            mapped = null;
+            segment = null;
+        }
+    }
+    // Sequential reader over the log, one record at a time
+
+    private static final class Segment {
+        private final long baseOffset;
+        private final File logFile;
+        private final File indexFile;
+        private long[] indexOffsets = new long[16];
+        private long[] indexPositions = new long[16];
+        private long[] indexTimestamps = new long[16];
+        private int indexSize;
+
+        private Segment(File directory, long baseOffset) {
+            this.baseOffset = baseOffset;
+            String name = String.format("%020d", baseOffset);
+            this.logFile = new File(directory, name + LOG_SUFFIX);
+            this.indexFile = new File(directory, name + INDEX_SUFFIX);
+        }
+
+        private synchronized void addIndexEntry(long offset, long position, long timestamp) {
+            if (indexSize == indexOffsets.length) {
+                indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+                indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+                indexTimestamps = Arrays.copyOf(indexTimestamps, indexSize * 2);
+            }
+            indexOffsets[indexSize] = offset;
+            indexPositions[indexSize] = position;
+            indexTimestamps[indexSize] = timestamp;
+            indexSize++;
+        }
+
+        private synchronized long firstTimestamp() {
+            return indexSize == 0 ? Long.MAX_VALUE : indexTimestamps[0];
+        }
+        // The first record of a segment is always indexed
+
+        private synchronized long positionBefore(long offset) {
+            int entry = lastEntryAtOrBefore(indexOffsets, offset);
+            return entry < 0 ? 0 : indexPositions[entry];
+        }
+
+        private synchronized long offsetBefore(long timestamp) {
+            int entry = lastEntryAtOrBefore(indexTimestamps, timestamp - 1);
+            return entry < 0 ? baseOffset : indexOffsets[entry];
+        }
+        // Index entry from which a scan finds the first record at the timestamp.
+        // Records with the same timestamp can span several index entries, so the
+        // search stops at the last entry before the timestamp
+
+        private int lastEntryAtOrBefore(long[] keys, long key) {
+            int low = 0;
+            int high = indexSize - 1;
+            int found = -1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (keys[middle] <= key) {
+                    found = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return found;
+        }
+        // Binary search for the last index entry with a key at or before the given one
+
+        private synchronized void clearIndex() {
+            indexSize = 0;
+        }
+
+        private boolean loadIndex() throws IOException {
+            long length = indexFile.length();
+            if (length == 0 || length % INDEX_ENTRY_LENGTH != 0) {
+                return false;
+            }
+            try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                while (entries.hasRemaining()) {
+                    long offset = entries.getLong();
+                    long position = entries.getLong();
+                    long timestamp = entries.getLong();
+                    if (indexSize > 0 && (offset <= indexOffsets[indexSize - 1]
+                            || position <= indexPositions[indexSize - 1]
+                            || timestamp < indexTimestamps[indexSize - 1])) {
+                        return false;
+                    }
+                    addIndexEntry(offset, position, timestamp);
+                }
+            }
+            return indexOffsets[0] == baseOffset && indexPositions[0] == 0;
+        }
+        // Returns false if the index is missing or unreadable and has to be rebuilt
+        // from the segment
+
+        private synchronized void rewriteIndex() throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile)))) {
+                for (int i = 0; i < indexSize; i++) {
+                    out.writeLong(indexOffsets[i]);
+                    out.writeLong(indexPositions[i]);
+                    out.writeLong(indexTimestamps[i]);
+                }
+            }
+        }
+    }
+    // One log file plus its sparse offset and timestamp index, named after its
+    // first offset
+}
+// Append-only log split into time-ordered segment files. Records get
+// consecutive offsets and each segment keeps a sparse index, so reading from
+// any offset or time is a binary search plus a short sequential read of the
+// memory-mapped segment
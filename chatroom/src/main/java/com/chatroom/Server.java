@@ -3,72 +3,231 @@ package com.chatroom;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.swing.*;
 // Package used for UI
 
-public class Server extends JFrame {
+public class Server {
 
     private ServerSocket serverSocket;
-    private boolean serverRunning = false;
+    private ServerConfig config;
+    private NioServerEngine nioEngine;
+    private ExecutorService clientExecutor;
+    private ExecutorService handshakeExecutor;
+    private MessageStore messageStore;
+    private MetricsEndpoint metricsEndpoint;
+    private ClusterNode clusterNode;
+    private AdmissionControl admission;
+    private volatile boolean serverRunning = false;
     // serverRunning boolean is used to prevent threads from throwing catch errors
+    private boolean shutDown = false;
 
     public Server(ServerSocket serverSocket) {
+        this(serverSocket, new ServerConfig());
+    }
+
+    public Server(ServerSocket serverSocket, ServerConfig config) {
         this.serverSocket = serverSocket;
+        this.config = config;
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    public void setWriteCoalescing(long delayMicros, int maxBytes) {
+        config.setWriteCoalesceDelayMicros(delayMicros);
+        config.setWriteCoalesceMaxBytes(maxBytes);
+    }
+    // Nagle-like tuning for writes to clients. Messages queued for a client within
+    // delayMicros of each other, up to maxBytes, are sent in a single write
+
+    public static ServerSocket openServerSocket(int port) throws IOException {
+        return openServerSocket(port, 0);
+    }
+
+    public static ServerSocket openServerSocket(int port, int backlog) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), backlog);
+        return serverChannel.socket();
+    }
+    // Opens the listening socket through a channel so that either engine can use
+    // it. The blocking engine accepts through the ServerSocket, the NIO engine
+    // through its channel. A backlog of 0 uses the JDK default
+
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+    // Looked up reflectively so the project still builds and runs on Java 17.
+    // Returns null when the running JVM has no virtual threads
+
+    static ThreadFactory newVirtualThreadFactory(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class).invoke(builder, name);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+    // Same as above for a factory of named virtual threads
+
+    private ExecutorService createClientExecutor() {
+        if (config.getEngineMode() == EngineMode.VIRTUAL_THREADS) {
+            ExecutorService executor = newVirtualThreadExecutor();
+            if (executor != null) {
+                return executor;
+            }
+            System.out.println("Virtual threads need Java 21 or newer, falling back to platform threads");
+        }
+        return Executors.newCachedThreadPool();
+    }
+    // Executor that runs ClientHandler readers and writer tasks. Platform threads
+    // for the original engine, one virtual thread per task in virtual thread mode
+
+    private ExecutorService createHandshakeExecutor() {
+        ThreadFactory threadFactory = config.getEngineMode() == EngineMode.VIRTUAL_THREADS
+                ? newVirtualThreadFactory("client-handshake")
+                : null;
+        if (threadFactory == null) {
+            threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "client-handshake");
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(config.getHandshakeThreads(),
+                config.getHandshakeThreads(), 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(config.getHandshakeQueueCapacity()), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+    // Bounded pool that reads usernames and announces joins, so neither happens on
+    // the accept thread. Idle threads exit after 30 seconds, and execute() throws
+    // once the queue is full. Uses the same kind of thread as the client executor,
+    // the pool only bounds how many handshakes run at once
+
+    private void startHandshake(Socket socket) {
+        ClientHandler clientHandler = new ClientHandler(socket, config, clientExecutor, admission);
+        // Creates a new ClientHandler object to handle communication with the client
+        try {
+            handshakeExecutor.execute(() -> {
+                if (!clientHandler.handshake()) {
+                    return;
+                }
+                try {
+                    clientExecutor.execute(clientHandler);
+                    // Runs the client on its own (platform or virtual) thread to handle
+                    // communication with the client
+                } catch (RejectedExecutionException e) {
+                    clientHandler.close();
+                    // The server shut down during the handshake
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            clientHandler.reject(ServerMetrics.RejectReason.HANDSHAKE_QUEUE_FULL);
+        }
     }
+    // Queues a freshly accepted client for its handshake and returns straight away,
+    // so a slow or silent client never holds up the next accept
 
     public void startServer() {
-        System.out.println("Server started");
+        System.out.println("Server started (" + config.getEngineMode() + ")");
         serverRunning = true;
         // Setting serverRunning to true here allows remaining code to run
 
-        Runnable serverTask = () -> {
+        MessageRouter.roomRegistry.setMaxRooms(config.getMaxRooms());
+        openMessageStore();
+        startMetrics();
+        startCluster();
+        admission = new AdmissionControl(config);
 
+        if (config.getEngineMode() == EngineMode.NIO) {
+            if (serverSocket.getChannel() == null) {
+                throw new IllegalStateException("NIO engine requires a server socket opened through openServerSocket()");
+            }
             try {
+                nioEngine = new NioServerEngine(serverSocket.getChannel(), config, admission);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not start NIO engine", e);
+            }
+            nioEngine.start();
+            return;
+        }
+        // The NIO engine runs its own acceptor and event loop threads
 
-                while (serverRunning) {
-
-                    try {
+        clientExecutor = createClientExecutor();
+        handshakeExecutor = createHandshakeExecutor();
 
-                        Socket socket = serverSocket.accept();
-                        // Blocking operation that waits until a client connects
-                        // It returns a Socket object representing the client connection
+        Runnable serverTask = () -> {
 
-                        if (!serverRunning) {
-                            break;
-                        }
-                        // If server is stopped, break out of the loop
+            while (serverRunning) {
 
-                        System.out.println(
-                                "New client connected to " + socket.getInetAddress() + " at Port: "
-                                        + serverSocket.getLocalPort());
-                        System.out.println("Amount of users in chatroom: " + (ClientHandler.clientHandlers.size() + 1));
-                        // Prints out that a user has connected and displays the number of current users
-                        // in the chatroom (In console)
+                try {
 
-                        ClientHandler clientHandler = new ClientHandler(socket);
-                        // Creates a new ClientHandler object to handle communication with the client
+                    Socket socket = serverSocket.accept();
+                    // Blocking operation that waits until a client connects
+                    // It returns a Socket object representing the client connection
 
-                        Thread thread = new Thread(clientHandler);
-                        thread.start();
-                        // Starts a new thread to handle communication with the client
+                    if (!serverRunning) {
+                        break;
+                    }
+                    // If server is stopped, break out of the loop
+                    ServerMetrics.recordAccept();
 
-                    } catch (SocketException se) {
-                        if (!serverSocket.isClosed()) {
-                            se.printStackTrace();
-                        }
-                        // Ignores SocketException when server socket is closed
+                    ServerMetrics.RejectReason rejected = admission.admit(socket.getInetAddress());
+                    if (rejected != null) {
+                        AdmissionControl.reject(socket, rejected);
+                        continue;
+                    }
+                    // Turned away before any thread or buffer is spent on the client
+
+                    System.out.println(
+                            "New client connected to " + socket.getInetAddress() + " at Port: "
+                                    + serverSocket.getLocalPort());
+                    System.out.println("Amount of users in chatroom: " + (ClientHandler.sessionRegistry.size() + 1));
+                    // Prints out that a user has connected and displays the number of current users
+                    // in the chatroom (In console)
+
+                    startHandshake(socket);
+                    // Reading the username and announcing the join happen on a handshake
+                    // thread, the loop goes straight back to accept()
+
+                } catch (IOException e) {
+                    if (!serverRunning || serverSocket.isClosed()) {
+                        break;
                     }
+                    // Closing the server socket during shutdown ends the accept
+                    e.printStackTrace();
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(NioServerEngine.ACCEPT_ERROR_PAUSE_MILLIS));
+                    // Out of file descriptors, accept() fails until some connections close.
+                    // The loop waits a moment and tries again instead of giving up
                 }
-                // Above code only runs while serverRunning boolean is set to 'true'
-
-            } catch (IOException e) {
-                e.printStackTrace();
             }
+            // Above code only runs while serverRunning boolean is set to 'true'
         };
         // Defines a task intended to operate within the below-defined thread
 
@@ -79,28 +238,172 @@ public class Server extends JFrame {
     }
     // Function used start server.
 
-    public void closeServerSocket() {
+    private void openMessageStore() {
+        String directory = config.getHistoryDirectory();
+        if (directory == null || directory.isEmpty()) {
+            return;
+        }
+        try {
+            messageStore = new MessageStore(new File(directory), config.getHistoryDurability(),
+                    config.isCompression());
+            MessageRouter.setMessageStore(messageStore);
+        } catch (IOException e) {
+            System.out.println("Could not open message store in " + directory + ", history is disabled");
+            e.printStackTrace();
+        }
+    }
+    // Opens the server-side message history that chat messages are written to and
+    // replayed from
+
+    private void startMetrics() {
+        ServerMetrics.registerMBean();
+        if (config.getMetricsPort() == 0) {
+            return;
+        }
+        try {
+            metricsEndpoint = MetricsEndpoint.start(config.getMetricsPort());
+            System.out.println("Metrics at http://localhost:" + metricsEndpoint.getPort() + "/metrics");
+        } catch (IOException e) {
+            System.out.println("Could not serve metrics on port " + config.getMetricsPort() + ": " + e.getMessage());
+        }
+    }
+    // Metrics are always registered with JMX. The HTTP endpoint only runs when a
+    // metrics port is configured
+
+    private void startCluster() {
+        if (config.getClusterPort() == 0) {
+            return;
+        }
+        if (config.getClusterSecret() == null && !isLoopback(config.getClusterBindAddress())) {
+            System.out.println("Cluster port on " + config.getClusterBindAddress()
+                    + " needs a clusterSecret, running without the cluster");
+            return;
+        }
+        // Anyone who can reach an open cluster port could inject messages as any user
+        ClusterNode node = new ClusterNode(config.getClusterNodeId(),
+                new TcpMeshTransport(config.getClusterNodeId(), config.getClusterBindAddress(),
+                        config.getClusterPort(), config.getClusterPeers(), config.getClusterSecret()),
+                config.isCompression());
+        try {
+            node.start();
+            clusterNode = node;
+            MessageRouter.setCluster(node);
+            System.out.println("Cluster node " + node.getNodeId() + " on " + config.getClusterBindAddress() + ":"
+                    + config.getClusterPort() + ", " + config.getClusterPeers().size() + " peer(s)");
+        } catch (IOException e) {
+            node.close();
+            System.out.println("Could not join the cluster on port " + config.getClusterPort() + ": "
+                    + e.getMessage());
+        }
+    }
+    // Joins the other nodes when a cluster port is configured. Peers that are not
+    // up yet are connected to as soon as they are
+
+    private static boolean isLoopback(String address) {
+        try {
+            return InetAddress.getByName(address).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (shutDown) {
+            return;
+        }
+        shutDown = true;
         serverRunning = false;
         // Sets serverRunning boolean to false to exit out of threads
 
+        if (nioEngine != null) {
+            nioEngine.stopAccepting();
+        }
         try {
             if (serverSocket != null) {
                 serverSocket.close();
             }
-            System.exit(0);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        // No new clients from here on, connected ones are still served
+
+        drainOutboundQueues(config.getShutdownTimeoutMillis());
+
+        if (clusterNode != null) {
+            MessageRouter.setCluster(null);
+            clusterNode.close();
+        }
+        // Leaving the cluster drops this node's members on the other nodes
+
+        for (ChatSession session : ClientHandler.sessionRegistry.snapshot()) {
+            session.close();
+        }
+        if (nioEngine != null) {
+            nioEngine.stop();
+        }
+        if (handshakeExecutor != null) {
+            handshakeExecutor.shutdownNow();
+        }
+        if (clientExecutor != null) {
+            clientExecutor.shutdown();
+        }
+        if (messageStore != null) {
+            MessageRouter.setMessageStore(null);
+            messageStore.close();
+        }
+        // Writes out any messages still queued for the message store
+        if (metricsEndpoint != null) {
+            metricsEndpoint.stop();
+        }
+        ServerMetrics.unregisterMBean();
+        System.out.println("Server stopped");
     }
-    // Method that shuts down the server socket and closes the server process
+    // Graceful shutdown: stops accepting, waits for every client to receive what
+    // is queued for it, then closes the connections and the message store. Leaves
+    // the process running, so it is safe to call from a shutdown hook
+
+    private void drainOutboundQueues(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            boolean drained = true;
+            for (ChatSession session : ClientHandler.sessionRegistry.snapshot()) {
+                if (session.hasPendingWrites()) {
+                    drained = false;
+                    break;
+                }
+            }
+            if (drained) {
+                return;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                System.out.println("Shutdown timeout reached, closing clients with messages still queued");
+                return;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+    }
+    // Waits until no client has messages waiting to be written, or the timeout
+    // has passed. Slow clients cannot hold up the shutdown for longer than that
+
+    public void closeServerSocket() {
+        shutdown();
+    }
+    // Method that shuts down the server socket and the server. Kept for existing
+    // callers, see shutdown()
 
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 || GraphicsEnvironment.isHeadless()) {
+            HeadlessServer.main(args);
+            return;
+        }
+        // Command line arguments, or no display, start the server without any
+        // windows
 
         SwingUtilities.invokeLater(() -> {
 
             JFrame serverConfigFrame = new JFrame("Server Configuration");
             serverConfigFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-            serverConfigFrame.setSize(300, 100);
+            serverConfigFrame.setSize(300, 130);
             serverConfigFrame.setLayout(new FlowLayout());
             // Creating a JFrame "serverConfigFrame" with FlowLayout
 
@@ -108,6 +411,9 @@ public class Server extends JFrame {
             JTextField portField = new JTextField(10);
             // TextField used to input custom port number
 
+            JComboBox<EngineMode> engineComboBox = new JComboBox<>(EngineMode.values());
+            // ComboBox used to pick the engine that serves connections
+
             JCheckBox defaultPortCheckbox = new JCheckBox("Use Default Port (2000)");
             defaultPortCheckbox.addActionListener(e -> {
                 portField.setEnabled(!defaultPortCheckbox.isSelected());
@@ -149,11 +455,14 @@ public class Server extends JFrame {
                         // port number (> 0 or <= 65535)
 
                         try {
-                            ServerSocket serverSocket = new ServerSocket(port);
+                            ServerSocket serverSocket = openServerSocket(port);
                             // Creates ServerSocket object using above specified port instructions
 
-                            Server server = new Server(serverSocket);
-                            // Creates new Server object using above created ServerSocket object
+                            ServerConfig config = new ServerConfig();
+                            config.setEngineMode((EngineMode) engineComboBox.getSelectedItem());
+                            Server server = new Server(serverSocket, config);
+                            // Creates new Server object using above created ServerSocket object and the
+                            // selected engine
 
                             server.startServer();
                             // Starts server
@@ -177,6 +486,7 @@ public class Server extends JFrame {
                                 public void actionPerformed(ActionEvent e) {
                                     server.closeServerSocket();
                                     JOptionPane.showMessageDialog(serverStartedFrame, "Server stopped.");
+                                    System.exit(0);
                                 }
                             });
                             serverStartedFrame.add(stopButton);
@@ -202,9 +512,10 @@ public class Server extends JFrame {
             serverConfigFrame.add(portLabel);
             serverConfigFrame.add(portField);
             serverConfigFrame.add(defaultPortCheckbox);
+            serverConfigFrame.add(engineComboBox);
             serverConfigFrame.add(startButton);
-            // Add port input, default checkbox and start button objects to
-            // serverConfigFrame
+            // Add port input, default checkbox, engine selection and start button objects
+            // to serverConfigFrame
 
             serverConfigFrame.setLocationRelativeTo(null);
             // Center serverConfigFrame on the screen
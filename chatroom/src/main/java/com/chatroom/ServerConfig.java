@@ -0,0 +1,569 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+public class ServerConfig {
+
+    public static final int DEFAULT_PORT = 2000;
+
+    private int port = DEFAULT_PORT;
+    private EngineMode engineMode = EngineMode.THREAD_PER_CONNECTION;
+    private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+    private int readBufferSize = 8192;
+    private int maxLineLength = 64 * 1024;
+    private int outboundQueueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+    private long writeCoalesceDelayMicros = 0;
+    private int writeCoalesceMaxBytes = 64 * 1024;
+    private String historyDirectory = "server_history";
+    private HistoryWriter.Durability historyDurability = HistoryWriter.Durability.FLUSH;
+    private long shutdownTimeoutMillis = 5000;
+    private int metricsPort = 0;
+    private int maxSessions = 0;
+    private int acceptBacklog = 0;
+    private long handshakeTimeoutMillis = 10_000;
+    private int handshakeThreads = 64;
+    private int handshakeQueueCapacity = 4096;
+    private int connectRate = 0;
+    private int messageRate = 0;
+    private int messageBurst = 20;
+    private int ipMessageRate = 0;
+    private int maxRooms = 10_000;
+    private boolean compression = true;
+    private String clusterNodeId;
+    private int clusterPort = 0;
+    private String clusterBindAddress = "127.0.0.1";
+    private String clusterSecret;
+    private List<InetSocketAddress> clusterPeers = Collections.emptyList();
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Port number must be between 0 and 65535.");
+        }
+        this.port = port;
+    }
+    // Get/set-methods for the port the server listens on. 0 picks a free port
+
+    public EngineMode getEngineMode() {
+        return engineMode;
+    }
+
+    public void setEngineMode(EngineMode engineMode) {
+        this.engineMode = engineMode;
+    }
+    // Get/set-methods for the engine used to serve connections
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public void setEventLoopThreads(int eventLoopThreads) {
+        if (eventLoopThreads <= 0) {
+            throw new IllegalArgumentException("Event loop threads must be greater than 0.");
+        }
+        this.eventLoopThreads = eventLoopThreads;
+    }
+    // Get/set-methods for the amount of selector threads used by the NIO engine.
+    // Defaults to one per core
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    public void setReadBufferSize(int readBufferSize) {
+        if (readBufferSize <= 0) {
+            throw new IllegalArgumentException("Read buffer size must be greater than 0.");
+        }
+        this.readBufferSize = readBufferSize;
+    }
+    // Get/set-methods for the size of the read buffer shared by each selector
+    // thread
+
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    public void setMaxLineLength(int maxLineLength) {
+        if (maxLineLength <= 0) {
+            throw new IllegalArgumentException("Max line length must be greater than 0.");
+        }
+        this.maxLineLength = maxLineLength;
+    }
+    // Get/set-methods for the longest line (in bytes) a client may send before it
+    // is disconnected
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+        if (outboundQueueCapacity <= 0) {
+            throw new IllegalArgumentException("Outbound queue capacity must be greater than 0.");
+        }
+        this.outboundQueueCapacity = outboundQueueCapacity;
+    }
+    // Get/set-methods for the amount of messages that may wait for a single client
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+    // Get/set-methods for what happens when a client's outbound queue is full
+
+    public long getWriteCoalesceDelayMicros() {
+        return writeCoalesceDelayMicros;
+    }
+
+    public void setWriteCoalesceDelayMicros(long writeCoalesceDelayMicros) {
+        if (writeCoalesceDelayMicros < 0) {
+            throw new IllegalArgumentException("Write coalesce delay cannot be negative.");
+        }
+        this.writeCoalesceDelayMicros = writeCoalesceDelayMicros;
+    }
+    // Get/set-methods for how long a writer waits for more messages before writing
+    // to a client (Nagle-like). 0 writes as soon as a message is queued, messages
+    // that pile up meanwhile are still written together
+
+    public int getWriteCoalesceMaxBytes() {
+        return writeCoalesceMaxBytes;
+    }
+
+    public void setWriteCoalesceMaxBytes(int writeCoalesceMaxBytes) {
+        if (writeCoalesceMaxBytes <= 0) {
+            throw new IllegalArgumentException("Write coalesce budget must be greater than 0.");
+        }
+        this.writeCoalesceMaxBytes = writeCoalesceMaxBytes;
+    }
+    // Get/set-methods for the most bytes combined into a single write
+
+    public String getHistoryDirectory() {
+        return historyDirectory;
+    }
+
+    public void setHistoryDirectory(String historyDirectory) {
+        this.historyDirectory = historyDirectory;
+    }
+    // Get/set-methods for where the server keeps each room's message log. null or
+    // empty turns server-side history off
+
+    public HistoryWriter.Durability getHistoryDurability() {
+        return historyDurability;
+    }
+
+    public void setHistoryDurability(HistoryWriter.Durability historyDurability) {
+        this.historyDurability = historyDurability;
+    }
+    // Get/set-methods for how far each batch of stored messages is pushed towards
+    // the disk
+
+    public long getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+        if (shutdownTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Shutdown timeout cannot be negative.");
+        }
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+    // Get/set-methods for how long a graceful shutdown waits for clients to receive
+    // the messages still queued for them before closing their connections
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        if (metricsPort < 0 || metricsPort > 65535) {
+            throw new IllegalArgumentException("Metrics port must be between 0 and 65535.");
+        }
+        this.metricsPort = metricsPort;
+    }
+    // Get/set-methods for the local port serving /metrics over HTTP. 0 turns the
+    // endpoint off, JMX is always available
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public void setMaxSessions(int maxSessions) {
+        if (maxSessions < 0) {
+            throw new IllegalArgumentException("Max sessions cannot be negative.");
+        }
+        this.maxSessions = maxSessions;
+    }
+    // Get/set-methods for the most connections served at once, counting those still
+    // in the handshake. Further clients are turned away as soon as they connect.
+    // 0 means no limit
+
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    public void setAcceptBacklog(int acceptBacklog) {
+        if (acceptBacklog < 0) {
+            throw new IllegalArgumentException("Accept backlog cannot be negative.");
+        }
+        this.acceptBacklog = acceptBacklog;
+    }
+    // Get/set-methods for how many connections the OS queues before they are
+    // accepted. 0 uses the JDK default of 50. Only applies when the server socket
+    // is opened
+
+    public long getHandshakeTimeoutMillis() {
+        return handshakeTimeoutMillis;
+    }
+
+    public void setHandshakeTimeoutMillis(long handshakeTimeoutMillis) {
+        if (handshakeTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Handshake timeout cannot be negative.");
+        }
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+    // Get/set-methods for how long a client has to send its username after
+    // connecting. 0 waits forever
+
+    public int getHandshakeThreads() {
+        return handshakeThreads;
+    }
+
+    public void setHandshakeThreads(int handshakeThreads) {
+        if (handshakeThreads <= 0) {
+            throw new IllegalArgumentException("Handshake threads must be greater than 0.");
+        }
+        this.handshakeThreads = handshakeThreads;
+    }
+    // Get/set-methods for how many clients of the thread engines are read their
+    // username at the same time. The NIO engine handshakes on its event loops
+
+    public int getHandshakeQueueCapacity() {
+        return handshakeQueueCapacity;
+    }
+
+    public void setHandshakeQueueCapacity(int handshakeQueueCapacity) {
+        if (handshakeQueueCapacity <= 0) {
+            throw new IllegalArgumentException("Handshake queue capacity must be greater than 0.");
+        }
+        this.handshakeQueueCapacity = handshakeQueueCapacity;
+    }
+    // Get/set-methods for how many accepted clients may wait for a handshake
+    // thread. Clients beyond that are turned away as busy
+
+    public int getConnectRate() {
+        return connectRate;
+    }
+
+    public void setConnectRate(int connectRate) {
+        if (connectRate < 0) {
+            throw new IllegalArgumentException("Connect rate cannot be negative.");
+        }
+        this.connectRate = connectRate;
+    }
+    // Get/set-methods for the connections per second accepted from one address.
+    // 0 means no limit
+
+    public int getMessageRate() {
+        return messageRate;
+    }
+
+    public void setMessageRate(int messageRate) {
+        if (messageRate < 0) {
+            throw new IllegalArgumentException("Message rate cannot be negative.");
+        }
+        this.messageRate = messageRate;
+    }
+    // Get/set-methods for the messages and commands per second each client may
+    // send. 0 means no limit
+
+    public int getMessageBurst() {
+        return messageBurst;
+    }
+
+    public void setMessageBurst(int messageBurst) {
+        if (messageBurst <= 0) {
+            throw new IllegalArgumentException("Message burst must be greater than 0.");
+        }
+        this.messageBurst = messageBurst;
+    }
+    // Get/set-methods for how many messages a client may send at once before its
+    // message rate applies
+
+    public int getIpMessageRate() {
+        return ipMessageRate;
+    }
+
+    public void setIpMessageRate(int ipMessageRate) {
+        if (ipMessageRate < 0) {
+            throw new IllegalArgumentException("IP message rate cannot be negative.");
+        }
+        this.ipMessageRate = ipMessageRate;
+    }
+    // Get/set-methods for the messages per second shared by every client from one
+    // address. 0 means no limit
+
+    public int getMaxRooms() {
+        return maxRooms;
+    }
+
+    public void setMaxRooms(int maxRooms) {
+        if (maxRooms < 0) {
+            throw new IllegalArgumentException("Max rooms cannot be negative.");
+        }
+        this.maxRooms = maxRooms;
+    }
+    // Get/set-methods for how many rooms besides the lobby may exist at once.
+    // Joining a new room beyond that is refused. 0 means no limit
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+    // Get/set-methods for whether large messages are deflated for binary clients
+    // that ask for it and in the message store
+
+    public String getClusterNodeId() {
+        return clusterNodeId != null ? clusterNodeId : "node-" + clusterPort;
+    }
+
+    public void setClusterNodeId(String clusterNodeId) {
+        if (clusterNodeId != null && clusterNodeId.isEmpty()) {
+            throw new IllegalArgumentException("Cluster node id cannot be empty.");
+        }
+        this.clusterNodeId = clusterNodeId;
+    }
+    // Get/set-methods for the name this server goes by in the cluster. Must be
+    // unique among the nodes, defaults to one derived from the cluster port
+
+    public int getClusterPort() {
+        return clusterPort;
+    }
+
+    public void setClusterPort(int clusterPort) {
+        if (clusterPort < 0 || clusterPort > 65535) {
+            throw new IllegalArgumentException("Cluster port must be between 0 and 65535.");
+        }
+        this.clusterPort = clusterPort;
+    }
+    // Get/set-methods for the port other nodes connect to. 0 runs the server on
+    // its own
+
+    public String getClusterBindAddress() {
+        return clusterBindAddress;
+    }
+
+    public void setClusterBindAddress(String clusterBindAddress) {
+        if (clusterBindAddress == null || clusterBindAddress.isEmpty()) {
+            throw new IllegalArgumentException("Cluster bind address cannot be empty.");
+        }
+        this.clusterBindAddress = clusterBindAddress;
+    }
+    // Get/set-methods for the interface the cluster port listens on. Loopback by
+    // default, so only nodes on the same machine can connect
+
+    public String getClusterSecret() {
+        return clusterSecret;
+    }
+
+    public void setClusterSecret(String clusterSecret) {
+        if (clusterSecret != null && clusterSecret.isEmpty()) {
+            throw new IllegalArgumentException("Cluster secret cannot be empty.");
+        }
+        this.clusterSecret = clusterSecret;
+    }
+    // Get/set-methods for the secret every node of the cluster shares. Links from
+    // nodes that cannot prove they know it are refused. Required when the cluster
+    // port listens on anything but loopback
+
+    public List<InetSocketAddress> getClusterPeers() {
+        return clusterPeers;
+    }
+
+    public void setClusterPeers(List<InetSocketAddress> clusterPeers) {
+        this.clusterPeers = Collections.unmodifiableList(new ArrayList<>(clusterPeers));
+    }
+    // Get/set-methods for the cluster ports of every other node
+
+    private static List<InetSocketAddress> parsePeers(String value) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String peer : value.split(",")) {
+            String address = peer.trim();
+            if (address.isEmpty()) {
+                continue;
+            }
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0 || colon == address.length() - 1) {
+                throw new IllegalArgumentException("Cluster peers must be host:port, got: " + address);
+            }
+            int port = Integer.parseInt(address.substring(colon + 1));
+            if (port <= 0 || port > 65535) {
+                throw new IllegalArgumentException("Cluster peer port must be between 1 and 65535.");
+            }
+            peers.add(InetSocketAddress.createUnresolved(address.substring(0, colon), port));
+        }
+        return peers;
+    }
+    // Parses a comma-separated list such as localhost:7001,localhost:7002. Host
+    // names are resolved on every connect, so a peer may move
+
+    public void set(String key, String value) {
+        String trimmed = value.trim();
+        try {
+            switch (key) {
+                case "port":
+                    setPort(Integer.parseInt(trimmed));
+                    break;
+                case "engine":
+                    setEngineMode(enumValue(EngineMode.class, key, trimmed));
+                    break;
+                case "eventLoopThreads":
+                    setEventLoopThreads(Integer.parseInt(trimmed));
+                    break;
+                case "readBufferSize":
+                    setReadBufferSize(Integer.parseInt(trimmed));
+                    break;
+                case "maxLineLength":
+                    setMaxLineLength(Integer.parseInt(trimmed));
+                    break;
+                case "outboundQueueCapacity":
+                    setOutboundQueueCapacity(Integer.parseInt(trimmed));
+                    break;
+                case "overflowPolicy":
+                    setOverflowPolicy(enumValue(OverflowPolicy.class, key, trimmed));
+                    break;
+                case "writeCoalesceDelayMicros":
+                    setWriteCoalesceDelayMicros(Long.parseLong(trimmed));
+                    break;
+                case "writeCoalesceMaxBytes":
+                    setWriteCoalesceMaxBytes(Integer.parseInt(trimmed));
+                    break;
+                case "historyDirectory":
+                    setHistoryDirectory(trimmed);
+                    break;
+                case "historyDurability":
+                    setHistoryDurability(enumValue(HistoryWriter.Durability.class, key, trimmed));
+                    break;
+                case "shutdownTimeoutMillis":
+                    setShutdownTimeoutMillis(Long.parseLong(trimmed));
+                    break;
+                case "metricsPort":
+                    setMetricsPort(Integer.parseInt(trimmed));
+                    break;
+                case "maxSessions":
+                    setMaxSessions(Integer.parseInt(trimmed));
+                    break;
+                case "acceptBacklog":
+                    setAcceptBacklog(Integer.parseInt(trimmed));
+                    break;
+                case "handshakeTimeoutMillis":
+                    setHandshakeTimeoutMillis(Long.parseLong(trimmed));
+                    break;
+                case "handshakeThreads":
+                    setHandshakeThreads(Integer.parseInt(trimmed));
+                    break;
+                case "handshakeQueueCapacity":
+                    setHandshakeQueueCapacity(Integer.parseInt(trimmed));
+                    break;
+                case "connectRate":
+                    setConnectRate(Integer.parseInt(trimmed));
+                    break;
+                case "messageRate":
+                    setMessageRate(Integer.parseInt(trimmed));
+                    break;
+                case "messageBurst":
+                    setMessageBurst(Integer.parseInt(trimmed));
+                    break;
+                case "ipMessageRate":
+                    setIpMessageRate(Integer.parseInt(trimmed));
+                    break;
+                case "maxRooms":
+                    setMaxRooms(Integer.parseInt(trimmed));
+                    break;
+                case "compression":
+                    setCompression(booleanValue(key, trimmed));
+                    break;
+                case "clusterNodeId":
+                    setClusterNodeId(trimmed);
+                    break;
+                case "clusterPort":
+                    setClusterPort(Integer.parseInt(trimmed));
+                    break;
+                case "clusterBindAddress":
+                    setClusterBindAddress(trimmed);
+                    break;
+                case "clusterSecret":
+                    setClusterSecret(trimmed);
+                    break;
+                case "clusterPeers":
+                    setClusterPeers(parsePeers(trimmed));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown setting: " + key);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+        }
+    }
+    // Applies one setting by name, as used in config files and on the command
+    // line. Enum values are matched by name, e.g. engine=NIO. Throws
+    // IllegalArgumentException for unknown keys and bad values
+
+    private static <E extends Enum<E>> E enumValue(Class<E> type, String key, String value) {
+        for (E constant : type.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(value)) {
+                return constant;
+            }
+        }
+        StringBuilder expected = new StringBuilder();
+        for (E constant : type.getEnumConstants()) {
+            expected.append(expected.length() == 0 ? "" : ", ").append(constant.name());
+        }
+        throw new IllegalArgumentException("Invalid value for " + key + ": " + value + ", expected one of "
+                + expected);
+    }
+
+    private static boolean booleanValue(String key, String value) {
+        if (value.equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (value.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Invalid value for " + key + ": " + value + ", expected true or false");
+    }
+
+    public void load(Properties properties) {
+        for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+            set(entry.getKey().toString(), entry.getValue().toString());
+        }
+    }
+
+    public void load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        load(properties);
+    }
+    // Applies every setting from a .properties file
+}
+// Tunables for the Server. Defaults match the behaviour of the original server
@@ -0,0 +1,446 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public final class ServerMetrics {
+
+    public static final String OBJECT_NAME = "com.chatroom:type=ServerMetrics";
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final LongAdder acceptedConnections = new LongAdder();
+    private static final LongAdder messagesIn = new LongAdder();
+    private static final LongAdder bytesIn = new LongAdder();
+    private static final LongAdder bytesOut = new LongAdder();
+    private static final LongAdder broadcasts = new LongAdder();
+    private static final LongAdder broadcastNanos = new LongAdder();
+    private static final LongAdder[] disconnects = new LongAdder[DisconnectReason.values().length];
+    private static final LongAdder[] rejections = new LongAdder[RejectReason.values().length];
+    private static final LongAdder rateLimitedMessages = new LongAdder();
+    private static final LongAdder droppedClusterMessages = new LongAdder();
+    // Striped counters, threads on different cores never contend on the same cell
+
+    private static volatile LatencyHistogram currentBroadcasts = new LatencyHistogram();
+    private static volatile LatencyHistogram previousBroadcasts = new LatencyHistogram();
+    private static long windowStart = System.nanoTime();
+    // Broadcast times of the current and the previous minute. Percentiles are
+    // over both, so they show how fan-out is doing now rather than since startup
+
+    static {
+        for (int i = 0; i < disconnects.length; i++) {
+            disconnects[i] = new LongAdder();
+        }
+        for (int i = 0; i < rejections.length; i++) {
+            rejections[i] = new LongAdder();
+        }
+    }
+
+    public enum DisconnectReason {
+        CLIENT_CLOSED, READ_ERROR, WRITE_ERROR, PROTOCOL_ERROR, SLOW_CONSUMER, HANDSHAKE_TIMEOUT, SERVER_SHUTDOWN
+    }
+    // Why a session ended. Each session counts exactly one
+
+    public enum RejectReason {
+        SERVER_FULL, CONNECT_RATE, HANDSHAKE_QUEUE_FULL
+    }
+    // Why a connection was turned away right after it was accepted
+
+    private ServerMetrics() {
+    }
+
+    static void recordAccept() {
+        acceptedConnections.increment();
+    }
+
+    static void recordMessageIn() {
+        messagesIn.increment();
+    }
+
+    static void recordBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    static void recordBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    static void recordBroadcast(long nanos) {
+        broadcasts.increment();
+        broadcastNanos.add(nanos);
+        currentBroadcasts.record(nanos);
+    }
+    // Time from a message reaching the router to it being queued for every
+    // member of the room
+
+    static void recordDisconnect(DisconnectReason reason) {
+        disconnects[reason.ordinal()].increment();
+    }
+
+    static void recordRejected(RejectReason reason) {
+        rejections[reason.ordinal()].increment();
+    }
+
+    static void recordRateLimited() {
+        rateLimitedMessages.increment();
+    }
+    // A message or command dropped because its sender went over its rate limit
+
+    static void recordDroppedClusterMessage() {
+        droppedClusterMessages.increment();
+    }
+    // A message from another node dropped because it named an invalid room or
+    // carried a corrupt compressed payload
+
+    static DisconnectReason readFailure(IOException e) {
+        if (e instanceof ProtocolException) {
+            return DisconnectReason.PROTOCOL_ERROR;
+        }
+        if (e instanceof SocketTimeoutException) {
+            return DisconnectReason.HANDSHAKE_TIMEOUT;
+        }
+        // Reads only time out while waiting for the username
+        return e instanceof EOFException || isPeerGone(e) ? DisconnectReason.CLIENT_CLOSED
+                : DisconnectReason.READ_ERROR;
+    }
+    // Reason for a session whose read failed: a malformed line or frame, the
+    // client hanging up mid-message, or a socket error
+
+    static DisconnectReason writeFailure(IOException e) {
+        return isPeerGone(e) ? DisconnectReason.CLIENT_CLOSED : DisconnectReason.WRITE_ERROR;
+    }
+    // A client that hangs up usually fails the next write to it before its read
+    // sees the end of the stream. That is a normal disconnect, not a write error
+
+    private static boolean isPeerGone(IOException e) {
+        String message = e.getMessage();
+        return message != null && (message.contains("Broken pipe") || message.contains("Connection reset"));
+    }
+    // The JDK reports a closed peer only through the message of a plain IOException
+
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    private static synchronized LatencyHistogram recentBroadcasts() {
+        long now = System.nanoTime();
+        if (now - windowStart >= WINDOW_NANOS) {
+            previousBroadcasts = now - windowStart >= 2 * WINDOW_NANOS ? new LatencyHistogram() : currentBroadcasts;
+            currentBroadcasts = new LatencyHistogram();
+            windowStart = now;
+        }
+        LatencyHistogram recent = new LatencyHistogram();
+        recent.add(previousBroadcasts);
+        recent.add(currentBroadcasts);
+        return recent;
+    }
+    // The window only moves when metrics are read, so recording never does more
+    // than update a histogram
+
+    public static final class Snapshot {
+        private final long acceptedConnections = ServerMetrics.acceptedConnections.sum();
+        private final long messagesIn = ServerMetrics.messagesIn.sum();
+        private final long messagesOut = GatheringWriter.getMessagesWritten();
+        private final long bytesIn = ServerMetrics.bytesIn.sum();
+        private final long bytesOut = ServerMetrics.bytesOut.sum();
+        private final long writeCalls = GatheringWriter.getWriteCalls();
+        private final long broadcasts = ServerMetrics.broadcasts.sum();
+        private final long broadcastNanos = ServerMetrics.broadcastNanos.sum();
+        private final LatencyHistogram recentBroadcasts = recentBroadcasts();
+        private final long outboundQueueDepth = OutboundQueue.getTotalDepth();
+        private final long droppedMessages = OutboundQueue.getTotalDropped();
+        private final Map<String, Long> disconnects = new LinkedHashMap<>();
+        private final Map<String, Long> rejectedConnections = new LinkedHashMap<>();
+        private final long rateLimitedMessages = ServerMetrics.rateLimitedMessages.sum();
+        private final long droppedClusterMessages = ServerMetrics.droppedClusterMessages.sum();
+        private int activeSessions;
+        private int maxSessionBacklog;
+        private int sessionsWithBacklog;
+
+        private Snapshot() {
+            for (DisconnectReason reason : DisconnectReason.values()) {
+                disconnects.put(reason.name(), ServerMetrics.disconnects[reason.ordinal()].sum());
+            }
+            for (RejectReason reason : RejectReason.values()) {
+                rejectedConnections.put(reason.name(), ServerMetrics.rejections[reason.ordinal()].sum());
+            }
+            for (ChatSession session : ClientHandler.sessionRegistry.snapshot()) {
+                int depth = session.getOutboundQueue().getDepth();
+                activeSessions++;
+                maxSessionBacklog = Math.max(maxSessionBacklog, depth);
+                if (depth > 0) {
+                    sessionsWithBacklog++;
+                }
+            }
+            // Per-session backlog is read here, when metrics are requested, instead of
+            // being tracked on every write
+        }
+
+        public long getAcceptedConnections() {
+            return acceptedConnections;
+        }
+
+        public int getActiveSessions() {
+            return activeSessions;
+        }
+
+        public long getMessagesIn() {
+            return messagesIn;
+        }
+
+        public long getMessagesOut() {
+            return messagesOut;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public long getBroadcasts() {
+            return broadcasts;
+        }
+
+        public long getBroadcastPercentileNanos(double percentile) {
+            return recentBroadcasts.getValueAtPercentile(percentile);
+        }
+
+        public long getBroadcastMaxNanos() {
+            return recentBroadcasts.getMax();
+        }
+
+        public long getOutboundQueueDepth() {
+            return outboundQueueDepth;
+        }
+
+        public int getMaxSessionBacklog() {
+            return maxSessionBacklog;
+        }
+
+        public int getSessionsWithBacklog() {
+            return sessionsWithBacklog;
+        }
+
+        public long getDroppedMessages() {
+            return droppedMessages;
+        }
+
+        public Map<String, Long> getDisconnects() {
+            return disconnects;
+        }
+
+        public Map<String, Long> getRejectedConnections() {
+            return rejectedConnections;
+        }
+
+        public long getRateLimitedMessages() {
+            return rateLimitedMessages;
+        }
+
+        public long getDroppedClusterMessages() {
+            return droppedClusterMessages;
+        }
+
+        public String toPrometheusText() {
+            StringBuilder out = new StringBuilder(2048);
+            counter(out, "chatroom_accepted_connections_total", "Connections accepted", acceptedConnections);
+            gauge(out, "chatroom_active_sessions", "Clients that completed the handshake", activeSessions);
+            counter(out, "chatroom_messages_in_total", "Messages and commands received from clients", messagesIn);
+            counter(out, "chatroom_messages_out_total", "Messages written to clients", messagesOut);
+            counter(out, "chatroom_bytes_in_total", "Bytes read from clients", bytesIn);
+            counter(out, "chatroom_bytes_out_total", "Bytes written to clients", bytesOut);
+            counter(out, "chatroom_write_calls_total", "Socket write calls", writeCalls);
+
+            out.append("# HELP chatroom_broadcast_seconds Time to queue a message for every member of its room,"
+                    + " percentiles over the last one to two minutes\n");
+            out.append("# TYPE chatroom_broadcast_seconds summary\n");
+            for (double quantile : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+                out.append("chatroom_broadcast_seconds{quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(recentBroadcasts.getValueAtPercentile(quantile * 100))).append('\n');
+            }
+            out.append("chatroom_broadcast_seconds_sum ").append(seconds(broadcastNanos)).append('\n');
+            out.append("chatroom_broadcast_seconds_count ").append(broadcasts).append('\n');
+            gauge(out, "chatroom_broadcast_seconds_max", "Slowest broadcast in the last one to two minutes",
+                    seconds(recentBroadcasts.getMax()));
+
+            gauge(out, "chatroom_outbound_queue_depth", "Messages queued for all clients", outboundQueueDepth);
+            gauge(out, "chatroom_session_backlog_max", "Messages queued for the most backed up client",
+                    maxSessionBacklog);
+            gauge(out, "chatroom_sessions_with_backlog", "Clients with messages waiting to be written",
+                    sessionsWithBacklog);
+            counter(out, "chatroom_dropped_messages_total", "Messages dropped from full outbound queues",
+                    droppedMessages);
+
+            byReason(out, "chatroom_disconnects_total", "Sessions ended, by reason", disconnects);
+            byReason(out, "chatroom_rejected_connections_total", "Connections turned away on accept, by reason",
+                    rejectedConnections);
+            counter(out, "chatroom_rate_limited_messages_total",
+                    "Messages and commands dropped for going over a rate limit", rateLimitedMessages);
+            counter(out, "chatroom_dropped_cluster_messages_total",
+                    "Messages from other nodes dropped as invalid", droppedClusterMessages);
+            return out.toString();
+        }
+        // Prometheus text exposition format, readable by a scraper or with curl
+
+        private static void counter(StringBuilder out, String name, String help, long value) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(" counter\n");
+            out.append(name).append(' ').append(value).append('\n');
+        }
+
+        private static void byReason(StringBuilder out, String name, String help, Map<String, Long> counts) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(" counter\n");
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                out.append(name).append("{reason=\"").append(entry.getKey().toLowerCase(Locale.ROOT))
+                        .append("\"} ").append(entry.getValue()).append('\n');
+            }
+        }
+
+        private static void gauge(StringBuilder out, String name, String help, Object value) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(" gauge\n");
+            out.append(name).append(' ').append(value).append('\n');
+        }
+
+        private static String seconds(long nanos) {
+            return Double.toString(nanos / 1e9);
+        }
+    }
+    // Every metric read at one point in time
+
+    static boolean registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Bean(), name);
+            }
+            return true;
+        } catch (JMException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+    // Makes the metrics visible to jconsole, VisualVM or any JMX client attached
+    // to the server process
+
+    static void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static final class Bean implements ServerMetricsMXBean {
+        @Override
+        public long getAcceptedConnections() {
+            return acceptedConnections.sum();
+        }
+
+        @Override
+        public int getActiveSessions() {
+            return ClientHandler.sessionRegistry.size();
+        }
+
+        @Override
+        public long getMessagesIn() {
+            return messagesIn.sum();
+        }
+
+        @Override
+        public long getMessagesOut() {
+            return GatheringWriter.getMessagesWritten();
+        }
+
+        @Override
+        public long getBytesIn() {
+            return bytesIn.sum();
+        }
+
+        @Override
+        public long getBytesOut() {
+            return bytesOut.sum();
+        }
+
+        @Override
+        public long getBroadcasts() {
+            return broadcasts.sum();
+        }
+
+        @Override
+        public double getBroadcastP50Micros() {
+            return recentBroadcasts().getValueAtPercentile(50) / 1000.0;
+        }
+
+        @Override
+        public double getBroadcastP99Micros() {
+            return recentBroadcasts().getValueAtPercentile(99) / 1000.0;
+        }
+
+        @Override
+        public double getBroadcastMaxMicros() {
+            return recentBroadcasts().getMax() / 1000.0;
+        }
+
+        @Override
+        public long getOutboundQueueDepth() {
+            return OutboundQueue.getTotalDepth();
+        }
+
+        @Override
+        public int getMaxSessionBacklog() {
+            return snapshot().getMaxSessionBacklog();
+        }
+
+        @Override
+        public long getDroppedMessages() {
+            return OutboundQueue.getTotalDropped();
+        }
+
+        @Override
+        public Map<String, Long> getDisconnects() {
+            return snapshot().getDisconnects();
+        }
+
+        @Override
+        public Map<String, Long> getRejectedConnections() {
+            return snapshot().getRejectedConnections();
+        }
+
+        @Override
+        public long getRateLimitedMessages() {
+            return rateLimitedMessages.sum();
+        }
+
+        @Override
+        public long getDroppedClusterMessages() {
+            return droppedClusterMessages.sum();
+        }
+    }
+    // JMX view of the same counters
+}
+// Server-wide operational metrics: connections, messages and bytes in and out,
+// broadcast fan-out time, outbound backlog, disconnect reasons and admission
+// control rejections. Recording is a striped counter update or a lock-free
+// histogram update, so it can sit on every hot path
@@ -0,0 +1,46 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.util.Map;
+
+public interface ServerMetricsMXBean {
+
+    long getAcceptedConnections();
+
+    int getActiveSessions();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getBroadcasts();
+
+    double getBroadcastP50Micros();
+
+    double getBroadcastP99Micros();
+
+    double getBroadcastMaxMicros();
+    // Broadcast percentiles cover the last one to two minutes
+
+    long getOutboundQueueDepth();
+
+    int getMaxSessionBacklog();
+
+    long getDroppedMessages();
+
+    Map<String, Long> getDisconnects();
+    // Sessions ended so far, by reason
+
+    Map<String, Long> getRejectedConnections();
+    // Connections turned away on accept, by reason
+
+    long getRateLimitedMessages();
+
+    long getDroppedClusterMessages();
+    // Messages from other nodes dropped as invalid
+}
+// Attributes of the com.chatroom:type=ServerMetrics MBean
@@ -0,0 +1,56 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SessionRegistry {
+
+    private static final AtomicLong nextSessionId = new AtomicLong();
+
+    private final SessionSet sessions = new SessionSet();
+    private final ConcurrentHashMap<String, ChatSession> sessionsByUsername = new ConcurrentHashMap<>();
+
+    public static long nextSessionId() {
+        return nextSessionId.incrementAndGet();
+    }
+    // Hands out unique ids for new sessions
+
+    public boolean register(ChatSession session) {
+        if (!sessions.add(session)) {
+            return false;
+        }
+        sessionsByUsername.put(session.getUsername(), session);
+        return true;
+    }
+    // Adds a session once its username is known. If two clients pick the same
+    // username, lookups by username return the newest one
+
+    public boolean unregister(ChatSession session) {
+        if (!sessions.remove(session)) {
+            return false;
+        }
+        sessionsByUsername.remove(session.getUsername(), session);
+        return true;
+    }
+    // Removes a session. Only the first call returns true
+
+    public ChatSession findById(long sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    public ChatSession findByUsername(String username) {
+        return sessionsByUsername.get(username);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public ChatSession[] snapshot() {
+        return sessions.snapshot();
+    }
+    // Current members for iterating during a broadcast
+}
+// Registry of every connected session, with O(1) join, leave and lookup by id
+// or username
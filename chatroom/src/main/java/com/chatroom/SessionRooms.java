@@ -0,0 +1,47 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SessionRooms {
+
+    public static final int NO_ROOM = -1;
+
+    private final Set<Integer> joinedRoomIds = ConcurrentHashMap.newKeySet();
+    private volatile int currentRoomId = NO_ROOM;
+
+    public boolean join(int roomId) {
+        currentRoomId = roomId;
+        return joinedRoomIds.add(roomId);
+    }
+    // Adds a room and makes it the current one. Returns false if already joined
+
+    public boolean leave(int roomId) {
+        if (!joinedRoomIds.remove(roomId)) {
+            return false;
+        }
+        if (currentRoomId == roomId) {
+            currentRoomId = joinedRoomIds.contains(RoomRegistry.LOBBY_ID) ? RoomRegistry.LOBBY_ID
+                    : joinedRoomIds.stream().findFirst().orElse(NO_ROOM);
+        }
+        // Falls back to the lobby, or any other joined room, when leaving the current one
+        return true;
+    }
+
+    public boolean isMember(int roomId) {
+        return joinedRoomIds.contains(roomId);
+    }
+
+    public int getCurrentRoomId() {
+        return currentRoomId;
+    }
+    // Room that text clients' messages go to, the most recently joined one
+
+    public List<Integer> getJoinedRoomIds() {
+        return new ArrayList<>(joinedRoomIds);
+    }
+}
+// Rooms a single session has joined
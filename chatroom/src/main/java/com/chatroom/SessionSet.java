@@ -0,0 +1,73 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SessionSet {
+
+    private static final ChatSession[] EMPTY = new ChatSession[0];
+
+    private final ConcurrentHashMap<Long, ChatSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot = new Snapshot(0, EMPTY);
+
+    public boolean add(ChatSession session) {
+        if (sessions.putIfAbsent(session.getSessionId(), session) == null) {
+            version.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+    // Adds a session in O(1). Returns false if it was already a member
+
+    public boolean remove(ChatSession session) {
+        if (sessions.remove(session.getSessionId(), session)) {
+            version.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+    // Removes a session in O(1). Returns false if it was not a member, which lets
+    // callers announce a leave exactly once
+
+    public boolean contains(ChatSession session) {
+        return sessions.get(session.getSessionId()) == session;
+    }
+
+    public ChatSession get(long sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public ChatSession[] snapshot() {
+        Snapshot current = snapshot;
+        long currentVersion = version.get();
+        if (current.version == currentVersion) {
+            return current.sessions;
+        }
+        ChatSession[] sessionsNow = sessions.values().toArray(EMPTY);
+        snapshot = new Snapshot(currentVersion, sessionsNow);
+        return sessionsNow;
+    }
+    // Returns an array of the members for fan-out. The array is only rebuilt after
+    // a join or leave, so joins and leaves stay O(1) and broadcasts between them
+    // share the same array without locking. The version is read before the map
+    // so a rebuilt array never misses a change it claims to include
+
+    private static final class Snapshot {
+        private final long version;
+        private final ChatSession[] sessions;
+
+        private Snapshot(long version, ChatSession[] sessions) {
+            this.version = version;
+            this.sessions = sessions;
+        }
+    }
+    // Array and the membership version it was built from, published together
+}
+// Concurrent set of sessions keyed by session id, with a copy-on-write array
+// used to iterate the members during a broadcast
@@ -0,0 +1,313 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+public class TcpMeshTransport implements ClusterTransport {
+
+    static final int PEER_QUEUE_CAPACITY = 64 * 1024;
+    static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    static final long RECONNECT_DELAY_MILLIS = 1000;
+    static final long HEARTBEAT_MILLIS = 1000;
+    static final int PEER_TIMEOUT_MILLIS = 5000;
+    // A node that has not sent anything for this long, not even a heartbeat, is
+    // considered gone
+    static final int NONCE_LENGTH = 16;
+    static final byte LINK_ACCEPTED = 1;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] DEFAULT_KEY = "chatroom-cluster".getBytes(StandardCharsets.UTF_8);
+    // Without a secret links go through the same handshake, which then only shows
+    // that the peer speaks this protocol
+
+    private final String nodeId;
+    private final String bindAddress;
+    private final int port;
+    private final byte[] key;
+    private final SecureRandom random = new SecureRandom();
+    private final List<PeerLink> peers = new ArrayList<>();
+    private final Set<Socket> inboundSockets = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> inboundLinks = new ConcurrentHashMap<>();
+    // Open inbound links per node. A reconnecting node can briefly have two
+    private ServerSocket serverSocket;
+    private volatile Listener listener;
+    private volatile boolean running;
+
+    public TcpMeshTransport(String nodeId, int port, List<InetSocketAddress> peerAddresses) {
+        this(nodeId, "127.0.0.1", port, peerAddresses, null);
+    }
+
+    public TcpMeshTransport(String nodeId, String bindAddress, int port, List<InetSocketAddress> peerAddresses,
+            String secret) {
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.key = secret == null ? DEFAULT_KEY : secret.getBytes(StandardCharsets.UTF_8);
+        for (InetSocketAddress address : peerAddresses) {
+            peers.add(new PeerLink(address));
+        }
+    }
+
+    @Override
+    public void start(Listener listener) throws IOException {
+        this.listener = listener;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bindAddress, port));
+        running = true;
+        startThread(this::acceptLoop, "cluster-acceptor");
+        for (PeerLink peer : peers) {
+            startThread(peer::run, "cluster-link-" + peer.address.getPort());
+        }
+    }
+    // Listens for the other nodes' links and opens one link to every peer.
+    // Messages go out on the links this node opened and come in on the ones the
+    // peers opened, so each pair of nodes needs no agreement on who connects
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+        byte[] encoded = null;
+        for (PeerLink peer : peers) {
+            if (!peer.connected) {
+                continue;
+            }
+            if (encoded == null) {
+                encoded = message.encode();
+            }
+            // Encoded once, each link writes the same bytes
+            peer.queue.offer(encoded);
+            // A peer too far behind misses the message rather than holding up the
+            // sender, the membership resent when its link comes back repairs rooms
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (PeerLink peer : peers) {
+            peer.close();
+        }
+        for (Socket socket : inboundSockets) {
+            closeQuietly(socket);
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                inboundSockets.add(socket);
+                startThread(() -> readLoop(socket), "cluster-reader");
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        String peerNodeId = null;
+        try {
+            socket.setSoTimeout(PEER_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            byte[] nonce = new byte[NONCE_LENGTH];
+            random.nextBytes(nonce);
+            out.write(nonce);
+            out.flush();
+            String claimedNodeId = in.readUTF();
+            byte[] proof = new byte[sign(nonce, claimedNodeId).length];
+            in.readFully(proof);
+            if (!MessageDigest.isEqual(proof, sign(nonce, claimedNodeId))) {
+                System.out.println("Refused cluster link from " + socket.getRemoteSocketAddress()
+                        + ", it does not know the cluster secret");
+                return;
+            }
+            out.writeByte(LINK_ACCEPTED);
+            out.flush();
+            // Every link starts with the id of the node that opened it and proof that
+            // it knows the secret: a MAC over a fresh random challenge, so a recorded
+            // handshake cannot be replayed
+
+            peerNodeId = claimedNodeId;
+            inboundLinks.merge(peerNodeId, 1, Integer::sum);
+
+            while (running) {
+                ClusterMessage message = ClusterMessage.read(in);
+                if (message != null) {
+                    listener.onMessage(message);
+                }
+            }
+        } catch (IOException e) {
+            // The peer closed its link, went quiet for too long or sent garbage
+        } finally {
+            inboundSockets.remove(socket);
+            closeQuietly(socket);
+            if (peerNodeId != null && inboundLinks.merge(peerNodeId, -1, Integer::sum) <= 0) {
+                inboundLinks.remove(peerNodeId, 0);
+                if (running) {
+                    listener.onPeerDisconnected(peerNodeId);
+                }
+            }
+            // Only once the node's last link is gone, the old link of a node that has
+            // already reconnected can close after the new one delivered its membership
+        }
+    }
+    // Reads the messages of one peer in the order it sent them
+
+    private byte[] sign(byte[] nonce, String linkNodeId) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+            mac.update(nonce);
+            mac.update(linkNodeId.getBytes(StandardCharsets.UTF_8));
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        // Every JDK ships HmacSHA256
+    }
+
+    private static void startThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private final class PeerLink {
+        private final InetSocketAddress address;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(PEER_QUEUE_CAPACITY);
+        private volatile boolean connected;
+        private volatile Socket socket;
+        private boolean refusalReported;
+
+        private PeerLink(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        private void run() {
+            while (running) {
+                try (Socket linkSocket = new Socket()) {
+                    socket = linkSocket;
+                    linkSocket.connect(new InetSocketAddress(address.getHostString(), address.getPort()),
+                            CONNECT_TIMEOUT_MILLIS);
+                    // Resolved again on every attempt, so a peer that was not in DNS yet is
+                    // found once it is
+                    linkSocket.setTcpNoDelay(true);
+                    linkSocket.setSoTimeout(PEER_TIMEOUT_MILLIS);
+                    DataInputStream in = new DataInputStream(linkSocket.getInputStream());
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                            linkSocket.getOutputStream(), 64 * 1024));
+                    byte[] nonce = new byte[NONCE_LENGTH];
+                    in.readFully(nonce);
+                    out.writeUTF(nodeId);
+                    out.write(sign(nonce, nodeId));
+                    out.flush();
+                    if (in.read() != LINK_ACCEPTED) {
+                        if (!refusalReported) {
+                            refusalReported = true;
+                            System.out.println("Cluster link to " + address + " was refused, check clusterSecret");
+                        }
+                        throw new ProtocolException("Cluster link refused");
+                    }
+                    refusalReported = false;
+                    linkSocket.setSoTimeout(0);
+                    // Answers the peer's challenge. A peer with another secret closes the link
+                    queue.clear();
+                    connected = true;
+                    listener.onPeerConnected();
+                    // Anything queued before the link was up is stale, the membership sent on
+                    // connect replaces it
+
+                    while (running) {
+                        byte[] message = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                        if (message == null) {
+                            out.writeInt(0);
+                            out.flush();
+                            continue;
+                        }
+                        // Idle links carry a heartbeat so the peer can tell a quiet node from a
+                        // dead one
+                        out.write(message);
+                        while ((message = queue.poll()) != null) {
+                            out.write(message);
+                        }
+                        out.flush();
+                        // Everything queued while the last write was in progress goes out in one
+                        // flush
+                    }
+                } catch (IOException e) {
+                    // Peer not up yet or the link broke, try again after a pause
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    connected = false;
+                }
+                sleep(RECONNECT_DELAY_MILLIS);
+            }
+        }
+        // Keeps one outbound link to the peer open, reconnecting whenever it fails
+
+        private void close() {
+            Socket current = socket;
+            if (current != null) {
+                closeQuietly(current);
+            }
+        }
+
+        private void sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    // Outbound link to one peer with its own bounded send queue, so a slow or
+    // unreachable node never holds up the others
+}
+// Cluster transport that connects every node directly to every other node over
+// TCP. Meant for a handful of nodes, each listed with the others as peers
@@ -0,0 +1,58 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import java.util.function.LongSupplier;
+
+final class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private final LongSupplier nanoClock;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double tokensPerSecond, double capacity) {
+        this(tokensPerSecond, capacity, System::nanoTime);
+    }
+
+    TokenBucket(double tokensPerSecond, double capacity, LongSupplier nanoClock) {
+        if (tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("Token rate must be greater than 0.");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Token capacity must be at least 1.");
+        }
+        this.tokensPerNano = tokensPerSecond / 1e9;
+        this.capacity = capacity;
+        this.nanoClock = nanoClock;
+        this.tokens = capacity;
+        this.lastRefill = nanoClock.getAsLong();
+    }
+    // Starts full, so a client may send a burst of up to capacity right away. The
+    // clock is System.nanoTime() except in tests
+
+    synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+    // Takes one token if there is one. Never waits
+
+    synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+    // A full bucket has not been used for a while and can be forgotten
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+    // Tokens are added for the time since the last call instead of by a timer
+}
+// Token bucket rate limiter: allows a steady rate with bursts up to the
+// bucket's capacity
@@ -0,0 +1,240 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class AdmissionControlTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+    private final ServerConfig config = new ServerConfig();
+
+    @Test
+    void everythingIsAllowedByDefault() throws UnknownHostException {
+        AdmissionControl admission = new AdmissionControl(config, now::get);
+        for (int i = 0; i < 1000; i++) {
+            assertNull(admission.admit(address(1)));
+        }
+        AdmissionControl.SessionLimits limits = admission.newSessionLimits(address(1));
+        RecordingSession session = new RecordingSession();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limits.allowMessage(session));
+        }
+    }
+
+    @Test
+    void sessionCapRejectsUntilASlotIsReleased() throws UnknownHostException {
+        config.setMaxSessions(2);
+        AdmissionControl admission = new AdmissionControl(config, now::get);
+        assertNull(admission.admit(address(1)));
+        assertNull(admission.admit(address(2)));
+        assertEquals(ServerMetrics.RejectReason.SERVER_FULL, admission.admit(address(3)));
+        assertEquals(ServerMetrics.RejectReason.SERVER_FULL, admission.admit(address(3)));
+
+        admission.release();
+        assertNull(admission.admit(address(3)));
+        assertEquals(ServerMetrics.RejectReason.SERVER_FULL, admission.admit(address(4)));
+    }
+
+    @Test
+    void connectRateIsPerSourceAddress() throws UnknownHostException {
+        config.setConnectRate(2);
+        AdmissionControl admission = new AdmissionControl(config, now::get);
+        assertNull(admission.admit(address(1)));
+        assertNull(admission.admit(address(1)));
+        assertEquals(ServerMetrics.RejectReason.CONNECT_RATE, admission.admit(address(1)));
+        assertNull(admission.admit(address(2)));
+
+        advanceMillis(500);
+        assertNull(admission.admit(address(1)));
+        assertEquals(ServerMetrics.RejectReason.CONNECT_RATE, admission.admit(address(1)));
+    }
+
+    @Test
+    void connectRateRejectionDoesNotTakeASessionSlot() throws UnknownHostException {
+        config.setConnectRate(1);
+        config.setMaxSessions(2);
+        AdmissionControl admission = new AdmissionControl(config, now::get);
+        assertNull(admission.admit(address(1)));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(ServerMetrics.RejectReason.CONNECT_RATE, admission.admit(address(1)));
+        }
+        assertNull(admission.admit(address(2)));
+        assertEquals(ServerMetrics.RejectReason.SERVER_FULL, admission.admit(address(3)));
+    }
+
+    @Test
+    void sessionMessageRateWarnsOncePerBurst() throws UnknownHostException {
+        config.setMessageRate(5);
+        config.setMessageBurst(3);
+        AdmissionControl admission = new AdmissionControl(config, now::get);
+        AdmissionControl.SessionLimits limits = admission.newSessionLimits(address(1));
+        RecordingSession session = new RecordingSession();
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limits.allowMessage(session));
+        }
+        assertFalse(limits.allowMessage(session));
+        assertFalse(limits.allowMessage(session));
+        assertEquals(1, session.delivered.size());
+
+        advanceMillis(200);
+        assertTrue(limits.allowMessage(session));
+        assertFalse(limits.allowMessage(session));
+        assertEquals(2, session.delivered.size());
+        // Warned again after a message got through
+    }
+
+    @Test
+    void sourceMessageRateIsSharedBySessionsFromOneAddress() throws UnknownHostException {
+        config.setIpMessageRate(4);
+        config.setMessageBurst(1);
+        AdmissionControl admission = new AdmissionControl(config, now::get);
+        AdmissionControl.SessionLimits first = admission.newSessionLimits(address(1));
+        AdmissionControl.SessionLimits second = admission.newSessionLimits(address(1));
+        AdmissionControl.SessionLimits other = admission.newSessionLimits(address(2));
+        RecordingSession session = new RecordingSession();
+
+        assertTrue(first.allowMessage(session));
+        assertTrue(second.allowMessage(session));
+        assertTrue(first.allowMessage(session));
+        assertTrue(second.allowMessage(session));
+        assertFalse(first.allowMessage(session));
+        assertFalse(second.allowMessage(session));
+        assertTrue(other.allowMessage(session));
+
+        advanceMillis(250);
+        assertTrue(second.allowMessage(session));
+        assertFalse(first.allowMessage(session));
+    }
+
+    @Test
+    void sessionAndSourceLimitsBothApply() throws UnknownHostException {
+        config.setMessageRate(1);
+        config.setMessageBurst(2);
+        config.setIpMessageRate(100);
+        AdmissionControl admission = new AdmissionControl(config, now::get);
+        AdmissionControl.SessionLimits limits = admission.newSessionLimits(address(1));
+        RecordingSession session = new RecordingSession();
+        assertTrue(limits.allowMessage(session));
+        assertTrue(limits.allowMessage(session));
+        assertFalse(limits.allowMessage(session));
+    }
+
+    @Test
+    void sourceWithOpenSessionsIsNeverEvicted() throws UnknownHostException {
+        config.setIpMessageRate(2);
+        config.setMessageBurst(1);
+        AdmissionControl admission = new AdmissionControl(config, now::get);
+        AdmissionControl.SessionLimits first = admission.newSessionLimits(address(1));
+        RecordingSession session = new RecordingSession();
+        advanceMillis(10_000);
+        // The bucket is full again, only the open session keeps the address tracked
+
+        List<AdmissionControl.SessionLimits> flood = openSessions(admission, AdmissionControl.MAX_TRACKED_SOURCES + 1);
+        flood.forEach(AdmissionControl.SessionLimits::close);
+        advanceMillis(2_000);
+        admission.newSessionLimits(address(2));
+        assertEquals(2, admission.getTrackedSources());
+
+        AdmissionControl.SessionLimits second = admission.newSessionLimits(address(1));
+        assertTrue(first.allowMessage(session));
+        assertTrue(first.allowMessage(session));
+        assertFalse(second.allowMessage(session));
+    }
+
+    @Test
+    void idleSourcesAreSweptAtMostOncePerInterval() throws UnknownHostException {
+        config.setIpMessageRate(2);
+        AdmissionControl admission = new AdmissionControl(config, now::get);
+        List<AdmissionControl.SessionLimits> flood = openSessions(admission, AdmissionControl.MAX_TRACKED_SOURCES + 2);
+        assertEquals(AdmissionControl.MAX_TRACKED_SOURCES + 2, admission.getTrackedSources());
+        // Swept once the limit was passed, but every address still had a session
+
+        flood.forEach(AdmissionControl.SessionLimits::close);
+        advanceMillis(500);
+        admission.newSessionLimits(address(1));
+        assertEquals(AdmissionControl.MAX_TRACKED_SOURCES + 3, admission.getTrackedSources());
+
+        advanceMillis(600);
+        admission.newSessionLimits(address(2));
+        assertEquals(2, admission.getTrackedSources());
+    }
+
+    private static List<AdmissionControl.SessionLimits> openSessions(AdmissionControl admission, int count)
+            throws UnknownHostException {
+        List<AdmissionControl.SessionLimits> sessions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int host = 0x10000 + i;
+            sessions.add(admission.newSessionLimits(InetAddress.getByAddress(
+                    new byte[] { 10, (byte) (host >> 16), (byte) (host >> 8), (byte) host })));
+        }
+        return sessions;
+    }
+    // One session from each of count addresses outside the 10.0.0.x range
+
+    private void advanceMillis(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static InetAddress address(int host) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) host });
+    }
+
+    private static final class RecordingSession implements ChatSession {
+        private final List<OutboundMessage> delivered = new ArrayList<>();
+
+        @Override
+        public long getSessionId() {
+            return 1;
+        }
+
+        @Override
+        public String getUsername() {
+            return "tester";
+        }
+
+        @Override
+        public SessionRooms getRooms() {
+            return null;
+        }
+
+        @Override
+        public void deliver(OutboundMessage message) {
+            delivered.add(message);
+        }
+
+        @Override
+        public OutboundQueue<ByteBuffer> getOutboundQueue() {
+            return null;
+        }
+
+        @Override
+        public boolean hasPendingWrites() {
+            return false;
+        }
+
+        @Override
+        public void close(ServerMetrics.DisconnectReason reason) {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+    }
+}
+// Connection caps and connect and message rates, with a clock the test advances
+// by hand
@@ -0,0 +1,159 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class BinaryProtocolTest {
+
+    private static final int MAX_LENGTH = 64 * 1024;
+
+    @Test
+    void roundTripKeepsEveryField() throws IOException {
+        ChatFrame frame = new ChatFrame(ChatFrame.TYPE_CHAT, ChatFrame.FLAG_REPLAY, 7, 42L, 1_700_000_000_000L,
+                "alice", "h\u00e9llo w\u00f6rld".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer encoded = BinaryProtocol.encode(frame, false);
+        assertEquals(BinaryProtocol.encodedLength(frame), encoded.remaining());
+        assertEquals(encoded.remaining() - 4, encoded.getInt());
+
+        ChatFrame decoded = BinaryProtocol.decode(encoded);
+        assertEquals(ChatFrame.TYPE_CHAT, decoded.getType());
+        assertEquals(ChatFrame.FLAG_REPLAY, decoded.getFlags());
+        assertEquals(7, decoded.getRoomId());
+        assertEquals(42L, decoded.getSenderId());
+        assertEquals(1_700_000_000_000L, decoded.getTimestamp());
+        assertEquals("alice", decoded.getSenderName());
+        assertEquals("h\u00e9llo w\u00f6rld", decoded.getText());
+    }
+
+    @Test
+    void readFrameReadsConsecutiveFramesAndNullAtEndOfStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryProtocol.writeFrame(out, ChatFrame.chat(1, 2, "bob", "first"));
+        BinaryProtocol.writeFrame(out, ChatFrame.system(1, "second"));
+        DataInputStream in = stream(out.toByteArray());
+
+        assertEquals("first", BinaryProtocol.readFrame(in, MAX_LENGTH).getText());
+        assertEquals("second", BinaryProtocol.readFrame(in, MAX_LENGTH).getText());
+        assertNull(BinaryProtocol.readFrame(in, MAX_LENGTH));
+    }
+
+    @Test
+    void truncatedFrameBodyFails() throws IOException {
+        byte[] encoded = bytes(BinaryProtocol.encode(ChatFrame.chat(1, 2, "bob", "cut short"), false));
+        DataInputStream in = stream(Arrays.copyOf(encoded, encoded.length - 3));
+        assertThrows(EOFException.class, () -> BinaryProtocol.readFrame(in, MAX_LENGTH));
+    }
+
+    @Test
+    void lengthShorterThanHeaderIsRejected() {
+        DataInputStream in = stream(ByteBuffer.allocate(4 + 4).putInt(4).array());
+        assertThrows(ProtocolException.class, () -> BinaryProtocol.readFrame(in, MAX_LENGTH));
+    }
+
+    @Test
+    void oversizedLengthIsRejectedBeforeReadingTheBody() {
+        DataInputStream in = stream(ByteBuffer.allocate(4).putInt(MAX_LENGTH + 1).array());
+        assertThrows(ProtocolException.class, () -> BinaryProtocol.readFrame(in, MAX_LENGTH));
+        DataInputStream negative = stream(ByteBuffer.allocate(4).putInt(-1).array());
+        assertThrows(ProtocolException.class, () -> BinaryProtocol.readFrame(negative, MAX_LENGTH));
+    }
+
+    @Test
+    void senderNameLongerThanFrameIsRejected() {
+        ByteBuffer body = ByteBuffer.allocate(BinaryProtocol.HEADER_LENGTH + 2);
+        body.put(ChatFrame.TYPE_CHAT).put((byte) 0).putInt(1).putLong(2).putLong(3).putShort((short) 100);
+        body.put((byte) 'a').put((byte) 'b').flip();
+        assertThrows(ProtocolException.class, () -> BinaryProtocol.decode(body));
+    }
+
+    @Test
+    void unknownTypeIsDecodedForTheRouterToIgnore() throws IOException {
+        ChatFrame frame = new ChatFrame((byte) 99, (byte) 0, 1, 2, 3, "", new byte[] { 1, 2, 3 });
+        ByteBuffer encoded = BinaryProtocol.encode(frame, false);
+        encoded.getInt();
+        ChatFrame decoded = BinaryProtocol.decode(encoded);
+        assertEquals(99, decoded.getType());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, decoded.getPayload());
+    }
+    // Newer clients may send types this server does not know, so they must decode
+
+    @Test
+    void magicMustMatchExactly() throws IOException {
+        assertTrue(BinaryProtocol.readMagic(stream(BinaryProtocol.MAGIC)));
+        assertFalse(BinaryProtocol.readMagic(stream(new byte[] { 0, 'C', 'B', BinaryProtocol.VERSION + 1 })));
+        assertFalse(BinaryProtocol.readMagic(stream(new byte[] { 0, 'X', 'Y', BinaryProtocol.VERSION })));
+        assertFalse(BinaryProtocol.readMagic(stream(new byte[] { 0, 'C' })));
+    }
+
+    @Test
+    void handshakeAckEchoesMagicAndCarriesSessionId() throws IOException {
+        DataInputStream in = stream(bytes(BinaryProtocol.handshakeAck(123L, "carol", true)));
+        assertTrue(BinaryProtocol.readMagic(in));
+        ChatFrame hello = BinaryProtocol.readFrame(in, MAX_LENGTH);
+        assertEquals(ChatFrame.TYPE_HELLO, hello.getType());
+        assertEquals(123L, hello.getSenderId());
+        assertEquals("carol", hello.getText());
+        assertEquals(ChatFrame.FLAG_COMPRESSION, hello.getFlags() & ChatFrame.FLAG_COMPRESSION);
+    }
+
+    @Test
+    void compressedPayloadIsInflatedOnDecode() throws IOException {
+        String text = "\tat com.example.Service.call(Service.java:42)\n".repeat(40);
+        ChatFrame compressed = FrameCompression.compress(ChatFrame.chat(1, 2, "dave", text));
+        assertEquals(ChatFrame.FLAG_COMPRESSED, compressed.getFlags() & ChatFrame.FLAG_COMPRESSED);
+        assertTrue(compressed.getPayload().length < text.length() / 4);
+
+        DataInputStream in = stream(bytes(BinaryProtocol.encode(compressed, false)));
+        ChatFrame decoded = BinaryProtocol.readFrame(in, MAX_LENGTH);
+        assertEquals(0, decoded.getFlags() & ChatFrame.FLAG_COMPRESSED);
+        assertEquals(text, decoded.getText());
+    }
+
+    @Test
+    void compressedPayloadOverTheLimitIsRejected() {
+        String text = "x".repeat(10_000);
+        ChatFrame compressed = FrameCompression.compress(ChatFrame.chat(1, 2, "eve", text));
+        DataInputStream in = stream(bytes(BinaryProtocol.encode(compressed, false)));
+        assertThrows(ProtocolException.class, () -> BinaryProtocol.readFrame(in, 1000));
+    }
+    // A small frame must not be able to claim a huge inflated payload
+
+    @Test
+    void corruptCompressedPayloadIsRejected() {
+        ChatFrame compressed = FrameCompression.compress(ChatFrame.chat(1, 2, "eve", "y".repeat(1000)));
+        byte[] payload = compressed.getPayload().clone();
+        payload[payload.length - 1] ^= 0x55;
+        payload[5] ^= 0x55;
+        ChatFrame corrupt = new ChatFrame(compressed.getType(), compressed.getFlags(), 1, 2, 3, "eve", payload);
+        DataInputStream in = stream(bytes(BinaryProtocol.encode(corrupt, false)));
+        assertThrows(ProtocolException.class, () -> BinaryProtocol.readFrame(in, MAX_LENGTH));
+    }
+
+    private static DataInputStream stream(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
+// Round trips and the rejection paths of the binary framing
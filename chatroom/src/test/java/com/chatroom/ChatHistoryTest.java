@@ -0,0 +1,122 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChatHistoryTest {
+
+    private static final long MODIFIED = 1_600_000_000_000L;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void legacyFileWithoutTimestampsIsMigrated() throws IOException {
+        File legacy = write("chat_history.json",
+                "[\n  {\"sender\": \"alice\", \"message\": \"first\"},\n"
+                        + "  {\"sender\": \"bob\", \"message\": \"second\", \"timestamp\": null},\n  null\n]");
+
+        List<ChatMessage> messages = migrate();
+        assertEquals(2, messages.size());
+        assertEquals("alice", messages.get(0).getSender());
+        assertEquals("first", messages.get(0).getMessage());
+        assertEquals("second", messages.get(1).getMessage());
+        assertEquals(MODIFIED, messages.get(0).getTimestamp().getTime());
+        assertEquals(MODIFIED, messages.get(1).getTimestamp().getTime());
+        assertFalse(legacy.exists());
+        assertTrue(new File(directory, "chat_history.json.migrated").exists());
+    }
+
+    @Test
+    void journalLinesWithoutTimestampTakeThePreviousOne() throws IOException {
+        File journal = write("chat_history.jsonl",
+                "{\"sender\":\"alice\",\"message\":\"no time\"}\n"
+                        + "{\"sender\":\"bob\",\"message\":\"timed\",\"timestamp\":1700000000000}\n"
+                        + "{\"sender\":\"carol\",\"message\":\"torn\n"
+                        + "{\"sender\":\"dave\",\"message\":\"after\",\"timestamp\":null}\n");
+
+        List<ChatMessage> messages = migrate();
+        assertEquals(3, messages.size());
+        assertEquals(MODIFIED, messages.get(0).getTimestamp().getTime());
+        assertEquals(1_700_000_000_000L, messages.get(1).getTimestamp().getTime());
+        assertEquals("dave", messages.get(2).getSender());
+        assertEquals(1_700_000_000_000L, messages.get(2).getTimestamp().getTime());
+        assertFalse(journal.exists());
+    }
+
+    @Test
+    void migratedHistoryIsNotImportedAgain() throws IOException {
+        write("chat_history.json", "[{\"sender\": \"alice\", \"message\": \"once\"}]");
+        assertEquals(1, migrate().size());
+        write("chat_history.json", "[{\"sender\": \"alice\", \"message\": \"twice\"}]");
+        List<ChatMessage> messages = migrate();
+        assertEquals(1, messages.size());
+        assertEquals("once", messages.get(0).getMessage());
+    }
+
+    @Test
+    void importInterruptedPartWayIsRedoneFromTheStart() throws IOException {
+        SegmentedLog partial = new SegmentedLog(new File(directory, "chat_history.migrating"), 1024, 4);
+        partial.append(MODIFIED, "{\"sender\":\"alice\",\"message\":\"half\"}".getBytes(StandardCharsets.UTF_8));
+        partial.close();
+        File legacy = write("chat_history.json",
+                "[{\"sender\": \"alice\", \"message\": \"first\"}, {\"sender\": \"bob\", \"message\": \"second\"}]");
+
+        List<ChatMessage> messages = migrate();
+        assertEquals(2, messages.size());
+        assertEquals("first", messages.get(0).getMessage());
+        assertEquals("second", messages.get(1).getMessage());
+        assertFalse(legacy.exists());
+        assertFalse(new File(directory, "chat_history.migrating").exists());
+    }
+
+    @Test
+    void importThatCrashedBeforeTheRenameIsNotRepeated() throws IOException {
+        File journal = write("chat_history.jsonl", "{\"sender\":\"alice\",\"message\":\"once\"}\n");
+        assertEquals(1, migrate().size());
+        File migrated = new File(directory, "chat_history.jsonl.migrated");
+        assertTrue(migrated.renameTo(journal));
+        // As if the process died after the new log was in place
+
+        List<ChatMessage> messages = migrate();
+        assertEquals(1, messages.size());
+        assertFalse(journal.exists());
+        assertTrue(migrated.exists());
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(MODIFIED));
+        return file;
+    }
+
+    private List<ChatMessage> migrate() {
+        ChatHistory history = new ChatHistory(new File(directory, "chat_history").getPath());
+        try {
+            history.load();
+            List<ChatMessage> messages = new ArrayList<>();
+            history.read(history.getStartOffset(), history.getEndOffset(), (offset, message) -> {
+                assertNotNull(message.getTimestamp());
+                messages.add(message);
+            });
+            return messages;
+        } finally {
+            history.close();
+        }
+    }
+}
+// Import of the history files written by older client versions
@@ -0,0 +1,146 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class ClusterNodeTest {
+
+    private static final int WINDOW = ClusterNode.DEDUP_WINDOW;
+
+    @Test
+    void duplicateIsDeliveredOnce() {
+        ClusterNode.OriginWindow window = new ClusterNode.OriginWindow();
+        assertTrue(window.firstDelivery(1, 0));
+        assertTrue(window.firstDelivery(1, 1));
+        assertFalse(window.firstDelivery(1, 1));
+        assertFalse(window.firstDelivery(1, 0));
+    }
+
+    @Test
+    void outOfOrderArrivalIsDeliveredOnce() {
+        ClusterNode.OriginWindow window = new ClusterNode.OriginWindow();
+        assertTrue(window.firstDelivery(1, 5));
+        assertTrue(window.firstDelivery(1, 2));
+        assertTrue(window.firstDelivery(1, 4));
+        assertFalse(window.firstDelivery(1, 2));
+        assertTrue(window.firstDelivery(1, 3));
+        assertFalse(window.firstDelivery(1, 5));
+    }
+
+    @Test
+    void messagesOlderThanTheWindowAreDropped() {
+        ClusterNode.OriginWindow window = new ClusterNode.OriginWindow();
+        assertTrue(window.firstDelivery(1, 0));
+        assertTrue(window.firstDelivery(1, WINDOW));
+        assertFalse(window.firstDelivery(1, 0));
+        assertTrue(window.firstDelivery(1, 1));
+        assertFalse(window.firstDelivery(1, 1));
+    }
+
+    @Test
+    void slotsReusedByNewerNumbersForgetOlderOnes() {
+        ClusterNode.OriginWindow window = new ClusterNode.OriginWindow();
+        assertTrue(window.firstDelivery(1, 10));
+        assertTrue(window.firstDelivery(1, 10 + 3 * WINDOW / 2));
+        assertTrue(window.firstDelivery(1, 10 + WINDOW));
+        // Shares its slot with 10, which has left the window
+        assertFalse(window.firstDelivery(1, 10 + WINDOW));
+        assertTrue(window.firstDelivery(1, 10 + 3 * WINDOW / 2 - 1));
+    }
+
+    @Test
+    void newEpochStartsAgainAndOldEpochIsDropped() {
+        ClusterNode.OriginWindow window = new ClusterNode.OriginWindow();
+        assertTrue(window.firstDelivery(1, 100));
+        assertTrue(window.firstDelivery(2, 0));
+        assertTrue(window.firstDelivery(2, 100));
+        assertFalse(window.firstDelivery(1, 101));
+        // Left over from before the origin restarted
+    }
+
+    @Test
+    void repeatedMembershipChangeIsAppliedOnce() {
+        RecordingTransport transport = new RecordingTransport();
+        ClusterNode node = new ClusterNode("a", transport);
+        node.onMessage(ClusterMessage.memberChanged("b", 1, 0, true, "cluster-dedup", 7));
+        node.onMessage(ClusterMessage.memberChanged("b", 1, 1, false, "cluster-dedup", 7));
+        node.onMessage(ClusterMessage.memberChanged("b", 1, 0, true, "cluster-dedup", 7));
+        assertEquals(0, node.remoteMemberCount("cluster-dedup"));
+        // The join arriving again over another path must not bring the member back
+    }
+
+    @Test
+    void invalidRemoteRoomNamesAreDropped() {
+        ClusterNode node = new ClusterNode("a", new RecordingTransport());
+        long dropped = ServerMetrics.snapshot().getDroppedClusterMessages();
+
+        node.onMessage(ClusterMessage.memberChanged("b", 1, 0, true, "../../etc", 7));
+        Map<String, Set<Long>> membership = new HashMap<>();
+        membership.put("fine", new HashSet<>(Collections.singleton(8L)));
+        membership.put("bad/name", new HashSet<>(Collections.singleton(9L)));
+        node.onMessage(ClusterMessage.membership("b", 1, 1, membership));
+
+        assertEquals(dropped + 2, ServerMetrics.snapshot().getDroppedClusterMessages());
+        assertEquals(0, node.remoteMemberCount("fine"));
+        assertEquals(null, MessageRouter.roomRegistry.findByName("../../etc"));
+    }
+
+    @Test
+    void remoteNamesAreNormalised() {
+        ClusterNode node = new ClusterNode("a", new RecordingTransport());
+        node.onMessage(ClusterMessage.memberChanged("b", 1, 0, true, "#Cluster-Case", 7));
+        assertEquals(1, node.remoteMemberCount("cluster-case"));
+    }
+
+    @Test
+    void relaysOnlyRoomsWithRemoteMembers() {
+        RecordingTransport transport = new RecordingTransport();
+        ClusterNode node = new ClusterNode("a", transport, false);
+        Room room = new Room(1000, "cluster-relay");
+        OutboundMessage message = OutboundMessage.of(ChatFrame.chat(room.getId(), 1, "alice", "hello"));
+
+        node.relay(room, message);
+        assertTrue(transport.published.isEmpty());
+
+        node.onMessage(ClusterMessage.memberChanged("b", 1, 0, true, room.getName(), 7));
+        node.relay(room, message);
+        assertEquals(1, transport.published.size());
+        assertEquals(ClusterMessage.TYPE_RELAY, transport.published.get(0).getType());
+        assertEquals("hello", transport.published.get(0).getFrame().getText());
+
+        node.onPeerDisconnected("b");
+        assertEquals(0, node.remoteMemberCount(room.getName()));
+        node.relay(room, message);
+        assertEquals(1, transport.published.size());
+    }
+
+    private static final class RecordingTransport implements ClusterTransport {
+        private final List<ClusterMessage> published = new ArrayList<>();
+
+        @Override
+        public void start(Listener listener) {
+        }
+
+        @Override
+        public void publish(ClusterMessage message) {
+            published.add(message);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
+// Exactly-once delivery and remote membership bookkeeping of a cluster node
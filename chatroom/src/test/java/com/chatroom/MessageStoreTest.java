@@ -0,0 +1,150 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MessageStoreTest {
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    @TempDir
+    File directory;
+
+    private final Room room = new Room(1, "store-test");
+
+    @Test
+    void replayStreamsTheRequestedMessages() throws Exception {
+        MessageStore store = storeWithMessages(20);
+        try {
+            RecordingSession session = new RecordingSession(true);
+            store.replay(session, room, "5", false);
+            String end = session.awaitText("End of history");
+            assertEquals("[SERVER] End of history for #store-test, next offset 20.", end);
+            assertEquals(5, session.replayed());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void replayToAClientThatStopsReadingGivesUp() throws Exception {
+        MessageStore store = storeWithMessages(20);
+        store.setReplayStallMillis(50);
+        try {
+            RecordingSession stuck = new RecordingSession(false);
+            store.replay(stuck, room, "20", false);
+            String stopped = stuck.awaitText("stopped");
+            assertTrue(stopped.contains("/history since "), stopped);
+            assertTrue(stuck.replayed() < 20);
+
+            for (int i = 0; i < MessageStore.MAX_REPLAY_THREADS; i++) {
+                store.replay(new RecordingSession(false), room, "20", false);
+            }
+            RecordingSession reader = new RecordingSession(true);
+            store.replay(reader, room, "20", false);
+            reader.awaitText("End of history");
+            assertEquals(20, reader.replayed());
+            // Later replays still get a thread
+        } finally {
+            store.close();
+        }
+    }
+
+    private MessageStore storeWithMessages(int count) throws IOException {
+        MessageStore writing = new MessageStore(directory, HistoryWriter.Durability.FLUSH);
+        for (int i = 0; i < count; i++) {
+            writing.append(room, OutboundMessage.of(ChatFrame.chat(room.getId(), 1, "alice", "message " + i)));
+        }
+        writing.close();
+        return new MessageStore(directory, HistoryWriter.Durability.FLUSH);
+    }
+    // Written and reopened, so every message is on disk before the replay starts
+
+    private static final class RecordingSession implements ChatSession {
+        private final boolean reading;
+        private final OutboundQueue<ByteBuffer> queue = new OutboundQueue<>(4, OverflowPolicy.DROP_OLDEST);
+        private final List<ChatFrame> delivered = new CopyOnWriteArrayList<>();
+
+        private RecordingSession(boolean reading) {
+            this.reading = reading;
+        }
+        // A session that is not reading leaves everything in its queue
+
+        @Override
+        public void deliver(OutboundMessage message) {
+            delivered.add(message.getFrame());
+            if (!reading) {
+                queue.offer(message.textLine());
+            }
+        }
+
+        private int replayed() {
+            int count = 0;
+            for (ChatFrame frame : delivered) {
+                if ((frame.getFlags() & ChatFrame.FLAG_REPLAY) != 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private String awaitText(String part) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+            while (System.nanoTime() < deadline) {
+                for (ChatFrame frame : delivered) {
+                    if (frame.getText().contains(part)) {
+                        return frame.getText();
+                    }
+                }
+                Thread.sleep(10);
+            }
+            throw new AssertionError("Nothing containing \"" + part + "\" was delivered");
+        }
+
+        @Override
+        public long getSessionId() {
+            return 1;
+        }
+
+        @Override
+        public String getUsername() {
+            return "tester";
+        }
+
+        @Override
+        public SessionRooms getRooms() {
+            return null;
+        }
+
+        @Override
+        public OutboundQueue<ByteBuffer> getOutboundQueue() {
+            return queue;
+        }
+
+        @Override
+        public boolean hasPendingWrites() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public void close(ServerMetrics.DisconnectReason reason) {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+    }
+}
+// History replays from the message store, including clients that stop reading
@@ -0,0 +1,111 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class RoomRegistryTest {
+
+    private final RoomRegistry registry = new RoomRegistry();
+
+    @Test
+    void namesAreNormalisedAndValidated() {
+        assertEquals("general", RoomRegistry.normaliseName(" #General "));
+        assertNull(RoomRegistry.normaliseName("../etc"));
+        assertNull(RoomRegistry.normaliseName(""));
+        assertNull(RoomRegistry.normaliseName("x".repeat(33)));
+    }
+
+    @Test
+    void roomLimitCountsRoomsBesidesTheLobby() {
+        registry.setMaxRooms(2);
+        Room first = registry.getOrCreate("first");
+        registry.getOrCreate("second");
+        assertNull(registry.getOrCreate("third"));
+        assertSame(first, registry.getOrCreate("first"));
+        // Existing rooms can always be joined
+
+        assertTrue(registry.removeIfEmpty(first));
+        assertEquals("third", registry.getOrCreate("third").getName());
+    }
+
+    @Test
+    void onlyEmptyRoomsOtherThanTheLobbyAreRemoved() {
+        Room room = registry.getOrCreate("busy");
+        room.getMembers().add(new StubSession(1));
+        assertFalse(registry.removeIfEmpty(room));
+        assertFalse(registry.removeIfEmpty(registry.getLobby()));
+        assertSame(room, registry.findByName("busy"));
+        assertSame(registry.getLobby(), registry.findById(RoomRegistry.LOBBY_ID));
+    }
+
+    @Test
+    void recreatedRoomGetsANewId() {
+        Room room = registry.getOrCreate("again");
+        assertTrue(registry.removeIfEmpty(room));
+        assertNull(registry.findById(room.getId()));
+        assertNull(registry.findByName("again"));
+        assertFalse(registry.removeIfEmpty(room));
+
+        Room recreated = registry.getOrCreate("again");
+        assertNotEquals(room.getId(), recreated.getId());
+        assertFalse(registry.removeIfEmpty(room));
+        assertSame(recreated, registry.findByName("again"));
+        // A stale Room object never removes its successor
+    }
+
+    private static final class StubSession implements ChatSession {
+        private final long id;
+
+        private StubSession(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public long getSessionId() {
+            return id;
+        }
+
+        @Override
+        public String getUsername() {
+            return "user" + id;
+        }
+
+        @Override
+        public SessionRooms getRooms() {
+            return null;
+        }
+
+        @Override
+        public void deliver(OutboundMessage message) {
+        }
+
+        @Override
+        public OutboundQueue<ByteBuffer> getOutboundQueue() {
+            return null;
+        }
+
+        @Override
+        public boolean hasPendingWrites() {
+            return false;
+        }
+
+        @Override
+        public void close(ServerMetrics.DisconnectReason reason) {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+    }
+}
+// Room lookup, the room limit and dropping empty rooms
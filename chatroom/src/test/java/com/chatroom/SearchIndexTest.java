@@ -0,0 +1,57 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SearchIndexTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void messageWithMoreTermsThanFitInAShortSurvivesTheJournal() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 70_000; i++) {
+            text.append('w').append(i).append(' ');
+        }
+        SearchIndex index = new SearchIndex(directory);
+        index.load();
+        index.add(0, "before");
+        index.add(1, text.toString());
+        index.add(2, "after w69999");
+        index.close();
+
+        SearchIndex reloaded = new SearchIndex(directory);
+        reloaded.load();
+        assertEquals(3, reloaded.getNextId());
+        assertArrayEquals(new long[] { 1 }, reloaded.search("w0", 10));
+        assertArrayEquals(new long[] { 2, 1 }, reloaded.search("w69999", 10));
+        assertArrayEquals(new long[] { 2 }, reloaded.search("after", 10));
+        reloaded.close();
+    }
+
+    @Test
+    void snapshotAndJournalLoadTogether() throws IOException {
+        SearchIndex index = new SearchIndex(directory);
+        index.load();
+        index.add(0, "hello world");
+        index.snapshot();
+        index.add(1, "hello again");
+        index.close();
+
+        SearchIndex reloaded = new SearchIndex(directory);
+        reloaded.load();
+        assertEquals(2, reloaded.getNextId());
+        assertArrayEquals(new long[] { 1, 0 }, reloaded.search("hello", 10));
+        assertArrayEquals(new long[] { 0 }, reloaded.search("world", 10));
+        reloaded.close();
+    }
+}
+// Journal and snapshot round trips of the search index
@@ -0,0 +1,169 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SegmentedLogTest {
+
+    private static final long SEGMENT_BYTES = 1024;
+    private static final int INDEX_INTERVAL = 4;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void recordsReadBackInOrderAcrossSegments() throws IOException {
+        try (SegmentedLog log = open()) {
+            appendAll(log, 0, 100);
+            assertTrue(logFiles().length > 1);
+            assertEquals(100, log.getCommittedOffset());
+            assertEquals(texts(0, 100), readAll(log, 0));
+            assertEquals(texts(57, 100), readAll(log, 57));
+        }
+    }
+
+    @Test
+    void tornTailIsTruncatedOnReopen() throws IOException {
+        try (SegmentedLog log = open()) {
+            appendAll(log, 0, 10);
+        }
+        File last = lastLogFile();
+        long intact = last.length();
+        try (FileOutputStream out = new FileOutputStream(last, true)) {
+            out.write(new byte[] { 0, 0, 0, 50, 1, 2, 3, 4, 0, 0 });
+        }
+        // Part of a record header, as left by a crash in the middle of a write
+
+        try (SegmentedLog log = open()) {
+            assertEquals(10, log.getCommittedOffset());
+            assertEquals(intact, last.length());
+            assertEquals(10, log.append(1010, text(10)));
+            log.sync(HistoryWriter.Durability.FLUSH);
+            assertEquals(texts(0, 11), readAll(log, 0));
+        }
+    }
+
+    @Test
+    void recordWithBadChecksumEndsTheLog() throws IOException {
+        try (SegmentedLog log = open()) {
+            appendAll(log, 0, 5);
+        }
+        File last = lastLogFile();
+        try (RandomAccessFile file = new RandomAccessFile(last, "rw")) {
+            file.seek(file.length() - 1);
+            file.write('!');
+        }
+        // Damages the data of the last record, its length still fits the file
+
+        try (SegmentedLog log = open()) {
+            assertEquals(4, log.getCommittedOffset());
+            assertEquals(texts(0, 4), readAll(log, 0));
+        }
+    }
+
+    @Test
+    void missingOrCorruptIndexIsRebuilt() throws IOException {
+        try (SegmentedLog log = open()) {
+            appendAll(log, 0, 100);
+        }
+        File[] indexes = directory.listFiles((dir, name) -> name.endsWith(".idx"));
+        Arrays.sort(indexes);
+        assertTrue(indexes.length > 2);
+        long indexLength = indexes[0].length();
+        assertTrue(indexes[0].delete());
+        try (RandomAccessFile file = new RandomAccessFile(indexes[1], "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        try (SegmentedLog log = open()) {
+            assertEquals(100, log.getCommittedOffset());
+            assertEquals(indexLength, indexes[0].length());
+            assertEquals(0, indexes[1].length() % (8 + 8 + 8));
+            for (long offset = 0; offset < 100; offset += 7) {
+                try (SegmentedLog.Cursor cursor = log.read(offset)) {
+                    SegmentedLog.Record record = cursor.next();
+                    assertEquals(offset, record.getOffset());
+                    assertArrayEquals(text(offset), record.getData());
+                }
+            }
+            try (SegmentedLog.Cursor cursor = log.readFrom(1000 + 42)) {
+                assertEquals(42, cursor.next().getOffset());
+            }
+        }
+    }
+
+    @Test
+    void timestampsNeverGoBackwards() throws IOException {
+        try (SegmentedLog log = open()) {
+            log.append(2000, text(0));
+            log.append(1000, text(1));
+            log.sync(HistoryWriter.Durability.FLUSH);
+            try (SegmentedLog.Cursor cursor = log.read(0)) {
+                assertEquals(2000, cursor.next().getTimestamp());
+                assertEquals(2000, cursor.next().getTimestamp());
+                assertNull(cursor.next());
+            }
+        }
+    }
+
+    private SegmentedLog open() throws IOException {
+        return new SegmentedLog(directory, SEGMENT_BYTES, INDEX_INTERVAL);
+    }
+
+    private File[] logFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    private File lastLogFile() {
+        File[] files = logFiles();
+        return files[files.length - 1];
+    }
+
+    private static void appendAll(SegmentedLog log, long from, long to) throws IOException {
+        for (long offset = from; offset < to; offset++) {
+            assertEquals(offset, log.append(1000 + offset, text(offset)));
+        }
+        log.sync(HistoryWriter.Durability.FLUSH);
+    }
+
+    private static List<String> readAll(SegmentedLog log, long from) throws IOException {
+        List<String> read = new ArrayList<>();
+        try (SegmentedLog.Cursor cursor = log.read(from)) {
+            SegmentedLog.Record record;
+            while ((record = cursor.next()) != null) {
+                read.add(new String(record.getData(), StandardCharsets.UTF_8));
+            }
+        }
+        return read;
+    }
+
+    private static byte[] text(long offset) {
+        return ("record " + offset).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> texts(long from, long to) {
+        List<String> texts = new ArrayList<>();
+        for (long offset = from; offset < to; offset++) {
+            texts.add("record " + offset);
+        }
+        return texts;
+    }
+}
+// Recovery of the segmented log after a crash: torn tails and lost indexes
@@ -0,0 +1,99 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+
+class ServerConfigTest {
+
+    private final ServerConfig config = new ServerConfig();
+
+    @Test
+    void setParsesEveryKindOfValue() {
+        config.set("port", " 2500 ");
+        config.set("engine", "nio");
+        config.set("historyDurability", "FSYNC");
+        config.set("shutdownTimeoutMillis", "1500");
+        config.set("compression", "FALSE");
+        config.set("clusterPeers", "localhost:7001, node-b:7002,");
+        config.set("clusterBindAddress", "0.0.0.0");
+        config.set("clusterSecret", "s3cret");
+        config.set("maxRooms", "50");
+        assertEquals(2500, config.getPort());
+        assertEquals(EngineMode.NIO, config.getEngineMode());
+        assertEquals(HistoryWriter.Durability.FSYNC, config.getHistoryDurability());
+        assertEquals(1500, config.getShutdownTimeoutMillis());
+        assertFalse(config.isCompression());
+        assertEquals(2, config.getClusterPeers().size());
+        assertEquals("node-b", config.getClusterPeers().get(1).getHostString());
+        assertEquals(7002, config.getClusterPeers().get(1).getPort());
+        assertEquals("0.0.0.0", config.getClusterBindAddress());
+        assertEquals("s3cret", config.getClusterSecret());
+        assertEquals(50, config.getMaxRooms());
+    }
+
+    @Test
+    void unknownKeyIsRejected() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> config.set("maxSesions", "10"));
+        assertEquals("Unknown setting: maxSesions", e.getMessage());
+    }
+
+    @Test
+    void badNumberIsRejected() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> config.set("maxSessions", "ten"));
+        assertEquals("Invalid number for maxSessions: ten", e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> config.set("clusterPeers", "host:port"));
+        assertEquals(0, config.getMaxSessions());
+    }
+
+    @Test
+    void badEnumListsTheAllowedValues() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> config.set("overflowPolicy", "IGNORE"));
+        assertTrue(e.getMessage().startsWith("Invalid value for overflowPolicy: IGNORE, expected one of "));
+        assertTrue(e.getMessage().contains(OverflowPolicy.DISCONNECT.name()));
+    }
+
+    @Test
+    void badBooleanIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> config.set("compression", "yes"));
+        assertTrue(config.isCompression());
+    }
+
+    @Test
+    void outOfRangeValuesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> config.set("port", "70000"));
+        assertThrows(IllegalArgumentException.class, () -> config.set("maxSessions", "-1"));
+        assertThrows(IllegalArgumentException.class, () -> config.set("connectRate", "-5"));
+        assertThrows(IllegalArgumentException.class, () -> config.set("messageBurst", "0"));
+        assertThrows(IllegalArgumentException.class, () -> config.set("eventLoopThreads", "0"));
+        assertThrows(IllegalArgumentException.class, () -> config.set("writeCoalesceDelayMicros", "-1"));
+        assertThrows(IllegalArgumentException.class, () -> config.set("clusterNodeId", " "));
+        assertThrows(IllegalArgumentException.class, () -> config.set("clusterPeers", "localhost:0"));
+        assertThrows(IllegalArgumentException.class, () -> config.set("clusterPeers", "nohost"));
+        assertEquals(ServerConfig.DEFAULT_PORT, config.getPort());
+        assertEquals(20, config.getMessageBurst());
+    }
+
+    @Test
+    void loadAppliesEveryProperty() {
+        Properties properties = new Properties();
+        properties.setProperty("maxSessions", "100");
+        properties.setProperty("messageRate", "5");
+        config.load(properties);
+        assertEquals(100, config.getMaxSessions());
+        assertEquals(5, config.getMessageRate());
+
+        properties.setProperty("bogus", "1");
+        assertThrows(IllegalArgumentException.class, () -> config.load(properties));
+    }
+}
+// Parsing and validation of server settings given by name
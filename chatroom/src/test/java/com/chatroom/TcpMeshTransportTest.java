@@ -0,0 +1,217 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TcpMeshTransportTest {
+
+    private static final long TIMEOUT_SECONDS = 15;
+
+    private TcpMeshTransport a;
+    private TcpMeshTransport b;
+
+    @AfterEach
+    void closeTransports() {
+        if (a != null) {
+            a.close();
+        }
+        if (b != null) {
+            b.close();
+        }
+    }
+
+    @Test
+    void publishedMessagesReachThePeer() throws Exception {
+        RecordingListener bEvents = new RecordingListener();
+        b = new TcpMeshTransport("b", 0, Collections.emptyList());
+        b.start(bEvents);
+        RecordingListener aEvents = new RecordingListener();
+        a = new TcpMeshTransport("a", 0, Collections.singletonList(local(b.getPort())));
+        a.start(aEvents);
+
+        assertEquals("connected", aEvents.next());
+        a.publish(relay(0, "hello"));
+        assertEquals("message a 0 hello", bEvents.next());
+    }
+
+    @Test
+    void linkIsOpenedOncePeerComesUp() throws Exception {
+        int port = freePort();
+        RecordingListener aEvents = new RecordingListener();
+        a = new TcpMeshTransport("a", 0, Collections.singletonList(local(port)));
+        a.start(aEvents);
+        a.publish(relay(0, "nobody listening"));
+        // Dropped, there is no link yet
+
+        Thread.sleep(TcpMeshTransport.RECONNECT_DELAY_MILLIS + 500);
+        RecordingListener bEvents = new RecordingListener();
+        b = new TcpMeshTransport("b", port, Collections.emptyList());
+        b.start(bEvents);
+
+        assertEquals("connected", aEvents.next());
+        a.publish(relay(1, "late"));
+        assertEquals("message a 1 late", bEvents.next());
+    }
+
+    @Test
+    void linkReconnectsAfterPeerRestarts() throws Exception {
+        RecordingListener bEvents = new RecordingListener();
+        b = new TcpMeshTransport("b", 0, Collections.emptyList());
+        b.start(bEvents);
+        int port = b.getPort();
+        RecordingListener aEvents = new RecordingListener();
+        a = new TcpMeshTransport("a", 0, Collections.singletonList(local(port)));
+        a.start(aEvents);
+        assertEquals("connected", aEvents.next());
+
+        b.close();
+        RecordingListener restartedEvents = new RecordingListener();
+        b = restart("b", port, restartedEvents);
+
+        assertEquals("connected", aEvents.next());
+        // The old link fails on its next heartbeat and a new one is opened
+        a.publish(relay(0, "again"));
+        assertEquals("message a 0 again", restartedEvents.next());
+    }
+
+    @Test
+    void peerIsReportedGoneWhenItsLinkCloses() throws Exception {
+        RecordingListener bEvents = new RecordingListener();
+        b = new TcpMeshTransport("b", 0, Collections.emptyList());
+        b.start(bEvents);
+        RecordingListener aEvents = new RecordingListener();
+        a = new TcpMeshTransport("a", 0, Collections.singletonList(local(b.getPort())));
+        a.start(aEvents);
+        assertEquals("connected", aEvents.next());
+        a.publish(relay(0, "hi"));
+        assertEquals("message a 0 hi", bEvents.next());
+
+        a.close();
+        a = null;
+        assertEquals("disconnected a", bEvents.next());
+    }
+
+    @Test
+    void nodesWithTheSameSecretLink() throws Exception {
+        RecordingListener bEvents = new RecordingListener();
+        b = new TcpMeshTransport("b", "127.0.0.1", 0, Collections.emptyList(), "s3cret");
+        b.start(bEvents);
+        RecordingListener aEvents = new RecordingListener();
+        a = new TcpMeshTransport("a", "127.0.0.1", 0, Collections.singletonList(local(b.getPort())), "s3cret");
+        a.start(aEvents);
+
+        assertEquals("connected", aEvents.next());
+        a.publish(relay(0, "trusted"));
+        assertEquals("message a 0 trusted", bEvents.next());
+    }
+
+    @Test
+    void linkWithTheWrongSecretIsRefused() throws Exception {
+        RecordingListener bEvents = new RecordingListener();
+        b = new TcpMeshTransport("b", "127.0.0.1", 0, Collections.emptyList(), "s3cret");
+        b.start(bEvents);
+        RecordingListener aEvents = new RecordingListener();
+        a = new TcpMeshTransport("a", "127.0.0.1", 0, Collections.singletonList(local(b.getPort())), "guess");
+        a.start(aEvents);
+
+        aEvents.assertNone(TcpMeshTransport.RECONNECT_DELAY_MILLIS * 2);
+        a.publish(relay(0, "spoofed"));
+        bEvents.assertNone(500);
+    }
+
+    @Test
+    void linkThatSkipsTheHandshakeIsRefused() throws Exception {
+        RecordingListener bEvents = new RecordingListener();
+        b = new TcpMeshTransport("b", 0, Collections.emptyList());
+        b.start(bEvents);
+        try (Socket socket = new Socket("127.0.0.1", b.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF("a");
+            out.write(relay(0, "injected").encode());
+            out.flush();
+            // What a link looked like before links were authenticated
+            bEvents.assertNone(1000);
+        }
+    }
+
+    private static TcpMeshTransport restart(String nodeId, int port, RecordingListener listener)
+            throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (true) {
+            TcpMeshTransport transport = new TcpMeshTransport(nodeId, port, Collections.emptyList());
+            try {
+                transport.start(listener);
+                return transport;
+            } catch (BindException e) {
+                transport.close();
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+    // The port of the closed transport can take a moment to become free again
+
+    private static ClusterMessage relay(long sequence, String text) {
+        return ClusterMessage.relay("a", 1, sequence, "mesh", ChatFrame.chat(1, 2, "alice", text));
+    }
+
+    private static InetSocketAddress local(int port) {
+        return InetSocketAddress.createUnresolved("127.0.0.1", port);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static final class RecordingListener implements ClusterTransport.Listener {
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onMessage(ClusterMessage message) {
+            events.add("message " + message.getOriginNodeId() + " " + message.getSequence() + " "
+                    + message.getFrame().getText());
+        }
+
+        @Override
+        public void onPeerConnected() {
+            events.add("connected");
+        }
+
+        @Override
+        public void onPeerDisconnected(String nodeId) {
+            events.add("disconnected " + nodeId);
+        }
+
+        private void assertNone(long millis) throws InterruptedException {
+            assertNull(events.poll(millis, TimeUnit.MILLISECONDS));
+        }
+
+        private String next() throws InterruptedException {
+            String event = events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(event, "No cluster event within " + TIMEOUT_SECONDS + " seconds");
+            return event;
+        }
+    }
+}
+// Links between two nodes on the loopback interface, including a peer that
+// starts late, one that restarts and ones that cannot authenticate
@@ -0,0 +1,74 @@
+package com.chatroom;
+// Package declaration for MAVEN project in VSCode
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+
+    @Test
+    void startsFullAndAllowsABurstOfCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 3, now::get);
+        assertTrue(bucket.isFull());
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        assertFalse(bucket.isFull());
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() {
+        TokenBucket bucket = new TokenBucket(10, 10, now::get);
+        drain(bucket);
+
+        advanceMillis(99);
+        assertFalse(bucket.tryAcquire());
+        advanceMillis(1);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+
+        advanceMillis(500);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void neverHoldsMoreThanCapacity() {
+        TokenBucket bucket = new TokenBucket(100, 4, now::get);
+        drain(bucket);
+        advanceMillis(60_000);
+        assertTrue(bucket.isFull());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1, now::get));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(1, 0.5, now::get));
+    }
+
+    private void advanceMillis(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static void drain(TokenBucket bucket) {
+        while (bucket.tryAcquire()) {
+            // Take every token
+        }
+    }
+}
+// Token bucket rates and bursts against a clock the test advances by hand